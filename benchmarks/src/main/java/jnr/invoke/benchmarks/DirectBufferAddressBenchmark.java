@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke.benchmarks;
+
+import com.kenai.jffi.MemoryIO;
+import com.kenai.jffi.Platform;
+import jnr.invoke.DataDirection;
+import jnr.invoke.Library;
+import jnr.invoke.Native;
+import jnr.invoke.NativeType;
+import jnr.invoke.ParameterType;
+import jnr.invoke.ResultType;
+import jnr.invoke.Signature;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares passing direct buffers to memcmp as buffer parameters, which read the java.nio.Buffer address field, with
+ * looking each address up via JNI GetDirectBufferAddress, as direct buffer parameters used to do on every call, and
+ * passing the addresses as longs.
+ *
+ * <pre>
+ * mvn -f benchmarks/pom.xml package
+ * java -jar benchmarks/target/benchmarks.jar DirectBufferAddressBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DirectBufferAddressBenchmark {
+    private ByteBuffer s1, s2;
+    private MethodHandle memcmpBuffer, memcmpAddress;
+
+    @Setup
+    public void setup() {
+        s1 = ByteBuffer.allocateDirect(8);
+        s2 = ByteBuffer.allocateDirect(8);
+
+        // libc.so is a linker script on linux
+        String libcName = Platform.getPlatform().getOS() == Platform.OS.LINUX ? "libc.so.6" : Platform.getPlatform().mapLibraryName("c");
+        Library libc = Library.open(libcName, Library.LAZY | Library.LOCAL);
+        ResultType result = ResultType.primitive(NativeType.SINT, int.class);
+        ParameterType size = ParameterType.primitive(NativeType.ULONG, long.class);
+        ParameterType buffer = ParameterType.buffer(ByteBuffer.class, DataDirection.IN);
+        ParameterType address = ParameterType.primitive(NativeType.POINTER, long.class);
+
+        memcmpBuffer = Native.getMethodHandle(Signature.getSignature(0, result, buffer, buffer, size),
+                libc.getFunction("memcmp"));
+        memcmpAddress = Native.getMethodHandle(Signature.getSignature(0, result, address, address, size),
+                libc.getFunction("memcmp"));
+    }
+
+    @Benchmark
+    public long jniAddress() {
+        return MemoryIO.getInstance().getDirectBufferAddress(s1);
+    }
+
+    /** The previous path: each buffer address is looked up via JNI before the call. */
+    @Benchmark
+    public int memcmpJniAddress() throws Throwable {
+        MemoryIO io = MemoryIO.getInstance();
+        return (int) memcmpAddress.invokeExact(io.getDirectBufferAddress(s1), io.getDirectBufferAddress(s2), 8L);
+    }
+
+    @Benchmark
+    public int memcmpBuffer() throws Throwable {
+        return (int) memcmpBuffer.invokeExact(s1, s2, 8L);
+    }
+}
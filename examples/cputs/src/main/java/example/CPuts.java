@@ -14,6 +14,7 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public class CPuts {
     static {
@@ -38,6 +39,12 @@ public class CPuts {
             throw new RuntimeException(e);
         }
 
+        // Strings can also be encoded directly into native memory, without the intermediate byte array
+        Signature stringContext = Signature.getSignature(ResultType.primitive(NativeType.SINT, int.class),
+                new ParameterType[]{ParameterType.string(Charset.defaultCharset())});
+        MethodHandle stringPuts = Native.getMethodHandle(stringContext, libc.getFunction("puts"));
+        stringPuts.invoke("Hello, World [String parameter type]");
+
         // Now try it using both direct and heap ByteBuffers
         Signature bufferContext = Signature.getSignature(ResultType.primitive(NativeType.SINT, int.class),
                 new ParameterType[]{ParameterType.buffer(ByteBuffer.class, DataDirection.IN)});
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.ArrayFlags;
+import com.kenai.jffi.ObjectParameterInfo;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a heap array parameter is copied to native memory, or pinned and passed to the
+ * native function in place.
+ *
+ * Arrays smaller than the threshold are copied in (and out) as usual.  Arrays at or above the threshold
+ * are pinned for the duration of the call, which avoids the copy but stalls the garbage collector until the
+ * native function returns.  Pinning is therefore only done for functions whose {@link Signature} has the
+ * {@link Signature#LEAF} flag set; for all other functions arrays are always copied.
+ *
+ * A policy may be shared between several parameter types; the copy/pin counts are the totals for all of them.
+ * The counts are striped, so calls on different threads do not contend on them.
+ */
+public final class ArrayPinningPolicy {
+    private final long threshold;
+    private final LongAdder pinnedCount = new LongAdder();
+    private final LongAdder copiedCount = new LongAdder();
+
+    private ArrayPinningPolicy(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Creates a policy that pins arrays whose size is at least {@code thresholdBytes} bytes.
+     *
+     * @param thresholdBytes the minimum array size, in bytes, that will be pinned instead of copied.
+     * @return a new policy.
+     */
+    public static ArrayPinningPolicy threshold(long thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("negative threshold: " + thresholdBytes);
+        }
+
+        return new ArrayPinningPolicy(thresholdBytes);
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Gets the number of arrays that were pinned instead of copied.
+     *
+     * @return the number of pinned arrays.
+     */
+    public long getPinnedCount() {
+        return pinnedCount.sum();
+    }
+
+    /**
+     * Gets the number of arrays that were smaller than the threshold, and so were copied.
+     *
+     * @return the number of copied arrays.
+     */
+    public long getCopiedCount() {
+        return copiedCount.sum();
+    }
+
+    Selector selector(Class arrayType, int parameterIndex, DataDirection dataDirection) {
+        int arrayFlags = dataDirection.getArrayFlags();
+
+        // Pinned arrays are handed to native code as-is, so there is no room to append a NUL terminator.
+        return new Selector(this, elementShift(arrayType.getComponentType()),
+                ObjectParameterInfo.create(parameterIndex, arrayFlags),
+                ObjectParameterInfo.create(parameterIndex, (arrayFlags | ArrayFlags.PINNED) & ~ArrayFlags.NULTERMINATE));
+    }
+
+    private static int elementShift(Class componentType) {
+        if (long.class == componentType || double.class == componentType) {
+            return 3;
+
+        } else if (int.class == componentType || float.class == componentType) {
+            return 2;
+
+        } else if (short.class == componentType || char.class == componentType) {
+            return 1;
+
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Selects the jffi parameter info for one array parameter of one function.  Used from generated code.
+     */
+    public static final class Selector {
+        private final ArrayPinningPolicy policy;
+        private final int shift;
+        private final ObjectParameterInfo copyInfo;
+        private final ObjectParameterInfo pinnedInfo;
+
+        Selector(ArrayPinningPolicy policy, int shift, ObjectParameterInfo copyInfo, ObjectParameterInfo pinnedInfo) {
+            this.policy = policy;
+            this.shift = shift;
+            this.copyInfo = copyInfo;
+            this.pinnedInfo = pinnedInfo;
+        }
+
+        public ObjectParameterInfo select(Object parameter, ObjectParameterStrategy strategy) {
+            if (strategy.isDirect()) {
+                // null arrays are passed as a NULL pointer; nothing to copy or pin
+                return copyInfo;
+            }
+
+            if (((long) strategy.length(parameter) << shift) >= policy.threshold) {
+                policy.pinnedCount.increment();
+                return pinnedInfo;
+            }
+
+            policy.copiedCount.increment();
+            return copyInfo;
+        }
+    }
+}
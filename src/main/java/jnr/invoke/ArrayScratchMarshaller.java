@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.ArrayFlags;
+import com.kenai.jffi.MemoryIO;
+
+/**
+ * Marshals primitive arrays by copying them into scratch memory.
+ */
+abstract class ArrayScratchMarshaller extends ScratchMarshaller {
+    private final int shift;
+    private final boolean in, out, clear, nulTerminate;
+
+    ArrayScratchMarshaller(int shift, int flags) {
+        this.shift = shift;
+        this.in = ArrayFlags.isIn(flags);
+        this.out = ArrayFlags.isOut(flags);
+        this.clear = (flags & ArrayFlags.CLEAR) != 0;
+        this.nulTerminate = (flags & ArrayFlags.NULTERMINATE) != 0;
+    }
+
+    abstract int length(Object array);
+    abstract void put(long address, Object array, int offset, int length);
+    abstract void get(long address, Object array, int offset, int length);
+
+    static ArrayScratchMarshaller forArrayType(Class arrayType, DataDirection dataDirection) {
+        int flags = dataDirection.getArrayFlags();
+        if (byte[].class == arrayType) {
+            return new ByteArray(flags);
+        }
+        if (short[].class == arrayType) {
+            return new ShortArray(flags);
+        }
+        if (char[].class == arrayType) {
+            return new CharArray(flags);
+        }
+        if (int[].class == arrayType) {
+            return new IntArray(flags);
+        }
+        if (long[].class == arrayType) {
+            return new LongArray(flags);
+        }
+        if (float[].class == arrayType) {
+            return new FloatArray(flags);
+        }
+        if (double[].class == arrayType) {
+            return new DoubleArray(flags);
+        }
+
+        return null;
+    }
+
+    @Override
+    public final long toNative(ScratchArena arena, Object parameter) {
+        return parameter != null ? toNative(arena, parameter, 0, length(parameter)) : 0L;
+    }
+
+    /**
+     * Copies {@code length} elements of {@code array} from {@code offset} into scratch memory.
+     */
+    final long toNative(ScratchArena arena, Object array, int offset, int length) {
+        long size = (long) length << shift;
+        long terminator = nulTerminate ? 1L << shift : 0L;
+        long address = arena.allocate(size + terminator);
+
+        if (in) {
+            put(address, array, offset, length);
+        } else if (clear) {
+            MemoryIO.getInstance().setMemory(address, size, (byte) 0);
+        }
+
+        if (terminator != 0) {
+            MemoryIO.getInstance().setMemory(address + size, terminator, (byte) 0);
+        }
+
+        return address;
+    }
+
+    @Override
+    public final void fromNative(ScratchArena arena, Object parameter, long address) {
+        if (parameter != null) {
+            fromNative(parameter, 0, length(parameter), address);
+        }
+    }
+
+    final void fromNative(Object array, int offset, int length, long address) {
+        if (out) {
+            get(address, array, offset, length);
+        }
+    }
+
+    @Override
+    final boolean hasOutput() {
+        return out;
+    }
+
+    private static final class ByteArray extends ArrayScratchMarshaller {
+        ByteArray(int flags) {
+            super(0, flags);
+        }
+
+        int length(Object array) {
+            return ((byte[]) array).length;
+        }
+
+        void put(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.putArray(address, (byte[]) array, offset, length);
+        }
+
+        void get(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.getArray(address, (byte[]) array, offset, length);
+        }
+    }
+
+    private static final class ShortArray extends ArrayScratchMarshaller {
+        ShortArray(int flags) {
+            super(1, flags);
+        }
+
+        int length(Object array) {
+            return ((short[]) array).length;
+        }
+
+        void put(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.putArray(address, (short[]) array, offset, length);
+        }
+
+        void get(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.getArray(address, (short[]) array, offset, length);
+        }
+    }
+
+    private static final class CharArray extends ArrayScratchMarshaller {
+        CharArray(int flags) {
+            super(1, flags);
+        }
+
+        int length(Object array) {
+            return ((char[]) array).length;
+        }
+
+        void put(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.putArray(address, (char[]) array, offset, length);
+        }
+
+        void get(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.getArray(address, (char[]) array, offset, length);
+        }
+    }
+
+    private static final class IntArray extends ArrayScratchMarshaller {
+        IntArray(int flags) {
+            super(2, flags);
+        }
+
+        int length(Object array) {
+            return ((int[]) array).length;
+        }
+
+        void put(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.putArray(address, (int[]) array, offset, length);
+        }
+
+        void get(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.getArray(address, (int[]) array, offset, length);
+        }
+    }
+
+    private static final class LongArray extends ArrayScratchMarshaller {
+        LongArray(int flags) {
+            super(3, flags);
+        }
+
+        int length(Object array) {
+            return ((long[]) array).length;
+        }
+
+        void put(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.putArray(address, (long[]) array, offset, length);
+        }
+
+        void get(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.getArray(address, (long[]) array, offset, length);
+        }
+    }
+
+    private static final class FloatArray extends ArrayScratchMarshaller {
+        FloatArray(int flags) {
+            super(2, flags);
+        }
+
+        int length(Object array) {
+            return ((float[]) array).length;
+        }
+
+        void put(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.putArray(address, (float[]) array, offset, length);
+        }
+
+        void get(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.getArray(address, (float[]) array, offset, length);
+        }
+    }
+
+    private static final class DoubleArray extends ArrayScratchMarshaller {
+        DoubleArray(int flags) {
+            super(3, flags);
+        }
+
+        int length(Object array) {
+            return ((double[]) array).length;
+        }
+
+        void put(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.putArray(address, (double[]) array, offset, length);
+        }
+
+        void get(long address, Object array, int offset, int length) {
+            UnsafeMemoryIO.getArray(address, (double[]) array, offset, length);
+        }
+    }
+}
@@ -20,7 +20,6 @@ package jnr.invoke;
 
 import com.kenai.jffi.CallContext;
 import com.kenai.jffi.HeapInvocationBuffer;
-import com.kenai.jffi.MemoryIO;
 
 import java.nio.*;
 import java.util.Collections;
@@ -69,11 +68,11 @@ public final class AsmRuntime {
     }
 
     public static long longValue(Buffer ptr) {
-        return ptr != null && ptr.isDirect() ? MemoryIO.getInstance().getDirectBufferAddress(ptr) : 0L;
+        return ptr != null && ptr.isDirect() ? UnsafeMemoryIO.getDirectBufferAddress(ptr) : 0L;
     }
 
     public static int intValue(Buffer ptr) {
-        return ptr != null && ptr.isDirect()  ? (int) MemoryIO.getInstance().getDirectBufferAddress(ptr) : 0;
+        return ptr != null && ptr.isDirect() ? (int) UnsafeMemoryIO.getDirectBufferAddress(ptr) : 0;
     }
 
     public static int s8(int v) {
@@ -159,4 +158,13 @@ public final class AsmRuntime {
     public static boolean isTrue(boolean p1, boolean p2, boolean p3, boolean p4, boolean p5, boolean p6) {
         return p1 & p2 & p3 & p4 & p5 & p5 & p6;
     }
+
+    /**
+     * Passes an exception thrown by a callback to the uncaught exception handler of the current thread, since it
+     * cannot be propagated through native code.
+     */
+    public static void callbackException(Throwable t) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+    }
 }
@@ -198,6 +198,26 @@ final class AsmUtil {
         }
     }
 
+    static Class boxedType(Class type) {
+        if (byte.class == type) {
+            return Byte.class;
+        } else if (short.class == type) {
+            return Short.class;
+        } else if (char.class == type) {
+            return Character.class;
+        } else if (int.class == type) {
+            return Integer.class;
+        } else if (long.class == type) {
+            return Long.class;
+        } else if (float.class == type) {
+            return Float.class;
+        } else if (double.class == type) {
+            return Double.class;
+        } else {
+            return Boolean.class;
+        }
+    }
+
     static void tryfinally(SkinnyMethodAdapter mv, Runnable codeBlock, Runnable finallyBlock) {
         Label before = new Label(), after = new Label(), ensure = new Label(), done = new Label();
         mv.trycatch(before, after, ensure, null);
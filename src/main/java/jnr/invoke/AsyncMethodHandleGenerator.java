@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static jnr.invoke.AsmUtil.boxedType;
+import static jnr.invoke.AsmUtil.emitStaticFieldInitialization;
+import static jnr.invoke.AsmUtil.load;
+import static jnr.invoke.CodegenUtils.*;
+import static jnr.invoke.Native.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates {@link AsyncTask} subclasses, which capture the arguments of a handle in primitive typed fields, and call
+ * it on an executor.
+ */
+final class AsyncMethodHandleGenerator {
+    static final int DEFAULT_THREADS = Integer.getInteger("jnr.invoke.async.threads", 4 * Runtime.getRuntime().availableProcessors());
+    static final int DEFAULT_QUEUE_SIZE = Integer.getInteger("jnr.invoke.async.queue", 1024);
+
+    private AsyncMethodHandleGenerator() {
+    }
+
+    static final class DefaultExecutorHolder {
+        static final NativeCallExecutor EXECUTOR = new NativeCallExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    static MethodHandle createHandle(MethodHandle target, Executor executor) {
+        MethodType type = target.type();
+
+        // Reference types are captured as Object, so the generated class does not need to see user classes
+        MethodType erasedType = type.erase();
+        MethodHandle erasedTarget = target.asType(erasedType);
+        Class[] parameterClasses = erasedType.parameterArray();
+        Class resultClass = erasedType.returnType();
+
+        AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$jnr$async$" + nextClassID.getAndIncrement(), cv, classLoader);
+        String className = builder.getClassNamePath();
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, className, null, p(AsyncTask.class), new String[0]);
+
+        for (int i = 0; i < parameterClasses.length; i++) {
+            cv.visitField(ACC_PRIVATE, "a" + i, ci(parameterClasses[i]), null, null).visitEnd();
+        }
+
+        // The factory method, which captures the arguments and submits the task
+        Class[] submitParameters = new Class[parameterClasses.length + 1];
+        submitParameters[0] = Executor.class;
+        System.arraycopy(parameterClasses, 0, submitParameters, 1, parameterClasses.length);
+        SkinnyMethodAdapter submit = new SkinnyMethodAdapter(cv, ACC_PUBLIC | ACC_STATIC, "submit",
+                sig(CompletableFuture.class, submitParameters), null, null);
+        submit.start();
+        submit.newobj(className);
+        submit.dup();
+        submit.invokespecial(className, "<init>", sig(void.class));
+        LocalVariableAllocator localVariableAllocator = new LocalVariableAllocator(submitParameters);
+        LocalVariable task = localVariableAllocator.allocate(Object.class);
+        submit.astore(task);
+        for (int i = 0, slot = 1; i < parameterClasses.length; i++) {
+            submit.aload(task);
+            load(submit, parameterClasses[i], new LocalVariable(parameterClasses[i], slot));
+            submit.putfield(className, "a" + i, ci(parameterClasses[i]));
+            slot += long.class == parameterClasses[i] || double.class == parameterClasses[i] ? 2 : 1;
+        }
+        submit.aload(task);
+        submit.aload(0);
+        submit.invokestatic(AsyncTask.class, "submit", CompletableFuture.class, AsyncTask.class, Executor.class);
+        submit.areturn();
+        submit.visitMaxs(100, 10);
+        submit.visitEnd();
+
+        // The call, from the captured arguments
+        SkinnyMethodAdapter invoke = new SkinnyMethodAdapter(cv, ACC_PROTECTED | ACC_FINAL, "invoke",
+                sig(Object.class), null, new String[] { p(Throwable.class) });
+        invoke.start();
+        invoke.getstatic(className, builder.getObjectFieldName(erasedTarget, MethodHandle.class), ci(MethodHandle.class));
+        for (int i = 0; i < parameterClasses.length; i++) {
+            invoke.aload(0);
+            invoke.getfield(className, "a" + i, ci(parameterClasses[i]));
+        }
+        invoke.invokevirtual(MethodHandle.class, "invokeExact", resultClass, parameterClasses);
+        if (void.class == resultClass) {
+            invoke.aconst_null();
+        } else if (resultClass.isPrimitive()) {
+            Class boxedClass = boxedType(resultClass);
+            invoke.invokestatic(boxedClass, "valueOf", boxedClass, resultClass);
+        }
+        invoke.areturn();
+        invoke.visitMaxs(100, 10);
+        invoke.visitEnd();
+
+        SkinnyMethodAdapter init = new SkinnyMethodAdapter(cv, ACC_PUBLIC, "<init>", sig(void.class), null, null);
+        init.start();
+        init.aload(0);
+        init.invokespecial(p(AsyncTask.class), "<init>", sig(void.class));
+        init.voidreturn();
+        init.visitMaxs(10, 10);
+        init.visitEnd();
+
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(className.replace("/", "."), cw.toByteArray(),
+                    DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            MethodHandle mh = LOOKUP.findStatic(implClass, "submit", MethodType.methodType(CompletableFuture.class, submitParameters));
+
+            return MethodHandles.insertArguments(mh, 0, executor)
+                    .asType(type.changeReturnType(CompletableFuture.class));
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The base class of generated asynchronous call tasks.  Subclasses capture the arguments of a call in typed fields,
+ * and make the call in {@link #invoke()}.
+ *
+ * Callers only get the future of a task, not the task itself, so the call cannot be run again.  A call whose future
+ * is cancelled before it starts is not made.
+ */
+public abstract class AsyncTask implements Runnable {
+    private final CompletableFuture<Object> future = new CompletableFuture<Object>();
+
+    protected AsyncTask() {
+    }
+
+    /**
+     * Makes the call, using the captured arguments.
+     *
+     * @return the boxed result of the call, or null for void calls.
+     * @throws Throwable if the call fails.
+     */
+    protected abstract Object invoke() throws Throwable;
+
+    public final void run() {
+        if (future.isDone()) {
+            return;
+        }
+
+        try {
+            future.complete(invoke());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+    }
+
+    public static CompletableFuture<Object> submit(AsyncTask task, Executor executor) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(e);
+        }
+
+        return task.future;
+    }
+}
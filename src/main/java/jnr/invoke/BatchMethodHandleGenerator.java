@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.Platform;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static jnr.invoke.AsmUtil.emitDefaultConstructor;
+import static jnr.invoke.AsmUtil.emitStaticFieldInitialization;
+import static jnr.invoke.CodegenUtils.ci;
+import static jnr.invoke.CodegenUtils.p;
+import static jnr.invoke.CodegenUtils.sig;
+import static jnr.invoke.Native.nextClassID;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Creates batch handles, which call a native function once per element of their argument arrays, with a single
+ * transition to native code.
+ */
+final class BatchMethodHandleGenerator {
+    private static final String STUB_NAME = "invokeBatch";
+    private static final String PAGE_HOLDER_FIELD = "pageHolder";
+
+    private BatchMethodHandleGenerator() {
+    }
+
+    private static final class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool();
+    }
+
+    static boolean isSupported(Signature signature) {
+        if (!Platform.getPlatform().getCPU().equals(Platform.CPU.X86_64) || signature.saveErrno()) {
+            return false;
+        }
+
+        ParameterType[] parameterTypes = signature.parameterTypeArray();
+        for (ParameterType parameterType : parameterTypes) {
+            if (parameterType.asPrimitiveType() != parameterType) {
+                return false;
+            }
+        }
+
+        return StubCompiler.newCompiler().canCompileBatch(signature.getResultType(), parameterTypes, signature.getCallingConvention());
+    }
+
+    static MethodHandle createBoundHandle(Signature signature, CodeAddress nativeAddress, int parallelThreshold) {
+        StubCompiler compiler = StubCompiler.newCompiler();
+        AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = Native.DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$batch$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(Object.class), new String[0]);
+
+        MethodType stubType = MethodType.methodType(void.class, long.class, long.class, int.class, int.class);
+        cv.visitMethod(ACC_PUBLIC | ACC_FINAL | ACC_NATIVE | ACC_STATIC, STUB_NAME, stubType.toMethodDescriptorString(), null, null).visitEnd();
+        compiler.compileBatch(nativeAddress.address(), STUB_NAME, signature.getResultType(), signature.parameterTypeArray());
+
+        // Stash a strong ref to the library, so it doesn't get garbage collected.
+        builder.getObjectField(nativeAddress);
+
+        emitDefaultConstructor(cv);
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitField(ACC_PUBLIC | ACC_STATIC | ACC_VOLATILE, PAGE_HOLDER_FIELD, ci(Object.class), null, null);
+        cv.visitEnd();
+
+        MethodHandle stub;
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    Native.DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            implClass.getField(PAGE_HOLDER_FIELD).set(implClass, compiler.attach(implClass));
+            stub = MethodHandles.lookup().findStatic(implClass, STUB_NAME, stubType);
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+
+        int columnCount = signature.getParameterCount() + (signature.getResultType().nativeType() != NativeType.VOID ? 1 : 0);
+        BatchInvoker invoker = new BatchInvoker(stub, signature, parallelThreshold);
+        MethodType type = MethodType.genericMethodType(columnCount).appendParameterTypes(int.class).changeReturnType(void.class);
+
+        return MethodHandles.insertArguments(Util.findVirtual(BatchInvoker.class, "invoke",
+                MethodType.methodType(void.class, Object[].class)), 0, invoker).asCollector(Object[].class, columnCount + 1)
+                .asType(type);
+    }
+
+    static final class BatchInvoker {
+        private final MethodHandle stub;
+        private final Class[] columnTypes;
+        private final ArrayScratchMarshaller[] marshallers;
+        private final int parameterCount;
+        private final int parallelThreshold;
+
+        BatchInvoker(MethodHandle stub, Signature signature, int parallelThreshold) {
+            this.stub = stub;
+            this.parameterCount = signature.getParameterCount();
+            this.parallelThreshold = parallelThreshold;
+            boolean hasResult = signature.getResultType().nativeType() != NativeType.VOID;
+            this.columnTypes = new Class[parameterCount + (hasResult ? 1 : 0)];
+            this.marshallers = new ArrayScratchMarshaller[columnTypes.length];
+            for (int i = 0; i < columnTypes.length; i++) {
+                Class javaType = i < parameterCount ? signature.getParameterType(i).javaType() : signature.getResultType().javaType();
+                columnTypes[i] = java.lang.reflect.Array.newInstance(javaType, 0).getClass();
+                marshallers[i] = ArrayScratchMarshaller.forArrayType(columnTypes[i], i < parameterCount ? DataDirection.IN : DataDirection.OUT);
+            }
+        }
+
+        void invoke(Object[] args) throws Throwable {
+            int count = (Integer) args[args.length - 1];
+            if (count < 0) {
+                throw new IllegalArgumentException("negative count " + count);
+            }
+
+            ScratchArena arena = ScratchArena.current();
+            long mark = arena.mark();
+            try {
+                long columns = arena.allocate(columnTypes.length * 8L);
+                for (int i = 0; i < columnTypes.length; i++) {
+                    com.kenai.jffi.MemoryIO.getInstance().putLong(columns + i * 8L, columnAddress(arena, i, args[i], count));
+                }
+
+                long results = columnTypes.length > parameterCount
+                        ? com.kenai.jffi.MemoryIO.getInstance().getLong(columns + parameterCount * 8L) : 0L;
+
+                if (parallelThreshold > 0 && count > parallelThreshold) {
+                    invokeParallel(columns, results, count);
+                } else {
+                    stub.invokeExact(columns, results, 0, count);
+                }
+
+                if (results != 0L && !(args[parameterCount] instanceof Buffer)) {
+                    marshallers[parameterCount].get(results, args[parameterCount], 0, count);
+                }
+
+            } finally {
+                arena.reset(mark);
+            }
+        }
+
+        private long columnAddress(ScratchArena arena, int index, Object column, int count) {
+            if (column instanceof Buffer) {
+                Buffer buffer = (Buffer) column;
+                if (!buffer.isDirect() || !bufferType(columnTypes[index].getComponentType()).isInstance(buffer)) {
+                    throw new IllegalArgumentException("expected direct " + bufferType(columnTypes[index].getComponentType()).getSimpleName()
+                            + " for column " + index);
+                }
+                if (buffer.remaining() < count) {
+                    throw new IndexOutOfBoundsException("buffer has " + buffer.remaining() + " elements remaining, need " + count);
+                }
+                return UnsafeMemoryIO.getDirectBufferAddress(buffer)
+                        + ((long) buffer.position() << shift(columnTypes[index].getComponentType()));
+            }
+
+            if (!columnTypes[index].isInstance(column)) {
+                throw new ClassCastException("expected " + columnTypes[index].getSimpleName() + " or direct buffer for column " + index);
+            }
+
+            int length = java.lang.reflect.Array.getLength(column);
+            if (length < count) {
+                throw new IndexOutOfBoundsException("array has " + length + " elements, need " + count);
+            }
+
+            int shift = shift(columnTypes[index].getComponentType());
+            long address = arena.allocate(Math.max((long) count << shift, 1));
+            if (index < parameterCount) {
+                marshallers[index].put(address, column, 0, count);
+            }
+
+            return address;
+        }
+
+        private void invokeParallel(final long columns, final long results, int count) throws Throwable {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int start = 0; start < count; start += parallelThreshold) {
+                final int from = start, to = Math.min(count, start + parallelThreshold);
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        try {
+                            stub.invokeExact(columns, results, from, to);
+                        } catch (Exception | Error e) {
+                            throw e;
+                        } catch (Throwable t) {
+                            throw new RuntimeException(t);
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            for (Future<Void> f : PoolHolder.POOL.invokeAll(tasks)) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+
+        private static Class bufferType(Class javaType) {
+            if (byte.class == javaType) {
+                return ByteBuffer.class;
+            } else if (short.class == javaType) {
+                return ShortBuffer.class;
+            } else if (char.class == javaType) {
+                return CharBuffer.class;
+            } else if (int.class == javaType) {
+                return IntBuffer.class;
+            } else if (long.class == javaType) {
+                return LongBuffer.class;
+            } else if (float.class == javaType) {
+                return FloatBuffer.class;
+            } else {
+                return DoubleBuffer.class;
+            }
+        }
+
+        private static int shift(Class javaType) {
+            if (byte.class == javaType) {
+                return 0;
+            } else if (short.class == javaType || char.class == javaType) {
+                return 1;
+            } else if (int.class == javaType || float.class == javaType) {
+                return 2;
+            } else {
+                return 3;
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.LastError;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adapts handles for {@link Signature#BLOCKING} functions, so a blocking call does not stall a fork/join pool or
+ * the carrier threads of virtual threads.
+ */
+final class BlockingCalls {
+    private BlockingCalls() {
+    }
+
+    /**
+     * Runs tasks on the calling thread inside {@link ForkJoinPool#managedBlock}, which lets the pool of a worker
+     * thread activate a spare worker while the task blocks.
+     */
+    private static final Executor MANAGED_BLOCK_EXECUTOR = new Executor() {
+        public void execute(final Runnable command) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean done;
+
+                    public boolean block() {
+                        command.run();
+                        return done = true;
+                    }
+
+                    public boolean isReleasable() {
+                        return done;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+
+    private static final class OffloadExecutorHolder {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger nextThreadID = new AtomicInteger(0);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jnr-blocking-call-" + nextThreadID.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs tasks on a platform thread, so a virtual thread waiting for the result unmounts from its carrier.
+     */
+    private static final Executor OFFLOAD_EXECUTOR = new Executor() {
+        public void execute(Runnable command) {
+            OffloadExecutorHolder.EXECUTOR.execute(command);
+        }
+    };
+
+    static MethodHandle wrap(MethodHandle target, Signature signature) {
+        MethodType type = target.type();
+        MethodHandle join = Util.findStatic(BlockingCalls.class, "join", MethodType.methodType(Object.class, CompletableFuture.class));
+        MethodHandle managed = MethodHandles.filterReturnValue(Native.asAsync(target, MANAGED_BLOCK_EXECUTOR), join);
+        MethodHandle offloaded;
+        if (signature.saveErrno() || signature.hasOutScalars()) {
+            // errno and out-scalar values are per thread, so they are carried back from the platform thread
+            offloaded = MethodHandles.filterReturnValue(Native.asAsync(withThreadState(target), OFFLOAD_EXECUTOR), join);
+            offloaded = MethodHandles.filterReturnValue(offloaded, Util.findStatic(BlockingCalls.class, "restoreThreadState",
+                    MethodType.methodType(Object.class, Object.class)));
+        } else {
+            offloaded = MethodHandles.filterReturnValue(Native.asAsync(target, OFFLOAD_EXECUTOR), join);
+        }
+        if (type.returnType() == void.class) {
+            managed = managed.asType(managed.type().changeReturnType(void.class));
+            offloaded = offloaded.asType(offloaded.type().changeReturnType(void.class));
+        }
+
+        MethodHandle isWorker = MethodHandles.dropArguments(Util.findStatic(BlockingCalls.class, "isForkJoinWorker",
+                MethodType.methodType(boolean.class)), 0, type.parameterList());
+        MethodHandle isVirtual = MethodHandles.dropArguments(Util.findStatic(BlockingCalls.class, "isVirtual",
+                MethodType.methodType(boolean.class)), 0, type.parameterList());
+
+        return MethodHandles.guardWithTest(isWorker, managed.asType(type),
+                MethodHandles.guardWithTest(isVirtual, offloaded.asType(type), target));
+    }
+
+    /**
+     * Adapts {@code target} to return a {@link ThreadState} holding its result, and the errno and out-scalar values
+     * of the thread it ran on.
+     */
+    private static MethodHandle withThreadState(MethodHandle target) {
+        if (target.type().returnType() == void.class) {
+            return MethodHandles.filterReturnValue(target, Util.findStatic(BlockingCalls.class, "captureThreadState",
+                    MethodType.methodType(ThreadState.class)));
+        }
+
+        return MethodHandles.filterReturnValue(target.asType(target.type().changeReturnType(Object.class)),
+                Util.findStatic(BlockingCalls.class, "captureThreadState", MethodType.methodType(ThreadState.class, Object.class)));
+    }
+
+    static ThreadState captureThreadState() {
+        return captureThreadState(null);
+    }
+
+    static ThreadState captureThreadState(Object result) {
+        return new ThreadState(result, LastError.getInstance().get(), OutScalars.current().save());
+    }
+
+    static Object restoreThreadState(Object state) {
+        ThreadState threadState = (ThreadState) state;
+        LastError.getInstance().set(threadState.errno);
+        OutScalars.current().restore(threadState.outScalars);
+
+        return threadState.result;
+    }
+
+    static final class ThreadState {
+        final Object result;
+        final int errno;
+        final long[] outScalars;
+
+        ThreadState(Object result, int errno, long[] outScalars) {
+            this.result = result;
+            this.errno = errno;
+            this.outScalars = outScalars;
+        }
+    }
+
+    static boolean isForkJoinWorker() {
+        return Thread.currentThread() instanceof ForkJoinWorkerThread;
+    }
+
+    static boolean isVirtual() {
+        return Util.isVirtual(Thread.currentThread());
+    }
+
+    static Object join(CompletableFuture future) throws Throwable {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    // The native call cannot be abandoned, so wait for it and restore the interrupt afterwards
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw e.getCause();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
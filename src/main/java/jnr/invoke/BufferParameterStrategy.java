@@ -1,6 +1,5 @@
 package jnr.invoke;
 
-import com.kenai.jffi.MemoryIO;
 import com.kenai.jffi.ObjectParameterType;
 
 import java.lang.invoke.MethodHandle;
@@ -13,6 +12,7 @@ import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.nio.ShortBuffer;
 import java.util.EnumSet;
 
@@ -21,14 +21,19 @@ import java.util.EnumSet;
  */
 final class BufferParameterStrategy extends ObjectParameterStrategy {
     private final int shift;
+    private final HeapBufferAccessor accessor;
+    private final boolean readOnlyAllowed;
 
-    private BufferParameterStrategy(ObjectParameterStrategy.StrategyType type, ObjectParameterType.ComponentType componentType) {
+    private BufferParameterStrategy(ObjectParameterStrategy.StrategyType type, ObjectParameterType.ComponentType componentType,
+                                    boolean readOnlyAllowed) {
         super(type, ObjectParameterType.create(ObjectParameterType.ObjectType.ARRAY, componentType));
         this.shift = calculateShift(componentType);
+        this.accessor = new HeapBufferAccessor(bufferClass(componentType));
+        this.readOnlyAllowed = readOnlyAllowed;
     }
 
     public long address(Buffer buffer) {
-        return buffer.isDirect() ? MemoryIO.getInstance().getDirectBufferAddress(buffer) + (buffer.position() << shift) : 0L;
+        return buffer.isDirect() ? UnsafeMemoryIO.getDirectBufferAddress(buffer) + ((long) buffer.position() << shift) : 0L;
     }
 
     @Override
@@ -38,13 +43,18 @@ final class BufferParameterStrategy extends ObjectParameterStrategy {
 
     @Override
     public Object object(Object o) {
-        return ((Buffer) o).array();
+        Buffer buffer = (Buffer) o;
+        if (!readOnlyAllowed && buffer.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+
+        return accessor.array(buffer);
     }
 
     @Override
     public int offset(Object o) {
         Buffer buffer = (Buffer) o;
-        return buffer.arrayOffset() + buffer.position();
+        return accessor.arrayOffset(buffer) + buffer.position();
     }
 
     @Override
@@ -77,13 +87,16 @@ final class BufferParameterStrategy extends ObjectParameterStrategy {
 
     private static final BufferParameterStrategy[] DIRECT_BUFFER_PARAMETER_STRATEGIES;
     private static final BufferParameterStrategy[] HEAP_BUFFER_PARAMETER_STRATEGIES;
+    private static final BufferParameterStrategy[] READONLY_HEAP_BUFFER_PARAMETER_STRATEGIES;
     static {
         EnumSet<ObjectParameterType.ComponentType> componentTypes = EnumSet.allOf(ObjectParameterType.ComponentType.class);
         DIRECT_BUFFER_PARAMETER_STRATEGIES = new BufferParameterStrategy[componentTypes.size()];
         HEAP_BUFFER_PARAMETER_STRATEGIES = new BufferParameterStrategy[componentTypes.size()];
+        READONLY_HEAP_BUFFER_PARAMETER_STRATEGIES = new BufferParameterStrategy[componentTypes.size()];
         for (ObjectParameterType.ComponentType componentType : componentTypes) {
-            DIRECT_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()] = new BufferParameterStrategy(DIRECT, componentType);
-            HEAP_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()] = new BufferParameterStrategy(HEAP, componentType);
+            DIRECT_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()] = new BufferParameterStrategy(DIRECT, componentType, true);
+            HEAP_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()] = new BufferParameterStrategy(HEAP, componentType, false);
+            READONLY_HEAP_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()] = new BufferParameterStrategy(HEAP, componentType, true);
         }
     }
 
@@ -91,14 +104,17 @@ final class BufferParameterStrategy extends ObjectParameterStrategy {
         return DIRECT_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()];
     }
 
-    static ObjectParameterStrategy heap(ObjectParameterType.ComponentType componentType) {
-        return HEAP_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()];
+    static ObjectParameterStrategy heap(ObjectParameterType.ComponentType componentType, DataDirection dataDirection) {
+        // Read-only buffers can only be passed to native code which does not write to them
+        return dataDirection == DataDirection.IN
+                ? READONLY_HEAP_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()]
+                : HEAP_BUFFER_PARAMETER_STRATEGIES[componentType.ordinal()];
     }
 
-    static MethodHandle getStrategyHandle(Class<? extends Buffer> bufferClass) {
+    static MethodHandle getStrategyHandle(Class<? extends Buffer> bufferClass, DataDirection dataDirection) {
         MethodHandle bufferStrategyHandle = MethodHandles.guardWithTest(getBufferIsDirectHandle().asType(MethodType.methodType(boolean.class, bufferClass)),
                 MethodHandles.dropArguments(MethodHandles.constant(ObjectParameterStrategy.class, direct(componentType(bufferClass))), 0, bufferClass),
-                MethodHandles.dropArguments(MethodHandles.constant(ObjectParameterStrategy.class, heap(componentType(bufferClass))), 0, bufferClass));
+                MethodHandles.dropArguments(MethodHandles.constant(ObjectParameterStrategy.class, heap(componentType(bufferClass), dataDirection)), 0, bufferClass));
 
 
         return MethodHandles.guardWithTest(Util.getNotNullHandle().asType(MethodType.methodType(boolean.class, bufferClass)),
@@ -138,4 +154,25 @@ final class BufferParameterStrategy extends ObjectParameterStrategy {
         }
         throw new IllegalArgumentException("cannot determine component type of " + bufferClass);
     }
+
+    private static Class<? extends Buffer> bufferClass(ObjectParameterType.ComponentType componentType) {
+        switch (componentType) {
+            case BYTE:
+                return ByteBuffer.class;
+            case CHAR:
+                return CharBuffer.class;
+            case SHORT:
+                return ShortBuffer.class;
+            case INT:
+                return IntBuffer.class;
+            case LONG:
+                return LongBuffer.class;
+            case FLOAT:
+                return FloatBuffer.class;
+            case DOUBLE:
+                return DoubleBuffer.class;
+            default:
+                return null;
+        }
+    }
 }
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A fixed sequence of native function calls, which are compiled into a single native stub and called with one
+ * transition to native code, via {@link Native#getMethodHandle(CallChain)}.
+ *
+ * Each argument of each call is wired to an input of the chain handle, the result of an earlier call, or a
+ * constant.  The chain handle returns the result of the last call, unless another call is selected with
+ * {@link Builder#returning(int)}.  For example, to time a call:
+ *
+ * <pre>
+ * CallChain chain = CallChain.builder(ParameterType.primitive(NativeType.POINTER, long.class))
+ *     .call(clockGettime, clockGettimeAddress, CallChain.constant(CLOCK_MONOTONIC), CallChain.input(0))
+ *     .call(work, workAddress)
+ *     .build();
+ * </pre>
+ *
+ * Only primitive parameter and result types are supported, and errno is not saved.
+ */
+public final class CallChain {
+    private final ParameterType[] inputs;
+    private final List<Step> steps;
+    private final int resultStep;
+
+    private CallChain(ParameterType[] inputs, List<Step> steps, int resultStep) {
+        this.inputs = inputs;
+        this.steps = steps;
+        this.resultStep = resultStep;
+    }
+
+    /**
+     * Creates a builder for a chain whose handle has the given input parameters.
+     *
+     * @param inputs the parameters of the chain handle.
+     * @return a new builder.
+     */
+    public static Builder builder(ParameterType... inputs) {
+        return new Builder(inputs.clone());
+    }
+
+    /**
+     * Wires an argument to an input parameter of the chain handle.
+     *
+     * @param index the index of the input parameter.
+     * @return a new argument.
+     */
+    public static Argument input(int index) {
+        return new Argument(Argument.INPUT, index);
+    }
+
+    /**
+     * Wires an argument to the result of an earlier call in the chain.
+     *
+     * @param step the index of the call, in the order the calls were added.
+     * @return a new argument.
+     */
+    public static Argument result(int step) {
+        return new Argument(Argument.RESULT, step);
+    }
+
+    /**
+     * Wires an integer or pointer argument to a constant.
+     *
+     * @param value the value of the argument.
+     * @return a new argument.
+     */
+    public static Argument constant(long value) {
+        return new Argument(Argument.CONSTANT, value);
+    }
+
+    ParameterType[] getInputs() {
+        return inputs.clone();
+    }
+
+    List<Step> getSteps() {
+        return steps;
+    }
+
+    CodeAddress[] getFunctions() {
+        CodeAddress[] functions = new CodeAddress[steps.size()];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = steps.get(i).function;
+        }
+
+        return functions;
+    }
+
+    /**
+     * Creates a copy of this chain which calls {@code functions} instead, e.g. after their library is reloaded.
+     */
+    CallChain withFunctions(CodeAddress[] functions) {
+        List<Step> steps = new ArrayList<Step>(this.steps.size());
+        for (int i = 0; i < functions.length; i++) {
+            Step step = this.steps.get(i);
+            steps.add(new Step(step.signature, functions[i], step.arguments));
+        }
+
+        return new CallChain(inputs, Collections.unmodifiableList(steps), resultStep);
+    }
+
+    int getResultStep() {
+        return resultStep;
+    }
+
+    ResultType getResultType() {
+        return steps.get(resultStep).signature.getResultType();
+    }
+
+    public static final class Argument {
+        static final int INPUT = 0;
+        static final int RESULT = 1;
+        static final int CONSTANT = 2;
+
+        final int kind;
+        final long value;
+
+        private Argument(int kind, long value) {
+            this.kind = kind;
+            this.value = value;
+        }
+    }
+
+    static final class Step {
+        final Signature signature;
+        final CodeAddress function;
+        final Argument[] arguments;
+
+        Step(Signature signature, CodeAddress function, Argument[] arguments) {
+            this.signature = signature;
+            this.function = function;
+            this.arguments = arguments;
+        }
+    }
+
+    public static final class Builder {
+        private final ParameterType[] inputs;
+        private final List<Step> steps = new ArrayList<Step>();
+        private int resultStep = -1;
+
+        private Builder(ParameterType[] inputs) {
+            for (ParameterType input : inputs) {
+                if (!isPrimitive(input)) {
+                    throw new IllegalArgumentException("unsupported chain input type " + input.javaType());
+                }
+            }
+            this.inputs = inputs;
+        }
+
+        /**
+         * Appends a call to the chain.
+         *
+         * @param signature the signature of the function.
+         * @param function the address of the function.
+         * @param arguments the source of each argument of the function.
+         * @return this builder.
+         */
+        public Builder call(Signature signature, CodeAddress function, Argument... arguments) {
+            if (arguments.length != signature.getParameterCount()) {
+                throw new IllegalArgumentException("expected " + signature.getParameterCount() + " arguments, got " + arguments.length);
+            }
+            if (signature.getResultType().getResultConverter() != null) {
+                throw new IllegalArgumentException("unsupported chain result type " + signature.getResultType().javaType());
+            }
+
+            for (int i = 0; i < arguments.length; i++) {
+                ParameterType parameterType = signature.getParameterType(i);
+                if (!isPrimitive(parameterType)) {
+                    throw new IllegalArgumentException("unsupported chain parameter type " + parameterType.javaType());
+                }
+
+                Argument argument = arguments[i];
+                switch (argument.kind) {
+                    case Argument.INPUT:
+                        if (argument.value < 0 || argument.value >= inputs.length) {
+                            throw new IllegalArgumentException("no input " + argument.value);
+                        }
+                        checkCompatible(inputs[(int) argument.value].nativeType(), parameterType.nativeType());
+                        break;
+
+                    case Argument.RESULT:
+                        if (argument.value < 0 || argument.value >= steps.size()) {
+                            throw new IllegalArgumentException("no call " + argument.value + " before call " + steps.size());
+                        }
+                        checkCompatible(steps.get((int) argument.value).signature.getResultType().nativeType(), parameterType.nativeType());
+                        break;
+
+                    default:
+                        if (isFloatingPoint(parameterType.nativeType())) {
+                            throw new IllegalArgumentException("constant for floating point parameter " + i);
+                        }
+                        break;
+                }
+            }
+
+            steps.add(new Step(signature, function, arguments.clone()));
+            return this;
+        }
+
+        /**
+         * Selects the call whose result is returned by the chain handle.
+         *
+         * @param step the index of the call, in the order the calls were added.
+         * @return this builder.
+         */
+        public Builder returning(int step) {
+            this.resultStep = step;
+            return this;
+        }
+
+        public CallChain build() {
+            if (steps.isEmpty()) {
+                throw new IllegalStateException("empty call chain");
+            }
+
+            int result = resultStep >= 0 ? resultStep : steps.size() - 1;
+            if (result >= steps.size()) {
+                throw new IllegalStateException("no call " + result);
+            }
+
+            return new CallChain(inputs, Collections.unmodifiableList(new ArrayList<Step>(steps)), result);
+        }
+
+        private static boolean isPrimitive(ParameterType parameterType) {
+            return parameterType.asPrimitiveType() == parameterType && parameterType.javaType().isPrimitive();
+        }
+
+        private static boolean isFloatingPoint(NativeType nativeType) {
+            return nativeType == NativeType.FLOAT || nativeType == NativeType.DOUBLE;
+        }
+
+        private static void checkCompatible(NativeType source, NativeType parameter) {
+            if (source == NativeType.VOID) {
+                throw new IllegalArgumentException("void result used as an argument");
+            }
+
+            if ((isFloatingPoint(source) || isFloatingPoint(parameter)) && source != parameter) {
+                throw new IllegalArgumentException("cannot pass " + source + " as " + parameter);
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.Closure;
+
+/**
+ * The native address of a java callback, created by {@link Native#getCallbackAddress}.
+ *
+ * The native trampoline stays valid until {@link #dispose()} is called, or this object is garbage collected, so a
+ * reference must be kept for as long as native code may call it.
+ */
+public final class Callback extends CodeAddress {
+    private final Closure.Handle handle;
+
+    Callback(Closure.Handle handle) {
+        super(handle.getAddress());
+        this.handle = handle;
+    }
+
+    /**
+     * Releases the native trampoline back to its pool.  Native code must not call the address after this.
+     */
+    public void dispose() {
+        handle.dispose();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.Closure;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+
+import static jnr.invoke.AsmUtil.*;
+import static jnr.invoke.CodegenUtils.*;
+import static jnr.invoke.Native.*;
+import static jnr.invoke.NumberUtil.convertPrimitive;
+import static jnr.invoke.StructGenerator.accessorTypeName;
+import static jnr.invoke.StructGenerator.storageType;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates jffi {@link Closure} implementations which unpack native callback arguments, and call a
+ * {@link MethodHandle} with primitive types, without boxing.
+ */
+final class CallbackGenerator {
+    private CallbackGenerator() {
+    }
+
+    static boolean isSupported(Signature signature) {
+        ResultType resultType = signature.getResultType();
+        if (resultType.getResultConverter() != null || !isSupportedType(resultType.nativeType(), true)) {
+            return false;
+        }
+
+        for (int i = 0; i < signature.getParameterCount(); i++) {
+            ParameterType parameterType = signature.getParameterType(i);
+            if (parameterType.asPrimitiveType() != parameterType || !isSupportedType(parameterType.nativeType(), false)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isSupportedType(NativeType nativeType, boolean isResult) {
+        switch (nativeType) {
+            case VOID:
+                return isResult;
+
+            case SCHAR:
+            case UCHAR:
+            case SSHORT:
+            case USHORT:
+            case SINT:
+            case UINT:
+            case SLONG:
+            case ULONG:
+            case SLONG_LONG:
+            case ULONG_LONG:
+            case FLOAT:
+            case DOUBLE:
+            case POINTER:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private static Object zero(Class storageType) {
+        if (long.class == storageType) {
+            return 0L;
+        } else if (float.class == storageType) {
+            return 0f;
+        } else if (double.class == storageType) {
+            return 0d;
+        } else {
+            return 0;
+        }
+    }
+
+    static Closure generate(Signature signature, MethodHandle target) {
+        final ResultType resultType = signature.getResultType();
+        final Class[] parameterClasses = new Class[signature.getParameterCount()];
+        final NativeType[] parameterNativeTypes = new NativeType[signature.getParameterCount()];
+        for (int i = 0; i < parameterClasses.length; i++) {
+            parameterClasses[i] = signature.getParameterType(i).javaType();
+            parameterNativeTypes[i] = signature.getParameterType(i).nativeType();
+        }
+        final MethodHandle handle = target.asType(signature.methodType());
+
+        AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        final AsmBuilder builder = new AsmBuilder(p(Native.class) + "$jnr$callback$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(Object.class),
+                new String[] { p(Closure.class) });
+
+        final SkinnyMethodAdapter mv = new SkinnyMethodAdapter(cv, ACC_PUBLIC | ACC_FINAL, "invoke",
+                sig(void.class, Closure.Buffer.class), null, null);
+        mv.start();
+
+        mv.trycatch(p(Throwable.class), new Runnable() {
+            public void run() {
+                if (resultType.nativeType() != NativeType.VOID) {
+                    mv.aload(1);
+                }
+
+                mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(handle, MethodHandle.class), ci(MethodHandle.class));
+                for (int i = 0; i < parameterClasses.length; i++) {
+                    NativeType nativeType = parameterNativeTypes[i];
+                    Class storageType = storageType(nativeType);
+                    mv.aload(1);
+                    mv.pushInt(i);
+                    mv.invokeinterface(Closure.Buffer.class, "get" + accessorTypeName(nativeType), storageType, int.class);
+                    convertPrimitive(mv, storageType, parameterClasses[i], nativeType);
+                }
+
+                mv.invokevirtual(MethodHandle.class, "invokeExact", resultType.javaType(), parameterClasses);
+
+                if (resultType.nativeType() != NativeType.VOID) {
+                    Class storageType = storageType(resultType.nativeType());
+                    convertPrimitive(mv, resultType.javaType(), storageType);
+                    mv.invokeinterface(Closure.Buffer.class, "set" + accessorTypeName(resultType.nativeType()) + "Return",
+                            void.class, storageType);
+                }
+            }
+        }, new Runnable() {
+            public void run() {
+                mv.invokestatic(AsmRuntime.class, "callbackException", void.class, Throwable.class);
+
+                // The exception cannot be propagated, so return zero to the native caller rather than garbage
+                if (resultType.nativeType() != NativeType.VOID) {
+                    Class storageType = storageType(resultType.nativeType());
+                    mv.aload(1);
+                    mv.ldc(zero(storageType));
+                    mv.invokeinterface(Closure.Buffer.class, "set" + accessorTypeName(resultType.nativeType()) + "Return",
+                            void.class, storageType);
+                }
+            }
+        });
+        mv.voidreturn();
+        mv.visitMaxs(100, 10);
+        mv.visitEnd();
+
+        SkinnyMethodAdapter init = new SkinnyMethodAdapter(cv, ACC_PUBLIC, "<init>", sig(void.class), null, null);
+        init.start();
+        init.aload(0);
+        init.invokespecial(p(Object.class), "<init>", sig(void.class));
+        init.voidreturn();
+        init.visitMaxs(10, 10);
+        init.visitEnd();
+
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            return (Closure) implClass.newInstance();
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
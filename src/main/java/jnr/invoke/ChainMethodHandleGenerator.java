@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.Platform;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static jnr.invoke.AsmUtil.emitDefaultConstructor;
+import static jnr.invoke.AsmUtil.emitStaticFieldInitialization;
+import static jnr.invoke.CodegenUtils.ci;
+import static jnr.invoke.CodegenUtils.p;
+import static jnr.invoke.Native.STUB_NAME;
+import static jnr.invoke.Native.nextClassID;
+import static jnr.invoke.Util.javaTypeArray;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Creates handles which make all the calls of a {@link CallChain} from a single native stub.
+ */
+final class ChainMethodHandleGenerator {
+    private static final String PAGE_HOLDER_FIELD = "pageHolder";
+
+    private ChainMethodHandleGenerator() {
+    }
+
+    static boolean isSupported(CallChain chain) {
+        return Platform.getPlatform().getCPU().equals(Platform.CPU.X86_64)
+                && StubCompiler.newCompiler().canCompileChain(chain);
+    }
+
+    static MethodHandle createHandle(CallChain chain) {
+        StubCompiler compiler = StubCompiler.newCompiler();
+        AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = Native.DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$chain$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(Object.class), new String[0]);
+
+        MethodType type = MethodType.methodType(chain.getResultType().javaType(), javaTypeArray(chain.getInputs()));
+        cv.visitMethod(ACC_PUBLIC | ACC_FINAL | ACC_NATIVE | ACC_STATIC, STUB_NAME, type.toMethodDescriptorString(), null, null).visitEnd();
+        compiler.compileChain(STUB_NAME, chain);
+
+        // Stash strong refs to the libraries, so they don't get garbage collected.
+        for (CallChain.Step step : chain.getSteps()) {
+            builder.getObjectField(step.function);
+        }
+
+        emitDefaultConstructor(cv);
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitField(ACC_PUBLIC | ACC_STATIC | ACC_VOLATILE, PAGE_HOLDER_FIELD, ci(Object.class), null, null);
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    Native.DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            implClass.getField(PAGE_HOLDER_FIELD).set(implClass, compiler.attach(implClass));
+
+            return MethodHandles.lookup().findStatic(implClass, STUB_NAME, type);
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
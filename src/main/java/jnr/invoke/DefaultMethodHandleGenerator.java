@@ -56,7 +56,8 @@ final class DefaultMethodHandleGenerator implements MethodHandleGenerator {
         cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(java.lang.Object.class), new String[0]);
         ResultType resultType = signature.getResultType().asPrimitiveType();
 
-        generate(builder, STUB_NAME, signature.getNativeCallContext(), nativeAddress.address(), resultType, signature.parameterTypeArray());
+        generate(builder, STUB_NAME, signature.getNativeCallContext(), nativeAddress.address(), resultType, signature.parameterTypeArray(),
+                signature.isLeaf());
 
         // Stash a strong ref to the library, so it doesn't get garbage collected.
         builder.getObjectField(nativeAddress);
@@ -89,12 +90,31 @@ final class DefaultMethodHandleGenerator implements MethodHandleGenerator {
     }
 
     private static void generate(AsmBuilder builder, String functionName, CallContext callContext, long function,
-                         ResultType resultType, ParameterType[] parameterTypes) {
+                         ResultType resultType, ParameterType[] parameterTypes, boolean allowPinning) {
 
         SkinnyMethodAdapter mv = new SkinnyMethodAdapter(builder.getClassVisitor(), ACC_PUBLIC | ACC_FINAL | ACC_STATIC,
                 functionName, sig(resultType.javaType(), javaTypeArray(parameterTypes)), null, null);
         mv.start();
 
+        LocalVariableAllocator localVariableAllocator = new LocalVariableAllocator(parameterTypes);
+        final LocalVariable[] parameters = AsmUtil.getParameterVariables(parameterTypes, true);
+
+        emitInvocation(builder, mv, localVariableAllocator, callContext, function, resultType, parameterTypes, parameters,
+                new LocalVariable[parameterTypes.length], allowPinning);
+
+        mv.visitMaxs(100, localVariableAllocator.getSpaceUsed());
+        mv.visitEnd();
+    }
+
+    /**
+     * Emits a call to the native function via a jffi HeapInvocationBuffer, followed by the return instruction.
+     *
+     * If {@code strategies} contains a local variable for a parameter, the ObjectParameterStrategy already stored
+     * in it is used, instead of looking it up again.
+     */
+    static void emitInvocation(AsmBuilder builder, SkinnyMethodAdapter mv, LocalVariableAllocator localVariableAllocator,
+                               CallContext callContext, long function, ResultType resultType, ParameterType[] parameterTypes,
+                               LocalVariable[] parameters, LocalVariable[] strategies, boolean allowPinning) {
         // Retrieve the jffi Invoker instance
         mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(Invoker.getInstance(), com.kenai.jffi.Invoker.class), ci(com.kenai.jffi.Invoker.class));
 
@@ -102,16 +122,12 @@ final class DefaultMethodHandleGenerator implements MethodHandleGenerator {
         mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(callContext), ci(CallContext.class));
         mv.ldc(function);
 
-        LocalVariableAllocator localVariableAllocator = new LocalVariableAllocator(parameterTypes);
-
         // [ stack contains: Invoker, Function ]
         // Create a new InvocationBuffer
         mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(callContext), ci(CallContext.class));
         mv.invokestatic(AsmRuntime.class, "newHeapInvocationBuffer", HeapInvocationBuffer.class, CallContext.class);
         // [ stack contains: Invoker, Function, HeapInvocationBuffer ]
 
-        final LocalVariable[] parameters = AsmUtil.getParameterVariables(parameterTypes, true);
-
         for (int i = 0; i < parameterTypes.length; ++i) {
             MarshalOp marshalOp = getMarshalOp(parameterTypes[i].nativeType());
 
@@ -120,12 +136,32 @@ final class DefaultMethodHandleGenerator implements MethodHandleGenerator {
 
             if (parameterTypes[i].getObjectStrategyHandle() != null) {
 
-                mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(parameterTypes[i].getObjectStrategyHandle()), ci(MethodHandle.class));
-                load(mv, parameterTypes[i].javaType(), parameters[i]);
-                mv.invokevirtual(MethodHandle.class, "invokeExact", ObjectParameterStrategy.class, parameterTypes[i].javaType());
-                mv.getstatic(builder.getClassNamePath(),
-                        builder.getObjectFieldName(ObjectParameterInfo.create(i, parameterTypes[i].getDataDirection().getArrayFlags())),
-                        ci(ObjectParameterInfo.class));
+                if (strategies[i] != null) {
+                    mv.aload(strategies[i]);
+                } else {
+                    mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(parameterTypes[i].getObjectStrategyHandle()), ci(MethodHandle.class));
+                    load(mv, parameterTypes[i].javaType(), parameters[i]);
+                    mv.invokevirtual(MethodHandle.class, "invokeExact", ObjectParameterStrategy.class, parameterTypes[i].javaType());
+                }
+
+                ArrayPinningPolicy pinningPolicy = allowPinning ? parameterTypes[i].getPinningPolicy() : null;
+                if (pinningPolicy != null) {
+                    // Decide at runtime whether to copy or pin the array, based on its size
+                    LocalVariable strategy = localVariableAllocator.allocate(ObjectParameterStrategy.class);
+                    mv.dup();
+                    mv.astore(strategy);
+                    ArrayPinningPolicy.Selector selector = pinningPolicy.selector(parameterTypes[i].javaType(), i,
+                            parameterTypes[i].getDataDirection());
+                    mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(selector), ci(ArrayPinningPolicy.Selector.class));
+                    load(mv, parameterTypes[i].javaType(), parameters[i]);
+                    mv.aload(strategy);
+                    mv.invokevirtual(ArrayPinningPolicy.Selector.class, "select", ObjectParameterInfo.class, Object.class, ObjectParameterStrategy.class);
+
+                } else {
+                    mv.getstatic(builder.getClassNamePath(),
+                            builder.getObjectFieldName(ObjectParameterInfo.create(i, parameterTypes[i].getDataDirection().getArrayFlags())),
+                            ci(ObjectParameterInfo.class));
+                }
                 mv.invokevirtual(HeapInvocationBuffer.class, "putObject", void.class, Object.class, com.kenai.jffi.ObjectParameterStrategy.class, ObjectParameterInfo.class);
 
             } else {
@@ -142,9 +178,6 @@ final class DefaultMethodHandleGenerator implements MethodHandleGenerator {
         // narrow/widen the return value if needed
         convertPrimitive(mv, iop.getPrimitiveClass(), resultType.javaType(), resultType.nativeType());
         emitReturnOp(mv, resultType.javaType());
-
-        mv.visitMaxs(100, localVariableAllocator.getSpaceUsed());
-        mv.visitEnd();
     }
 
     private static InvokeOp getInvokeOp(ResultType resultType) {
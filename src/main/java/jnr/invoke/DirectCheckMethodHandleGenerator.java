@@ -17,14 +17,48 @@ public class DirectCheckMethodHandleGenerator implements MethodHandleGenerator {
 
     @Override
     public MethodHandle createBoundHandle(Signature signature, CodeAddress function) {
+        MethodHandle primitiveHandle = createPrimitiveMethodHandle(primitiveGenerators, signature.asPrimitiveContext(), function);
+        if (StrategyDispatchMethodHandleGenerator.isRequired(signature)) {
+            return new StrategyDispatchMethodHandleGenerator().createBoundHandle(signature, function, primitiveHandle);
+        }
+
         return MethodHandles.guardWithTest(createDirectCheckHandle(signature.parameterTypeArray()),
-                getPrimitiveHandle(signature, function),
-                new DefaultMethodHandleGenerator().createBoundHandle(signature, function));
+                getDirectHandle(signature, primitiveHandle),
+                getFallbackHandle(signature, function, primitiveHandle));
+    }
+
+    private static MethodHandle getFallbackHandle(Signature signature, CodeAddress function, MethodHandle primitiveHandle) {
+        ScratchMethodHandleGenerator scratchGenerator = new ScratchMethodHandleGenerator();
+        if (!isPinningAllowed(signature) && scratchGenerator.isSupported(signature.getResultType(), signature.parameterTypeList(),
+                signature.getCallingConvention())) {
+            // Copy heap parameters into scratch memory, and call via the same stub as direct parameters
+            return scratchGenerator.createBoundHandle(signature, primitiveHandle);
+        }
+
+        return new DefaultMethodHandleGenerator().createBoundHandle(signature, function);
+    }
+
+    private static boolean isPinningAllowed(Signature signature) {
+        if (signature.isLeaf()) {
+            for (ParameterType parameterType : signature.parameterTypeArray()) {
+                if (parameterType.getPinningPolicy() != null) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
 
     @Override
     public boolean isSupported(ResultType resultType, Collection<ParameterType> parameterTypes, CallingConvention callingConvention) {
+        for (ParameterType parameterType : parameterTypes) {
+            if (!parameterType.javaType().isPrimitive() && !parameterType.isObject()) {
+                return false;
+            }
+        }
+
         boolean isSupported = false;
         List<ParameterType> primitiveParameterTypes = asPrimitiveTypes(parameterTypes);
         for (MethodHandleGenerator g : primitiveGenerators) {
@@ -34,10 +68,7 @@ public class DirectCheckMethodHandleGenerator implements MethodHandleGenerator {
         return isSupported && parameterTypes.size() <= 6;
     }
 
-    private MethodHandle getPrimitiveHandle(Signature signature, CodeAddress nativeAddress) {
-        Signature primitiveContext = signature.asPrimitiveContext();
-
-        MethodHandle primitiveHandle = createPrimitiveMethodHandle(primitiveGenerators, primitiveContext, nativeAddress);
+    private static MethodHandle getDirectHandle(Signature signature, MethodHandle primitiveHandle) {
         for (int i = 0; i < signature.getParameterCount(); i++) {
             if (signature.getParameterType(i).getDirectAddressHandle() != null) {
                 primitiveHandle = MethodHandles.filterArguments(primitiveHandle, i, signature.getParameterType(i).getDirectAddressHandle());
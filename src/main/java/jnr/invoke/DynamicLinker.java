@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+import com.kenai.jffi.Platform;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.Charset;
+
+/**
+ * Calls the dlfcn functions directly, so libraries can be closed when they are no longer used.  jffi only closes a
+ * library when its {@link com.kenai.jffi.Library} instance is finalized.
+ */
+final class DynamicLinker {
+    private static final int RTLD_LAZY = 0x1;
+    private static final int RTLD_NOW = 0x2;
+    private static final int RTLD_DI_LINKMAP = 2;
+
+    private DynamicLinker() {
+    }
+
+    private static final class Functions {
+        static final Functions INSTANCE = load();
+
+        final MethodHandle dlopen, dlsym, dlclose, dlerror;
+        /** dlinfo is a glibc and BSD extension, so it may be null */
+        final MethodHandle dlinfo;
+
+        private Functions(MethodHandle dlopen, MethodHandle dlsym, MethodHandle dlclose, MethodHandle dlerror,
+                          MethodHandle dlinfo) {
+            this.dlopen = dlopen;
+            this.dlsym = dlsym;
+            this.dlclose = dlclose;
+            this.dlerror = dlerror;
+            this.dlinfo = dlinfo;
+        }
+
+        private static Functions load() {
+            switch (Platform.getPlatform().getOS()) {
+                case LINUX:
+                case DARWIN:
+                case FREEBSD:
+                    break;
+
+                default:
+                    return null;
+            }
+
+            try {
+                ResultType pointer = ResultType.primitive(NativeType.POINTER, long.class);
+                ParameterType pointerParameter = ParameterType.primitive(NativeType.POINTER, long.class);
+
+                return new Functions(
+                        handle("dlopen", Signature.getSignature(Signature.DEFAULT, pointer, pointerParameter,
+                                ParameterType.primitive(NativeType.SINT, int.class))),
+                        handle("dlsym", Signature.getSignature(Signature.DEFAULT, pointer, pointerParameter, pointerParameter)),
+                        handle("dlclose", Signature.getSignature(Signature.DEFAULT,
+                                ResultType.primitive(NativeType.SINT, int.class), pointerParameter)),
+                        handle("dlerror", Signature.getSignature(Signature.DEFAULT, pointer)),
+                        optionalHandle("dlinfo", Signature.getSignature(Signature.DEFAULT,
+                                ResultType.primitive(NativeType.SINT, int.class), pointerParameter,
+                                ParameterType.primitive(NativeType.SINT, int.class), pointerParameter)));
+
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        private static MethodHandle handle(String name, Signature signature) {
+            long address = com.kenai.jffi.Library.getDefault().getSymbolAddress(name);
+            if (address == 0L) {
+                throw new UnsatisfiedLinkError("no such function: " + name);
+            }
+
+            return Native.getMethodHandle(signature, new CodeAddress(address));
+        }
+
+        private static MethodHandle optionalHandle(String name, Signature signature) {
+            long address = com.kenai.jffi.Library.getDefault().getSymbolAddress(name);
+            return address != 0L ? Native.getMethodHandle(signature, new CodeAddress(address)) : null;
+        }
+    }
+
+    static boolean isAvailable() {
+        return Functions.INSTANCE != null;
+    }
+
+    /**
+     * Opens a library.
+     *
+     * @param name the name or path of the library.
+     * @param flags the {@link Library} flags to open it with.
+     * @return the handle of the library.
+     * @throws UnsatisfiedLinkError if the library cannot be opened.
+     */
+    static long dlopen(String name, int flags) {
+        ScratchArena arena = ScratchArena.current();
+        long mark = arena.mark();
+        try {
+            long handle = (long) Functions.INSTANCE.dlopen.invokeExact(toCString(arena, name), rtldFlags(flags));
+            if (handle == 0L) {
+                throw new UnsatisfiedLinkError(dlerror());
+            }
+
+            return handle;
+
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        } finally {
+            arena.reset(mark);
+        }
+    }
+
+    static long dlsym(long handle, String name) {
+        ScratchArena arena = ScratchArena.current();
+        long mark = arena.mark();
+        try {
+            return (long) Functions.INSTANCE.dlsym.invokeExact(handle, toCString(arena, name));
+
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        } finally {
+            arena.reset(mark);
+        }
+    }
+
+    static void dlclose(long handle) {
+        try {
+            int result = (int) Functions.INSTANCE.dlclose.invokeExact(handle);
+            if (result != 0) {
+                throw new IllegalStateException(dlerror());
+            }
+
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Gets the link map entry of a library, whose first two fields are its load bias and the path it was loaded
+     * from.
+     *
+     * @param handle the handle of the library.
+     * @return the address of the {@code struct link_map}, or 0 if it is not available.
+     */
+    static long linkMap(long handle) {
+        MethodHandle dlinfo = Functions.INSTANCE.dlinfo;
+        if (dlinfo == null) {
+            return 0L;
+        }
+
+        ScratchArena arena = ScratchArena.current();
+        long mark = arena.mark();
+        try {
+            long linkMap = arena.allocate(8);
+            MemoryIO.getInstance().putAddress(linkMap, 0L);
+            int result = (int) dlinfo.invokeExact(handle, RTLD_DI_LINKMAP, linkMap);
+
+            return result == 0 ? MemoryIO.getInstance().getAddress(linkMap) : 0L;
+
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        } finally {
+            arena.reset(mark);
+        }
+    }
+
+    private static String dlerror() throws Throwable {
+        long message = (long) Functions.INSTANCE.dlerror.invokeExact();
+        if (message == 0L) {
+            return "unknown dynamic linker error";
+        }
+
+        // The message is freed by the next call to the dynamic linker, which the JVM itself makes when it links a
+        // native method, so it is copied without calling into native code if possible
+        if (!UnsafeMemoryIO.isAvailable()) {
+            return new String(MemoryIO.getInstance().getZeroTerminatedByteArray(message), Charset.defaultCharset());
+        }
+
+        int length = 0;
+        while (UnsafeMemoryIO.unsafe().getByte(message + length) != 0) {
+            length++;
+        }
+        byte[] bytes = new byte[length];
+        UnsafeMemoryIO.getArray(message, bytes, 0, length);
+
+        return new String(bytes, Charset.defaultCharset());
+    }
+
+    private static long toCString(ScratchArena arena, String value) {
+        if (value == null) {
+            return 0L;
+        }
+
+        byte[] bytes = value.getBytes(Charset.defaultCharset());
+        long address = arena.allocate(bytes.length + 1);
+        MemoryIO.getInstance().putZeroTerminatedByteArray(address, bytes, 0, bytes.length);
+
+        return address;
+    }
+
+    private static int rtldFlags(int flags) {
+        int rtldFlags = (flags & Library.NOW) != 0 ? RTLD_NOW : RTLD_LAZY;
+        boolean darwin = Platform.getPlatform().getOS() == Platform.OS.DARWIN;
+        if ((flags & Library.GLOBAL) != 0) {
+            rtldFlags |= darwin ? 0x8 : 0x100;
+        } else if (darwin) {
+            rtldFlags |= 0x4;
+        }
+
+        return rtldFlags;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The exported dynamic symbols of a 64 bit ELF image, read from its {@code .dynsym} table via the dynamic segment.
+ */
+final class ElfSymbolTable {
+    private static final int PT_LOAD = 1;
+    private static final int PT_DYNAMIC = 2;
+    private static final long DT_NULL = 0;
+    private static final long DT_HASH = 4;
+    private static final long DT_STRTAB = 5;
+    private static final long DT_SYMTAB = 6;
+    private static final long DT_GNU_HASH = 0x6ffffef5L;
+    private static final long DT_VERSYM = 0x6ffffff0L;
+    private static final int STT_NOTYPE = 0;
+    private static final int STT_OBJECT = 1;
+    private static final int STT_FUNC = 2;
+    private static final int STT_GNU_IFUNC = 10;
+    private static final int STB_GLOBAL = 1;
+    private static final int STB_WEAK = 2;
+    private static final int SYMBOL_SIZE = 24;
+    private static final int VERSYM_HIDDEN = 0x8000;
+
+    private final Map<String, Long> symbols;
+    private final long imageBase;
+
+    private ElfSymbolTable(Map<String, Long> symbols, long imageBase) {
+        this.symbols = Collections.unmodifiableMap(symbols);
+        this.imageBase = imageBase;
+    }
+
+    /**
+     * Parses the dynamic symbols of an ELF image, which is laid out as in the file.
+     *
+     * @param image the ELF image, starting at the ELF header.
+     * @return the symbol table.
+     */
+    static ElfSymbolTable parse(ByteBuffer image) {
+        image = image.duplicate();
+        if (image.limit() < 64 || image.getInt(0) != 0x7f454c46) {
+            throw new IllegalArgumentException("not an ELF image");
+        }
+
+        if (image.get(4) != 2) {
+            throw new IllegalArgumentException("not a 64 bit ELF image");
+        }
+        image.order(image.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        long phoff = image.getLong(0x20);
+        int phentsize = image.getShort(0x36) & 0xffff;
+        int phnum = image.getShort(0x38) & 0xffff;
+
+        long imageBase = -1L;
+        int dynamic = -1;
+        List<long[]> segments = new ArrayList<long[]>();
+        for (int i = 0; i < phnum; i++) {
+            int ph = (int) (phoff + (long) i * phentsize);
+            switch (image.getInt(ph)) {
+                case PT_LOAD:
+                    // { vaddr, offset, filesz }
+                    segments.add(new long[] { image.getLong(ph + 0x10), image.getLong(ph + 0x08), image.getLong(ph + 0x20) });
+                    if (imageBase == -1L) {
+                        imageBase = image.getLong(ph + 0x10) - image.getLong(ph + 0x08);
+                    }
+                    break;
+
+                case PT_DYNAMIC:
+                    dynamic = (int) image.getLong(ph + 0x08);
+                    break;
+            }
+        }
+
+        if (imageBase == -1L || dynamic < 0) {
+            throw new IllegalArgumentException("ELF image has no dynamic segment");
+        }
+
+        long strtab = 0, symtab = 0, hash = 0, gnuHash = 0, versym = 0;
+        for (int dyn = dynamic; dyn + 16 <= image.limit(); dyn += 16) {
+            long tag = image.getLong(dyn), value = image.getLong(dyn + 8);
+            if (tag == DT_NULL) {
+                break;
+            } else if (tag == DT_STRTAB) {
+                strtab = value;
+            } else if (tag == DT_SYMTAB) {
+                symtab = value;
+            } else if (tag == DT_HASH) {
+                hash = value;
+            } else if (tag == DT_GNU_HASH) {
+                gnuHash = value;
+            } else if (tag == DT_VERSYM) {
+                versym = value;
+            }
+        }
+
+        if (strtab == 0 || symtab == 0 || (hash == 0 && gnuHash == 0)) {
+            throw new IllegalArgumentException("ELF image has no dynamic symbol table");
+        }
+
+        int strings = toOffset(image, segments, strtab);
+        int symbolTable = toOffset(image, segments, symtab);
+        int versions = versym != 0 ? toOffset(image, segments, versym) : -1;
+        int count = hash != 0
+                ? image.getInt(toOffset(image, segments, hash) + 4)
+                : gnuHashSymbolCount(image, toOffset(image, segments, gnuHash));
+
+        Map<String, Long> symbols = new HashMap<String, Long>(count * 2);
+        for (int i = 1; i < count; i++) {
+            int sym = symbolTable + i * SYMBOL_SIZE;
+            int info = image.get(sym + 4) & 0xff;
+            int type = info & 0xf, bind = info >> 4;
+            // Symbols with no value are undefined, or are version names
+            if (image.getShort(sym + 6) == 0 || image.getLong(sym + 8) == 0L || (bind != STB_GLOBAL && bind != STB_WEAK)
+                    || (type != STT_FUNC && type != STT_OBJECT && type != STT_NOTYPE && type != STT_GNU_IFUNC)) {
+                continue;
+            }
+
+            // Only the default version of a versioned symbol is bound by name
+            if (versions >= 0 && (image.getShort(versions + i * 2) & VERSYM_HIDDEN) != 0) {
+                continue;
+            }
+
+            String name = getString(image, strings + image.getInt(sym));
+            if (!name.isEmpty() && !symbols.containsKey(name)) {
+                // The address of an indirect function is only known once its resolver has been run by the dynamic linker
+                symbols.put(name, type != STT_GNU_IFUNC ? image.getLong(sym + 8) : 0L);
+            }
+        }
+
+        return new ElfSymbolTable(symbols, imageBase);
+    }
+
+    /**
+     * Gets the size of an ELF image which has been loaded into memory, from the extent of its loadable segments.
+     */
+    static long loadedSize(long address) {
+        MemoryIO io = MemoryIO.getInstance();
+        long phoff = io.getLong(address + 0x20);
+        int phentsize = io.getShort(address + 0x36) & 0xffff;
+        int phnum = io.getShort(address + 0x38) & 0xffff;
+
+        long size = 0;
+        for (int i = 0; i < phnum; i++) {
+            long ph = address + phoff + (long) i * phentsize;
+            if (io.getInt(ph) == PT_LOAD) {
+                size = Math.max(size, io.getLong(ph + 0x08) + io.getLong(ph + 0x20));
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Gets the value of a symbol, which for a function or variable is its virtual address in the image.
+     *
+     * @param name the name of the symbol.
+     * @return the value of the symbol, or 0 if there is no such symbol, or it is an indirect function.
+     */
+    long getValue(String name) {
+        Long value = symbols.get(name);
+        return value != null ? value : 0L;
+    }
+
+    Set<String> names() {
+        return symbols.keySet();
+    }
+
+    /**
+     * Gets the virtual address of the start of the image, i.e. where the ELF header is when loaded without relocation.
+     */
+    long imageBase() {
+        return imageBase;
+    }
+
+    private static int toOffset(ByteBuffer image, List<long[]> segments, long vaddr) {
+        for (long[] segment : segments) {
+            if (vaddr >= segment[0] && vaddr < segment[0] + segment[2] && segment[1] + (vaddr - segment[0]) < image.limit()) {
+                return (int) (segment[1] + (vaddr - segment[0]));
+            }
+        }
+
+        throw new IllegalArgumentException("address outside ELF image: 0x" + Long.toHexString(vaddr));
+    }
+
+    private static int gnuHashSymbolCount(ByteBuffer image, int table) {
+        int bucketCount = image.getInt(table);
+        int symbolOffset = image.getInt(table + 4);
+        int bloomSize = image.getInt(table + 8);
+        int buckets = table + 16 + bloomSize * 8;
+        int chains = buckets + bucketCount * 4;
+
+        // The chains are sorted by bucket, so the last symbol is at the end of the chain of the highest bucket
+        int last = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            last = Math.max(last, image.getInt(buckets + i * 4));
+        }
+
+        if (last < symbolOffset) {
+            return symbolOffset;
+        }
+
+        while ((image.getInt(chains + (last - symbolOffset) * 4) & 1) == 0) {
+            last++;
+        }
+
+        return last + 1;
+    }
+
+    private static String getString(ByteBuffer image, int offset) {
+        int end = offset;
+        while (image.get(end) != 0) {
+            end++;
+        }
+
+        byte[] bytes = new byte[end - offset];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = image.get(offset + i);
+        }
+
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.Collection;
+
+import static jnr.invoke.Util.getBooleanProperty;
+
+/**
+ * Generates downcall handles via the {@code java.lang.foreign} linker, which calls native functions without JNI.
+ *
+ * The FFM API is only available from java 22, so it is used reflectively, and this generator is only enabled when
+ * the API is present.  It can be disabled with {@code jnr.invoke.ffm.enabled=false}.  Only signatures with
+ * primitive parameter and result types are linked this way; arrays and buffers stay on the jffi based generators,
+ * since every {@link DataDirection} needs them NUL terminated or cleared, which a heap memory segment cannot do.
+ * {@link Signature#LEAF} functions are linked with the critical option.
+ */
+final class FfmMethodHandleGenerator implements MethodHandleGenerator {
+    private static final boolean ENABLED = getBooleanProperty("jnr.invoke.ffm.enabled", true);
+
+    private static final class Linker {
+        static final Linker INSTANCE = ENABLED ? load() : null;
+
+        final Class segmentClass;
+        final Object nativeLinker;
+        final MethodHandle downcallHandle;
+        final MethodHandle functionDescriptor;
+        final MethodHandle voidFunctionDescriptor;
+        final MethodHandle ofAddress;
+        final MethodHandle address;
+        final Object criticalOption;
+        final Object byteLayout, shortLayout, intLayout, longLayout, floatLayout, doubleLayout, addressLayout;
+        final Class layoutClass, optionClass;
+
+        private Linker() throws Throwable {
+            // downcallHandle is a restricted, caller sensitive method, so it needs a full privilege lookup
+            MethodHandles.Lookup lookup = Native.LOOKUP;
+            segmentClass = Class.forName("java.lang.foreign.MemorySegment");
+            layoutClass = Class.forName("java.lang.foreign.MemoryLayout");
+            Class linkerClass = Class.forName("java.lang.foreign.Linker");
+            optionClass = Class.forName("java.lang.foreign.Linker$Option");
+            Class descriptorClass = Class.forName("java.lang.foreign.FunctionDescriptor");
+            Class valueLayoutClass = Class.forName("java.lang.foreign.ValueLayout");
+            Class optionArrayClass = Array.newInstance(optionClass, 0).getClass();
+            Class layoutArrayClass = Array.newInstance(layoutClass, 0).getClass();
+
+            nativeLinker = lookup.findStatic(linkerClass, "nativeLinker", MethodType.methodType(linkerClass)).invoke();
+            downcallHandle = lookup.findVirtual(linkerClass, "downcallHandle",
+                    MethodType.methodType(MethodHandle.class, segmentClass, descriptorClass, optionArrayClass)).asFixedArity();
+            functionDescriptor = lookup.findStatic(descriptorClass, "of",
+                    MethodType.methodType(descriptorClass, layoutClass, layoutArrayClass)).asFixedArity();
+            voidFunctionDescriptor = lookup.findStatic(descriptorClass, "ofVoid",
+                    MethodType.methodType(descriptorClass, layoutArrayClass)).asFixedArity();
+            ofAddress = lookup.findStatic(segmentClass, "ofAddress", MethodType.methodType(segmentClass, long.class));
+            address = lookup.findVirtual(segmentClass, "address", MethodType.methodType(long.class));
+
+            byteLayout = valueLayoutClass.getField("JAVA_BYTE").get(null);
+            shortLayout = valueLayoutClass.getField("JAVA_SHORT").get(null);
+            intLayout = valueLayoutClass.getField("JAVA_INT").get(null);
+            longLayout = valueLayoutClass.getField("JAVA_LONG").get(null);
+            floatLayout = valueLayoutClass.getField("JAVA_FLOAT").get(null);
+            doubleLayout = valueLayoutClass.getField("JAVA_DOUBLE").get(null);
+            addressLayout = valueLayoutClass.getField("ADDRESS").get(null);
+
+            // java 22 has critical(boolean allowHeapAccess); earlier previews only had isTrivial()
+            Object critical = null;
+            try {
+                critical = lookup.findStatic(optionClass, "critical", MethodType.methodType(optionClass, boolean.class)).invoke(false);
+            } catch (NoSuchMethodException e) {
+                try {
+                    critical = lookup.findStatic(optionClass, "isTrivial", MethodType.methodType(optionClass)).invoke();
+                } catch (NoSuchMethodException ignored) {
+                }
+            }
+            criticalOption = critical;
+        }
+
+        private static Linker load() {
+            try {
+                return new Linker();
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+
+        Object layout(NativeType nativeType) {
+            switch (nativeType) {
+                case SCHAR:
+                case UCHAR:
+                    return byteLayout;
+                case SSHORT:
+                case USHORT:
+                    return shortLayout;
+                case SINT:
+                case UINT:
+                    return intLayout;
+                case SLONG:
+                case ULONG:
+                    return nativeType.size() == 4 ? intLayout : longLayout;
+                case SLONG_LONG:
+                case ULONG_LONG:
+                    return longLayout;
+                case FLOAT:
+                    return floatLayout;
+                case DOUBLE:
+                    return doubleLayout;
+                default:
+                    return addressLayout;
+            }
+        }
+    }
+
+    static boolean isAvailable() {
+        return Linker.INSTANCE != null;
+    }
+
+    /**
+     * Tests the parts of a signature the other checks do not see.  errno saving and fault protection are done by
+     * jffi, so those signatures are left to the jffi based generators.
+     */
+    static boolean isSupported(Signature signature) {
+        if (!isAvailable() || signature.saveErrno() || (signature.getFlags() & Signature.FAULT_PROTECT) != 0) {
+            return false;
+        }
+
+        return new FfmMethodHandleGenerator().isSupported(signature.getResultType(), signature.parameterTypeList(),
+                signature.getCallingConvention());
+    }
+
+    public boolean isSupported(ResultType resultType, Collection<ParameterType> parameterTypes, CallingConvention callingConvention) {
+        if (!isAvailable() || callingConvention != CallingConvention.DEFAULT) {
+            return false;
+        }
+
+        for (ParameterType parameterType : parameterTypes) {
+            if (parameterType.asPrimitiveType() != parameterType || !isSupportedType(parameterType)) {
+                return false;
+            }
+        }
+
+        return resultType.getResultConverter() == null
+                && (resultType.nativeType() == NativeType.VOID ? void.class == resultType.javaType() : isSupportedType(resultType));
+    }
+
+    private static boolean isSupportedType(SignatureType type) {
+        switch (type.nativeType()) {
+            case POINTER:
+                return long.class == type.javaType();
+
+            case FLOAT:
+                return float.class == type.javaType();
+
+            case DOUBLE:
+                return double.class == type.javaType();
+
+            case SCHAR:
+            case UCHAR:
+            case SSHORT:
+            case USHORT:
+            case SINT:
+            case UINT:
+            case SLONG:
+            case ULONG:
+            case SLONG_LONG:
+            case ULONG_LONG:
+                return type.javaType().isPrimitive() && float.class != type.javaType() && double.class != type.javaType();
+
+            default:
+                return false;
+        }
+    }
+
+    public MethodHandle createBoundHandle(Signature signature, CodeAddress function) {
+        Linker linker = Linker.INSTANCE;
+        try {
+            Object[] parameterLayouts = (Object[]) Array.newInstance(linker.layoutClass, signature.getParameterCount());
+            for (int i = 0; i < parameterLayouts.length; i++) {
+                parameterLayouts[i] = linker.layout(signature.getParameterType(i).nativeType());
+            }
+
+            ResultType resultType = signature.getResultType();
+            Object descriptor = resultType.nativeType() == NativeType.VOID
+                    ? linker.voidFunctionDescriptor.invoke(parameterLayouts)
+                    : linker.functionDescriptor.invoke(linker.layout(resultType.nativeType()), parameterLayouts);
+
+            Object[] options = (Object[]) Array.newInstance(linker.optionClass, signature.isLeaf() && linker.criticalOption != null ? 1 : 0);
+            if (options.length > 0) {
+                options[0] = linker.criticalOption;
+            }
+
+            MethodHandle mh = (MethodHandle) linker.downcallHandle.invoke(linker.nativeLinker,
+                    linker.ofAddress.invoke(function.address()), descriptor, options);
+
+            for (int i = 0; i < signature.getParameterCount(); i++) {
+                ParameterType parameterType = signature.getParameterType(i);
+                Class carrierType = mh.type().parameterType(i);
+                if (parameterType.nativeType() == NativeType.POINTER) {
+                    mh = MethodHandles.filterArguments(mh, i, linker.ofAddress);
+
+                } else if (carrierType != parameterType.javaType()) {
+                    mh = MethodHandles.filterArguments(mh, i, MethodHandles.explicitCastArguments(MethodHandles.identity(carrierType),
+                            MethodType.methodType(carrierType, parameterType.javaType())));
+                }
+            }
+
+            if (resultType.nativeType() == NativeType.POINTER) {
+                mh = MethodHandles.filterReturnValue(mh, linker.address);
+
+            } else if (resultType.nativeType() != NativeType.VOID) {
+                // Widen the result to a java int or long, applying the sign or zero extension of the native type
+                Class carrierType = mh.type().returnType();
+                Class nativeIntType = long.class == resultType.javaType() ? long.class : int.class;
+                if (float.class != carrierType && double.class != carrierType) {
+                    mh = MethodHandles.explicitCastArguments(mh, mh.type().changeReturnType(nativeIntType));
+                    MethodHandle conversion = NumberUtil.getResultConversionHandle(resultType.nativeType(), nativeIntType, nativeIntType);
+                    if (conversion != null) {
+                        mh = MethodHandles.filterReturnValue(mh, conversion);
+                    }
+                }
+            }
+
+            return MethodHandles.explicitCastArguments(mh, signature.methodType());
+
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+}
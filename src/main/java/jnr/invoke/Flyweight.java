@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+/**
+ * The base class of generated struct accessors.  A flyweight holds the address of the struct it currently refers
+ * to, so a single instance can be moved over many structs.
+ *
+ * It also holds the owner of the memory at that address, if there is one, such as the direct buffer passed to
+ * {@link StructType#at(java.nio.ByteBuffer)}, or the {@link Library} reference of a struct variable.  The owner
+ * only keeps the memory from being freed or unloaded while the flyweight refers to it; it is never read.  It is
+ * replaced each time the flyweight is moved, and cleared when it is moved to a raw address with
+ * {@link StructType#moveTo(Object, long)}, since the memory is then owned by the caller.
+ */
+public abstract class Flyweight implements Addressable {
+    protected long address;
+    private Object owner;
+
+    protected Flyweight() {
+    }
+
+    public final long address() {
+        return address;
+    }
+
+    final void moveTo(long address, Object owner) {
+        this.address = address;
+        this.owner = owner;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * A function address held in native memory, which handles created with
+ * {@link Native#getMethodHandle(Signature, FunctionSlot)} read on every call.  Changing the address retargets those
+ * handles immediately, without generating new classes or deoptimizing any java code, e.g. to switch between a CPU
+ * specific and a generic build of a function.
+ */
+public final class FunctionSlot {
+    private final long slot;
+    private volatile CodeAddress target;
+    private Library.Reference reference;
+
+    // Set for lazy slots, to keep the resolver callback alive for as long as the slot, since calls which read the slot
+    // before it was resolved may still be entering the callback after it is replaced
+    private Resolver resolver;
+
+    /**
+     * Creates a slot which holds the address of {@code target}.
+     *
+     * @param target the initial target of the slot.
+     */
+    public FunctionSlot(CodeAddress target) {
+        this.slot = MemoryIO.getInstance().allocateMemory(8, true);
+        if (slot == 0L) {
+            throw new OutOfMemoryError("failed to allocate function slot");
+        }
+        set(target);
+    }
+
+    /**
+     * Creates a slot which is resolved on its first call, in the same way as a PLT entry.  The slot initially holds
+     * the address of a resolver, which looks up {@code name} in {@code library}, stores its address in the slot, and
+     * then calls it.
+     *
+     * @param library the library of the function.
+     * @param name the name of the function.
+     * @param signature the signature of the function, which may only have primitive parameter and result types.
+     * @return a new slot.
+     */
+    public static FunctionSlot lazy(Library library, String name, Signature signature) {
+        if (!CallbackGenerator.isSupported(signature)) {
+            throw new UnsupportedOperationException("cannot generate resolver for " + signature);
+        }
+
+        Resolver resolver = new Resolver(library, name, signature);
+        Callback callback = Native.getCallbackAddress(MethodHandles.foldArguments(
+                MethodHandles.exactInvoker(signature.methodType()),
+                Util.findVirtual(Resolver.class, "resolve", MethodType.methodType(MethodHandle.class)).bindTo(resolver)), signature);
+
+        FunctionSlot slot = new FunctionSlot(callback);
+        resolver.callback = callback;
+        resolver.slot = slot;
+        slot.resolver = resolver;
+
+        return slot;
+    }
+
+    private static final class Resolver {
+        private final Library library;
+        private final String name;
+        private final Signature signature;
+        private volatile FunctionSlot slot;
+        private Callback callback;
+        private MethodHandle forward;
+
+        Resolver(Library library, String name, Signature signature) {
+            this.library = library;
+            this.name = name;
+            this.signature = signature;
+        }
+
+        /**
+         * Resolves the function the first time it is called, and returns a handle which calls whatever the slot holds.
+         */
+        synchronized MethodHandle resolve() {
+            if (forward == null) {
+                slot.set(library.getFunction(name));
+                forward = Native.getMethodHandle(signature, slot);
+            }
+
+            return forward;
+        }
+    }
+
+    /**
+     * Gets the current target of this slot.
+     *
+     * @return the function the slot holds the address of.
+     */
+    public CodeAddress get() {
+        return target;
+    }
+
+    /**
+     * Atomically changes the target of this slot.  Calls which have already read the slot call the previous target.
+     * If the target is a function of a {@link Library}, the library is kept loaded until the slot is retargeted.
+     *
+     * @param target the new target.
+     * @throws IllegalStateException if the library of the target has been closed or reloaded.
+     */
+    public synchronized void set(CodeAddress target) {
+        if (target == null) {
+            throw new NullPointerException("null target");
+        }
+
+        // Keep a strong ref to the target, so the library or callback is not garbage collected while it is in the slot
+        Library.Reference reference = target instanceof Library.Symbol ? ((Library.Symbol) target).retain() : null;
+        this.target = target;
+        if (UnsafeMemoryIO.isAvailable()) {
+            UnsafeMemoryIO.unsafe().putLongVolatile(null, slot, target.address());
+        } else {
+            MemoryIO.getInstance().putLong(slot, target.address());
+        }
+
+        if (this.reference != null) {
+            this.reference.release();
+        }
+        this.reference = reference;
+    }
+
+    /**
+     * Atomically changes the target of this slot, if it is still the same {@code expected} instance.
+     *
+     * @param expected the target the slot is expected to hold.
+     * @param target the new target.
+     * @return true if the target was changed.
+     */
+    public synchronized boolean compareAndSet(CodeAddress expected, CodeAddress target) {
+        if (this.target != expected) {
+            return false;
+        }
+
+        set(target);
+        return true;
+    }
+
+    long slotAddress() {
+        return slot;
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        try {
+            MemoryIO.getInstance().freeMemory(slot);
+        } finally {
+            super.finalize();
+        }
+    }
+}
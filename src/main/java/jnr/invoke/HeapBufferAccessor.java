@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+
+/**
+ * Retrieves the backing array and array offset of heap buffers, including read-only buffers, for which
+ * {@link Buffer#array()} and {@link Buffer#arrayOffset()} throw {@link java.nio.ReadOnlyBufferException}.
+ */
+final class HeapBufferAccessor {
+    private final long arrayFieldOffset;
+    private final long offsetFieldOffset;
+
+    HeapBufferAccessor(Class<? extends Buffer> bufferClass) {
+        this.arrayFieldOffset = fieldOffset(bufferClass, "hb");
+        this.offsetFieldOffset = fieldOffset(bufferClass, "offset");
+    }
+
+    private static long fieldOffset(Class<? extends Buffer> bufferClass, String fieldName) {
+        try {
+            if (bufferClass != null && UnsafeMemoryIO.isAvailable()) {
+                Field field = bufferClass.getDeclaredField(fieldName);
+                return UnsafeMemoryIO.unsafe().objectFieldOffset(field);
+            }
+        } catch (Throwable t) {
+        }
+
+        return -1L;
+    }
+
+    private boolean isReadOnlyHeapBuffer(Buffer buffer) {
+        return arrayFieldOffset != -1L && offsetFieldOffset != -1L && buffer.isReadOnly() && !buffer.isDirect()
+                && UnsafeMemoryIO.unsafe().getObject(buffer, arrayFieldOffset) != null;
+    }
+
+    Object array(Buffer buffer) {
+        if (buffer.hasArray() || !isReadOnlyHeapBuffer(buffer)) {
+            return buffer.array();
+        }
+
+        return UnsafeMemoryIO.unsafe().getObject(buffer, arrayFieldOffset);
+    }
+
+    int arrayOffset(Buffer buffer) {
+        if (buffer.hasArray() || !isReadOnlyHeapBuffer(buffer)) {
+            return buffer.arrayOffset();
+        }
+
+        return UnsafeMemoryIO.unsafe().getInt(buffer, offsetFieldOffset);
+    }
+}
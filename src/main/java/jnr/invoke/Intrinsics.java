@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.Platform;
+import jnr.x86asm.Assembler;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+
+import static jnr.invoke.X86_64StubCompiler.JAE;
+import static jnr.invoke.X86_64StubCompiler.JB;
+import static jnr.invoke.X86_64StubCompiler.JNZ;
+import static jnr.invoke.X86_64StubCompiler.JZ;
+import static jnr.invoke.X86_64StubCompiler.jccPlaceholder;
+import static jnr.invoke.X86_64StubCompiler.patchJcc;
+import static jnr.x86asm.Asm.*;
+
+/**
+ * x86_64 instructions which java has no cheap access to, each called via a small native function, at the cost of a
+ * native method call.
+ */
+public final class Intrinsics {
+    private static final boolean AVAILABLE = Platform.getPlatform().getCPU() == Platform.CPU.X86_64
+            && Platform.getPlatform().getOS() != Platform.OS.WINDOWS
+            && StubCompiler.hasPageManager && StubCompiler.hasAssembler;
+
+    private Intrinsics() {
+    }
+
+    private static final class Handles {
+        static final MethodHandle RDTSC, RDTSCP, CPUID, PAUSE, PREFETCH, CRC32C_ADDRESS, CRC32C_ARRAY;
+        static final boolean CRC32C_SUPPORTED;
+
+        static {
+            ResultType longResult = ResultType.primitive(NativeType.SLONG_LONG, long.class);
+            ResultType voidResult = ResultType.primitive(NativeType.VOID, void.class);
+            ResultType intResult = ResultType.primitive(NativeType.UINT, int.class);
+            ParameterType intParameter = ParameterType.primitive(NativeType.UINT, int.class);
+            ParameterType longParameter = ParameterType.primitive(NativeType.SLONG_LONG, long.class);
+            ParameterType pointerParameter = ParameterType.primitive(NativeType.POINTER, long.class);
+
+            Assembler a = new Assembler(X86_64);
+            a.rdtsc();
+            a.shl(rdx, imm(32));
+            a.or_(rax, rdx);
+            a.ret();
+            RDTSC = Native.getMethodHandle(Signature.getSignature(Signature.LEAF, longResult), a);
+
+            a = new Assembler(X86_64);
+            a.rdtscp();
+            a.shl(rdx, imm(32));
+            a.or_(rax, rdx);
+            a.ret();
+            RDTSCP = Native.getMethodHandle(Signature.getSignature(Signature.LEAF, longResult), a);
+
+            // %rbx is callee saved, and cpuid overwrites it
+            a = new Assembler(X86_64);
+            a.push(rbx);
+            a.mov(r8, rdx);
+            a.mov(eax, edi);
+            a.mov(ecx, esi);
+            a.cpuid();
+            a.mov(dword_ptr(r8, 0), eax);
+            a.mov(dword_ptr(r8, 4), ebx);
+            a.mov(dword_ptr(r8, 8), ecx);
+            a.mov(dword_ptr(r8, 12), edx);
+            a.pop(rbx);
+            a.ret();
+            CPUID = Native.getMethodHandle(Signature.getSignature(Signature.LEAF, voidResult, intParameter, intParameter,
+                    ParameterType.array(int[].class, DataDirection.OUT)), a);
+
+            a = new Assembler(X86_64);
+            a.pause();
+            a.ret();
+            PAUSE = Native.getMethodHandle(Signature.getSignature(Signature.LEAF, voidResult), a);
+
+            // prefetcht0
+            a = new Assembler(X86_64);
+            a.prefetch(byte_ptr(rdi, 0), imm(1));
+            a.ret();
+            PREFETCH = Native.getMethodHandle(Signature.getSignature(Signature.LEAF, voidResult, pointerParameter), a);
+
+            // crc32c(crc, pointer, offset, length): eight bytes at a time, then the remaining bytes one at a time.
+            // jnr-x86asm drops the REX.W prefix of crc32 r64, so crc32 %rax, (%rsi) is emitted by hand.
+            a = new Assembler(X86_64);
+            a.mov(eax, edi);
+            a.add(rsi, rdx);
+            a.cmp(rcx, imm(8));
+            int tail = jccPlaceholder(a);
+            int quadLoop = a.offset();
+            emit(a, 0xf2, 0x48, 0x0f, 0x38, 0xf1, 0x06);
+            a.add(rsi, imm(8));
+            a.sub(rcx, imm(8));
+            a.cmp(rcx, imm(8));
+            patchJcc(a, jccPlaceholder(a), JAE, quadLoop);
+            patchJcc(a, tail, JB, a.offset());
+            a.test(rcx, rcx);
+            int done = jccPlaceholder(a);
+            int byteLoop = a.offset();
+            a.crc32(eax, byte_ptr(rsi, 0));
+            a.inc(rsi);
+            a.dec(rcx);
+            patchJcc(a, jccPlaceholder(a), JNZ, byteLoop);
+            patchJcc(a, done, JZ, a.offset());
+            a.ret();
+
+            CodeAddress crc32c = MachineCode.install(a);
+            CRC32C_ADDRESS = Native.createMethodHandle(Signature.getSignature(Signature.LEAF, intResult,
+                    intParameter, pointerParameter, longParameter, longParameter), crc32c);
+            // The array is always pinned, so only the bytes which are checksummed are read, instead of the whole
+            // array being copied to native memory
+            CRC32C_ARRAY = Native.createMethodHandle(Signature.getSignature(Signature.LEAF, intResult, intParameter,
+                    ParameterType.array(byte[].class, DataDirection.IN, ArrayPinningPolicy.threshold(0)),
+                    longParameter, longParameter), crc32c);
+
+            // SSE4.2 is bit 20 of %ecx from leaf 1
+            int[] registers = new int[4];
+            try {
+                CPUID.invokeExact(1, 0, registers);
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+            CRC32C_SUPPORTED = (registers[2] & (1 << 20)) != 0;
+        }
+    }
+
+    /**
+     * Tests if the intrinsics are available on this platform.
+     *
+     * @return true on x86_64, except on Windows.
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Reads the time stamp counter.
+     *
+     * @return the number of cycles of the time stamp counter.
+     */
+    public static long rdtsc() {
+        checkAvailable();
+        try {
+            return (long) Handles.RDTSC.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Reads the time stamp counter, once all preceding instructions have completed.
+     *
+     * @return the number of cycles of the time stamp counter.
+     */
+    public static long rdtscp() {
+        checkAvailable();
+        try {
+            return (long) Handles.RDTSCP.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Queries the processor.
+     *
+     * @param leaf the value of %eax.
+     * @param subleaf the value of %ecx.
+     * @return the resulting values of %eax, %ebx, %ecx and %edx.
+     */
+    public static int[] cpuid(int leaf, int subleaf) {
+        checkAvailable();
+        int[] registers = new int[4];
+        try {
+            Handles.CPUID.invokeExact(leaf, subleaf, registers);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+
+        return registers;
+    }
+
+    /**
+     * Executes a spin loop hint.
+     */
+    public static void pause() {
+        checkAvailable();
+        try {
+            Handles.PAUSE.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Prefetches the cache line holding {@code address} into all levels of the cache.  Prefetching an invalid
+     * address has no effect.
+     *
+     * @param address the native address to prefetch.
+     */
+    public static void prefetch(long address) {
+        checkAvailable();
+        try {
+            Handles.PREFETCH.invokeExact(address);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Tests if the processor has the SSE4.2 crc32 instruction, which the {@code crc32c} methods need.
+     *
+     * @return true if the {@code crc32c} methods can be used.
+     */
+    public static boolean isCrc32cSupported() {
+        return AVAILABLE && Handles.CRC32C_SUPPORTED;
+    }
+
+    /**
+     * Updates a CRC-32C checksum, the Castagnoli polynomial implemented by the SSE4.2 crc32 instruction.  The result
+     * is the same as {@code java.util.zip.CRC32C}, where {@code crc} is the value of a previous checksum, or 0.
+     *
+     * @param crc the checksum so far.
+     * @param address the native address of the data.
+     * @param length the number of bytes of data.
+     * @return the updated checksum.
+     */
+    public static int crc32c(int crc, long address, long length) {
+        checkCrc32c();
+        if (length < 0) {
+            throw new IllegalArgumentException("negative length " + length);
+        }
+
+        try {
+            return ~(int) Handles.CRC32C_ADDRESS.invokeExact(~crc, address, 0L, length);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Updates a CRC-32C checksum with bytes from an array.
+     *
+     * @param crc the checksum so far.
+     * @param bytes the data.
+     * @param offset the offset of the data in the array.
+     * @param length the number of bytes of data.
+     * @return the updated checksum.
+     * @see #crc32c(int, long, long)
+     */
+    public static int crc32c(int crc, byte[] bytes, int offset, int length) {
+        checkCrc32c();
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + bytes.length);
+        }
+
+        try {
+            return ~(int) Handles.CRC32C_ARRAY.invokeExact(~crc, bytes, (long) offset, (long) length);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Updates a CRC-32C checksum with the remaining bytes of a buffer.  The position of the buffer is advanced to its
+     * limit.
+     *
+     * @param crc the checksum so far.
+     * @param buffer the data.
+     * @return the updated checksum.
+     * @see #crc32c(int, long, long)
+     */
+    public static int crc32c(int crc, ByteBuffer buffer) {
+        int position = buffer.position(), remaining = buffer.remaining();
+        if (buffer.hasArray()) {
+            crc = crc32c(crc, buffer.array(), buffer.arrayOffset() + position, remaining);
+        } else if (buffer.isDirect()) {
+            crc = crc32c(crc, UnsafeMemoryIO.getDirectBufferAddress(buffer) + position, remaining);
+        } else {
+            byte[] bytes = new byte[remaining];
+            buffer.duplicate().get(bytes);
+            crc = crc32c(crc, bytes, 0, remaining);
+        }
+        buffer.position(buffer.limit());
+
+        return crc;
+    }
+
+    private static void emit(Assembler a, int... bytes) {
+        int offset = a.offset();
+        for (int i = 0; i < bytes.length; i++) {
+            a.nop();
+        }
+
+        for (int i = 0; i < bytes.length; i++) {
+            a.setByteAt(offset + i, (byte) bytes[i]);
+        }
+    }
+
+    private static void checkAvailable() {
+        if (!AVAILABLE) {
+            throw new UnsupportedOperationException("intrinsics are not available on this platform");
+        }
+    }
+
+    private static void checkCrc32c() {
+        if (!isCrc32cSupported()) {
+            throw new UnsupportedOperationException("crc32 instruction is not supported");
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+
+        return new RuntimeException(t);
+    }
+}
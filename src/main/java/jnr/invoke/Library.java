@@ -18,43 +18,513 @@
 
 package jnr.invoke;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A native library.
+ *
+ * Libraries are reference counted; each {@link #open} of the same name and flags returns the same instance, and
+ * the library is unloaded once it has been closed as many times as it was opened.  Method handles created via
+ * {@link Native#getMethodHandle(Signature, jnr.invoke.CodeAddress)} for its functions are guarded by a
+ * {@link SwitchPoint}, so once the library is closed they throw {@link IllegalStateException} instead of calling
+ * unmapped code, and once it is reloaded they relink to the new addresses of their functions on their next call.
+ * Batch and chain handles are guarded in the same way.  Variables, struct variables and function slots which hold
+ * the address of one of its functions keep a reference to the library, so it is not unloaded until they are garbage
+ * collected, or the slot is retargeted, and it cannot be reloaded while they exist.
+ */
 public final class Library {
     public static final int LAZY = com.kenai.jffi.Library.LAZY;
     public static final int NOW = com.kenai.jffi.Library.NOW;
     public static final int LOCAL = com.kenai.jffi.Library.LOCAL;
     public static final int GLOBAL = com.kenai.jffi.Library.GLOBAL;
 
-    private final com.kenai.jffi.Library jffiLibrary;
+    private static final int AT_SYSINFO_EHDR = 33;
+
+    // Guards the reference counts, and the loading and unloading of all libraries
+    private static final Map<String, Library> OPEN_LIBRARIES = new HashMap<String, Library>();
+
+    private final String name;
+    private final int flags;
+    private final boolean permanent;
+    private volatile long handle;
+    private volatile com.kenai.jffi.Library jffiLibrary;
+    private volatile SymbolIndex symbolIndex;
+    private volatile SwitchPoint switchPoint = new SwitchPoint();
+    private volatile boolean closed;
+    private int referenceCount;
+    // The number of references held by variables and function slots, which cannot be relinked
+    private int retainedCount;
 
     public static Library open(String name, int flags) {
-        com.kenai.jffi.Library jffiLibrary = com.kenai.jffi.Library.getCachedInstance(name, flags);
-        if (jffiLibrary != null) {
-            return new Library(jffiLibrary);
+        synchronized (OPEN_LIBRARIES) {
+            String key = name + ":" + flags;
+            Library library = OPEN_LIBRARIES.get(key);
+            if (library == null) {
+                library = new Library(name, flags, false);
+                library.load();
+                OPEN_LIBRARIES.put(key, library);
+            }
+            library.referenceCount++;
+
+            return library;
         }
+    }
 
-        throw new UnsatisfiedLinkError(com.kenai.jffi.Library.getLastError());
+    private Library(String name, int flags, boolean permanent) {
+        this.name = name;
+        this.flags = flags;
+        this.permanent = permanent;
     }
 
-    private Library(com.kenai.jffi.Library jffiLibrary) {
+    private void load() {
+        if (DynamicLinker.isAvailable()) {
+            handle = DynamicLinker.dlopen(name, flags);
+            return;
+        }
+
+        // Without direct access to the dynamic linker, jffi only unloads the library once it is garbage collected
+        com.kenai.jffi.Library jffiLibrary = com.kenai.jffi.Library.getCachedInstance(name, flags);
+        if (jffiLibrary == null) {
+            throw new UnsatisfiedLinkError(com.kenai.jffi.Library.getLastError());
+        }
         this.jffiLibrary = jffiLibrary;
     }
 
+    private void unload() {
+        long handle = this.handle;
+        this.handle = 0L;
+        this.jffiLibrary = null;
+        this.symbolIndex = null;
+        if (handle != 0L) {
+            DynamicLinker.dlclose(handle);
+        }
+    }
+
+    /**
+     * Releases a reference to this library, and unloads it once every {@link #open} of it has been closed.  Handles
+     * for its functions then throw {@link IllegalStateException}.  No calls to the library may be in progress when it
+     * is unloaded.
+     */
+    public void close() {
+        synchronized (OPEN_LIBRARIES) {
+            if (permanent || closed || --referenceCount > 0) {
+                return;
+            }
+
+            OPEN_LIBRARIES.remove(name + ":" + flags);
+            closed = true;
+            SwitchPoint.invalidateAll(new SwitchPoint[] { switchPoint });
+            unload();
+        }
+    }
+
+    /**
+     * Unloads and loads this library again, e.g. after its file has been replaced.  Handles for its functions are
+     * relinked to the new addresses of their functions on their next call.  The library is only loaded from its file
+     * again if nothing else, such as another library which depends on it, keeps it loaded.  No calls to the library
+     * may be in progress while it is reloaded.
+     *
+     * @throws IllegalStateException if the library has been closed, or variables or function slots use it.
+     */
+    public void reload() {
+        synchronized (OPEN_LIBRARIES) {
+            if (permanent) {
+                throw new UnsupportedOperationException("cannot reload " + name);
+            }
+            checkOpen();
+            if (retainedCount > 0) {
+                throw new IllegalStateException("cannot reload " + name + " while its variables or functions are in use");
+            }
+
+            SwitchPoint previous = switchPoint;
+            switchPoint = new SwitchPoint();
+            SwitchPoint.invalidateAll(new SwitchPoint[] { previous });
+            unload();
+            load();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("library " + name + " is closed");
+        }
+    }
+
+    /**
+     * Takes a reference to this library for an accessor which uses its addresses directly, without a guard.
+     *
+     * @return the reference, or null if the library is never unloaded.
+     * @throws IllegalStateException if the library has been closed.
+     */
+    Reference retain() {
+        synchronized (OPEN_LIBRARIES) {
+            checkOpen();
+            if (permanent) {
+                return null;
+            }
+
+            referenceCount++;
+            retainedCount++;
+
+            return new Reference(this);
+        }
+    }
+
+    /**
+     * A reference to a library, which is released when it is no longer reachable if it is not released before.
+     */
+    static final class Reference {
+        private final Library library;
+        private boolean released;
+
+        private Reference(Library library) {
+            this.library = library;
+        }
+
+        void release() {
+            synchronized (OPEN_LIBRARIES) {
+                if (released) {
+                    return;
+                }
+
+                released = true;
+                library.retainedCount--;
+                library.close();
+            }
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                release();
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+
+    private static final class VdsoHolder {
+        static final Library VDSO;
+        static final Throwable FAILURE;
+
+        static {
+            Library vdso = null;
+            Throwable failure = null;
+            try {
+                vdso = loadVdso();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            VDSO = vdso;
+            FAILURE = failure;
+        }
+    }
+
+    /**
+     * Gets the virtual dynamic shared object the Linux kernel maps into every process, which implements
+     * {@code clock_gettime}, {@code gettimeofday}, {@code time} and {@code getcpu} without a system call.
+     *
+     * The vDSO is found via the auxiliary vector, and its functions are looked up in its ELF symbol table, so they
+     * are called directly instead of via the libc wrappers.  Functions can be looked up by their plain names, e.g.
+     * {@code clock_gettime}, as well as by their {@code __vdso_} or {@code __kernel_} prefixed names.  The vDSO
+     * cannot be unloaded, so closing it has no effect.
+     *
+     * @return the vDSO.
+     * @throws UnsatisfiedLinkError if there is no vDSO.
+     */
+    public static Library vdso() {
+        if (VdsoHolder.VDSO != null) {
+            return VdsoHolder.VDSO;
+        }
+
+        UnsatisfiedLinkError error = new UnsatisfiedLinkError("vDSO not available: " + VdsoHolder.FAILURE.getMessage());
+        error.initCause(VdsoHolder.FAILURE);
+        throw error;
+    }
+
+    private static Library loadVdso() throws Throwable {
+        if (com.kenai.jffi.Platform.getPlatform().getOS() != com.kenai.jffi.Platform.OS.LINUX) {
+            throw new UnsupportedOperationException("only Linux has a vDSO");
+        }
+
+        long getauxval = com.kenai.jffi.Library.getDefault().getSymbolAddress("getauxval");
+        if (getauxval == 0L) {
+            throw new UnsatisfiedLinkError("no such function: getauxval");
+        }
+
+        MethodHandle mh = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.ULONG, long.class), ParameterType.primitive(NativeType.ULONG, long.class)),
+                new jnr.invoke.CodeAddress(getauxval));
+        long address = (long) mh.invokeExact((long) AT_SYSINFO_EHDR);
+        if (address == 0L) {
+            throw new UnsatisfiedLinkError("no AT_SYSINFO_EHDR entry in the auxiliary vector");
+        }
+
+        ElfSymbolTable symbolTable = ElfSymbolTable.parse(com.kenai.jffi.MemoryIO.getInstance()
+                .newDirectByteBuffer(address, (int) ElfSymbolTable.loadedSize(address)));
+
+        Library vdso = new Library("linux-vdso.so.1", 0, true);
+        vdso.symbolIndex = new SymbolIndex(vdso, symbolTable, address - symbolTable.imageBase());
+
+        return vdso;
+    }
+
+    /**
+     * Gets an index of the symbols exported by this library, which is built from its ELF file the first time it is
+     * needed.  Once the index has been built, it is used to look up functions and variables, instead of {@code dlsym}.
+     *
+     * @return the symbol index.
+     * @throws UnsatisfiedLinkError if the file of the library cannot be found or is not an ELF shared object.
+     */
+    public final SymbolIndex getSymbolIndex() {
+        SymbolIndex index = symbolIndex;
+        if (index == null) {
+            synchronized (OPEN_LIBRARIES) {
+                checkOpen();
+                if ((index = symbolIndex) == null) {
+                    symbolIndex = index = SymbolIndex.load(this, name);
+                }
+            }
+        }
+
+        return index;
+    }
+
     public final jnr.invoke.CodeAddress getFunction(String name) {
-        long address = jffiLibrary.getSymbolAddress(name);
+        long address = getSymbolAddress(name);
         if (address != 0L) {
-            return new CodeAddress(this, address);
+            return new Symbol(this, name, address);
         }
 
         throw new UnsatisfiedLinkError("no such function: " + name);
     }
 
+    /**
+     * Gets an accessor for a global variable exported by this library.
+     *
+     * @param name the symbol name of the variable.
+     * @param nativeType the native type of the variable.
+     * @return an accessor which reads and writes the variable directly.
+     */
+    public final Variable getVariable(String name, NativeType nativeType) {
+        if (nativeType == NativeType.VOID) {
+            throw new IllegalArgumentException("invalid variable type " + nativeType);
+        }
+
+        Reference reference = retain();
+        return new Variable(reference, nativeType, getVariableAddress(name, reference));
+    }
+
+    /**
+     * Gets a struct accessor for a global struct variable exported by this library.  The accessor keeps a reference
+     * to this library, so it is not unloaded while the accessor refers to it, or until it is moved to another
+     * struct.
+     *
+     * @param name the symbol name of the variable.
+     * @param structType the struct type of the variable.
+     * @return a new struct accessor.
+     */
+    public final <T> T getVariable(String name, StructType<T> structType) {
+        Reference reference = retain();
+        return structType.at(getVariableAddress(name, reference), reference);
+    }
+
+    private long getVariableAddress(String name, Reference reference) {
+        long address = getSymbolAddress(name);
+        if (address != 0L) {
+            return address;
+        }
+
+        if (reference != null) {
+            reference.release();
+        }
+
+        throw new UnsatisfiedLinkError("no such variable: " + name);
+    }
+
+    private long getSymbolAddress(String name) {
+        checkOpen();
+        SymbolIndex index = symbolIndex;
+        long address = index != null ? index.getAddress(name) : 0L;
+        if (address != 0L) {
+            return address;
+        }
+
+        if (!permanent) {
+            // Indirect functions are not in the index, since their address is chosen by the dynamic linker
+            return lookupSymbol(name);
+        }
+
+        // The vDSO exports its functions with a prefix, as well as under their plain names on some architectures
+        address = index.getAddress("__vdso_" + name);
+        return address != 0L ? address : index.getAddress("__kernel_" + name);
+    }
+
+    /**
+     * Looks up a symbol with the dynamic linker, bypassing the symbol index.
+     */
+    long lookupSymbol(String name) {
+        long handle = this.handle;
+        if (handle != 0L) {
+            return DynamicLinker.dlsym(handle, name);
+        }
+
+        com.kenai.jffi.Library jffiLibrary = this.jffiLibrary;
+        return jffiLibrary != null ? jffiLibrary.getSymbolAddress(name) : 0L;
+    }
+
+    /**
+     * Gets the link map entry of this library from the dynamic linker.
+     *
+     * @return the address of the {@code struct link_map}, or 0 if it is not available.
+     */
+    long linkMap() {
+        long handle = this.handle;
+        return handle != 0L ? DynamicLinker.linkMap(handle) : 0L;
+    }
+
+    /**
+     * Creates a handle which calls {@code functions} directly.  If any of them is a function in a library, the handle
+     * is guarded, so that once the library is closed it throws {@link IllegalStateException}, and once it is reloaded
+     * it is created again by {@code factory} with the new addresses of the functions.
+     *
+     * @param functions the functions the handle calls.
+     * @param factory creates the handle from the addresses of the functions.
+     * @return a new handle.
+     */
+    static MethodHandle link(CodeAddress[] functions, HandleFactory factory) {
+        if (!isGuarded(functions)) {
+            return factory.create(functions);
+        }
+
+        synchronized (OPEN_LIBRARIES) {
+            for (CodeAddress function : functions) {
+                if (function instanceof Symbol) {
+                    ((Symbol) function).library.checkOpen();
+                }
+            }
+
+            MethodHandle target = factory.create(functions);
+            Linker linker = new Linker(functions, factory, new MutableCallSite(target.type()));
+            linker.install(functions, target);
 
-    private static final class CodeAddress extends jnr.invoke.CodeAddress {
+            return linker.callSite.dynamicInvoker();
+        }
+    }
+
+    private static boolean isGuarded(CodeAddress[] functions) {
+        for (CodeAddress function : functions) {
+            if (function instanceof Symbol && !((Symbol) function).library.permanent) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    interface HandleFactory {
+        MethodHandle create(CodeAddress[] functions);
+    }
+
+    /**
+     * The address of a function in a library, which remembers its name so handles for it can be relinked.
+     */
+    static final class Symbol extends jnr.invoke.CodeAddress {
         private final Library library;
+        private final String name;
+        // Invalidated when the library is closed or reloaded, after which the address is no longer valid
+        private final SwitchPoint switchPoint;
 
-        CodeAddress(Library library, long address) {
+        Symbol(Library library, String name, long address) {
             super(address);
             this.library = library;
+            this.name = name;
+            this.switchPoint = library.switchPoint;
+        }
+
+        /**
+         * Creates a handle for this function, which is relinked after its library is reloaded.
+         */
+        MethodHandle link(final Signature signature) {
+            return Library.link(new CodeAddress[] { this }, new HandleFactory() {
+                @Override
+                public MethodHandle create(CodeAddress[] functions) {
+                    return Native.createMethodHandle(signature, functions[0]);
+                }
+            });
+        }
+
+        /**
+         * Takes a reference to the library of this function, for a slot which holds its address.
+         *
+         * @return the reference, or null if the library is never unloaded.
+         * @throws IllegalStateException if the library has been closed, or reloaded since this address was looked up.
+         */
+        Reference retain() {
+            synchronized (OPEN_LIBRARIES) {
+                library.checkOpen();
+                if (!library.permanent && switchPoint.hasBeenInvalidated()) {
+                    throw new IllegalStateException("library " + library.name + " was reloaded after " + name + " was looked up");
+                }
+
+                return library.retain();
+            }
+        }
+
+        private CodeAddress resolve() {
+            return library.permanent ? this : library.getFunction(name);
+        }
+    }
+
+    static final class Linker {
+        private static final MethodHandle RELINK = Util.findVirtual(Linker.class, "relink",
+                MethodType.methodType(Object.class, Object[].class));
+
+        private final CodeAddress[] functions;
+        private final HandleFactory factory;
+        private final MutableCallSite callSite;
+        private final MethodHandle fallback;
+
+        Linker(CodeAddress[] functions, HandleFactory factory, MutableCallSite callSite) {
+            this.functions = functions.clone();
+            this.factory = factory;
+            this.callSite = callSite;
+            this.fallback = MethodHandles.insertArguments(RELINK, 0, this)
+                    .asCollector(Object[].class, callSite.type().parameterCount())
+                    .asType(callSite.type());
+        }
+
+        private void install(CodeAddress[] functions, MethodHandle target) {
+            for (CodeAddress function : functions) {
+                if (function instanceof Symbol && !((Symbol) function).library.permanent) {
+                    target = ((Symbol) function).switchPoint.guardWithTest(target, fallback);
+                }
+            }
+            callSite.setTarget(target);
+        }
+
+        Object relink(Object[] args) throws Throwable {
+            MethodHandle target;
+            synchronized (OPEN_LIBRARIES) {
+                CodeAddress[] resolved = new CodeAddress[functions.length];
+                for (int i = 0; i < functions.length; i++) {
+                    resolved[i] = functions[i] instanceof Symbol ? ((Symbol) functions[i]).resolve() : functions[i];
+                }
+                target = factory.create(resolved);
+                install(resolved, target);
+            }
+
+            return target.invokeWithArguments(args);
         }
     }
 }
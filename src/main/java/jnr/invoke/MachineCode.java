@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+import com.kenai.jffi.PageManager;
+import jnr.x86asm.Assembler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Machine code copied into executable memory, which is freed once this address is no longer referenced.
+ */
+final class MachineCode extends CodeAddress {
+    private final AbstractX86StubCompiler.PageHolder pages;
+
+    private MachineCode(AbstractX86StubCompiler.PageHolder pages) {
+        super(pages.memory);
+        this.pages = pages;
+    }
+
+    static MachineCode install(Assembler assembler) {
+        AbstractX86StubCompiler.PageHolder pages = allocate(assembler.codeSize());
+
+        // The code is relocated to its final address, for any absolute jumps and trampolines
+        ByteBuffer buf = ByteBuffer.allocate(assembler.codeSize()).order(ByteOrder.LITTLE_ENDIAN);
+        assembler.relocCode(buf, pages.memory);
+        buf.flip();
+
+        return install(pages, buf.array(), buf.limit());
+    }
+
+    static MachineCode install(byte[] code) {
+        return install(allocate(code.length), code, code.length);
+    }
+
+    private static AbstractX86StubCompiler.PageHolder allocate(long size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("no machine code");
+        }
+
+        if (!StubCompiler.hasPageManager) {
+            throw new UnsupportedOperationException("cannot allocate executable memory");
+        }
+
+        PageManager pm = PageManager.getInstance();
+        long npages = (size + pm.pageSize() - 1) / pm.pageSize();
+        long memory = pm.allocatePages((int) npages, PageManager.PROT_READ | PageManager.PROT_WRITE);
+        if (memory == 0) {
+            throw new OutOfMemoryError("allocatePages failed for codeSize=" + size);
+        }
+
+        return new AbstractX86StubCompiler.PageHolder(pm, memory, npages);
+    }
+
+    private static MachineCode install(AbstractX86StubCompiler.PageHolder pages, byte[] code, int length) {
+        MemoryIO.getInstance().putByteArray(pages.memory, code, 0, length);
+        pages.pm.protectPages(pages.memory, (int) pages.pageCount, PageManager.PROT_READ | PageManager.PROT_EXEC);
+
+        return new MachineCode(pages);
+    }
+}
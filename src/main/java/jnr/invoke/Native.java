@@ -20,6 +20,8 @@ package jnr.invoke;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 
 public final class Native {
@@ -33,6 +35,102 @@ public final class Native {
     }
 
     public static MethodHandle getMethodHandle(Signature signature, CodeAddress nativeAddress) {
+        if (nativeAddress instanceof Library.Symbol) {
+            // Guard the handle, so it can be invalidated when the library is closed or reloaded
+            return ((Library.Symbol) nativeAddress).link(signature);
+        }
+
+        return createMethodHandle(signature, nativeAddress);
+    }
+
+    /**
+     * Creates a handle which calls the function whose address is in {@code slot} at the time of each call.
+     *
+     * @param signature the signature of the function, which may only have primitive parameter and result types.
+     * @param slot the slot holding the address of the function.
+     * @return a new handle.
+     */
+    public static MethodHandle getMethodHandle(Signature signature, FunctionSlot slot) {
+        if (signature.isBlocking()) {
+            return BlockingCalls.wrap(getMethodHandle(signature.withFlags(signature.getFlags() & ~Signature.BLOCKING), slot), signature);
+        }
+
+        PrimitiveX86MethodHandleGenerator generator = new PrimitiveX86MethodHandleGenerator();
+        if (!generator.isIndirectSupported(signature)) {
+            throw new UnsupportedOperationException("cannot generate slot handle for " + signature);
+        }
+
+        return generator.createIndirectHandle(signature, slot);
+    }
+
+    /**
+     * Creates a handle which calls machine code assembled with jnr-x86asm.  The code is relocated into its own
+     * executable memory, and must follow the native calling convention of {@code signature}, including returning
+     * with {@code ret}.  The memory is freed once the handle is no longer referenced.
+     *
+     * @param signature the signature of the code.
+     * @param code the assembled code.
+     * @return a new handle.
+     * @see Intrinsics
+     */
+    public static MethodHandle getMethodHandle(Signature signature, jnr.x86asm.Assembler code) {
+        return createMethodHandle(signature, MachineCode.install(code));
+    }
+
+    /**
+     * Creates a handle which calls raw machine code.  The code is copied into its own executable memory, so it must
+     * be position independent, and must follow the native calling convention of {@code signature}.
+     *
+     * @param signature the signature of the code.
+     * @param code the machine code.
+     * @return a new handle.
+     */
+    public static MethodHandle getMethodHandle(Signature signature, byte[] code) {
+        return createMethodHandle(signature, MachineCode.install(code));
+    }
+
+    static MethodHandle createMethodHandle(Signature signature, CodeAddress nativeAddress) {
+        if (signature.isBlocking()) {
+            return BlockingCalls.wrap(createMethodHandle(signature.withFlags(signature.getFlags() & ~Signature.BLOCKING), nativeAddress),
+                    signature);
+        }
+
+        ResultType resultType = signature.getResultType();
+        if (resultType.getResultConverter() != null) {
+            return convertResult(createMethodHandle(signature.withResultType(resultType.asPrimitiveType()), nativeAddress), signature);
+        }
+
+        ParameterType[] parameterTypes = signature.parameterTypeArray();
+        boolean hasAddressParameters = false;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (parameterTypes[i].getAddressHandle() != null) {
+                parameterTypes[i] = parameterTypes[i].asPrimitiveType();
+                hasAddressParameters = true;
+            }
+        }
+
+        if (hasAddressParameters) {
+            // Convert address parameters to long before calling the handle for the primitive signature
+            MethodHandle mh = createMethodHandle(signature.withParameterTypes(parameterTypes), nativeAddress);
+            for (int i = 0, javaIndex = 0; i < parameterTypes.length; i++) {
+                if (signature.getParameterType(i).getAddressHandle() != null) {
+                    mh = MethodHandles.filterArguments(mh, javaIndex, signature.getParameterType(i).getAddressHandle());
+                }
+                javaIndex += parameterTypes[i].isJavaParameter() ? 1 : 0;
+            }
+
+            return mh;
+        }
+
+        if (signature.hasOutScalars()) {
+            // Only the scratch generator can allocate memory for out-scalar parameters
+            ScratchMethodHandleGenerator generator = new ScratchMethodHandleGenerator();
+            if (!generator.isSupported(signature.getResultType(), signature.parameterTypeList(), signature.getCallingConvention())) {
+                throw new UnsupportedOperationException("cannot generate handle for " + signature);
+            }
+
+            return generator.createBoundHandle(signature, nativeAddress);
+        }
 
         MethodHandle mh = getPrimitiveMethodHandle(signature, nativeAddress);
         if (mh == null) {
@@ -42,11 +140,199 @@ public final class Native {
         return mh;
     }
 
+    /**
+     * Creates a native function pointer which calls {@code target}.
+     *
+     * The trampoline is taken from a pool of pre-allocated closures for the native signature, and calls a generated
+     * dispatcher which passes the native arguments to {@code target} without boxing.  Native threads which call the
+     * function pointer are attached to the JVM on their first call, and stay attached.
+     *
+     * @param target the handle to call, which is adapted to the java type of {@code signature}.
+     * @param signature the native signature of the callback.  Only primitive parameter and result types are supported.
+     * @return the native address of the callback.
+     */
+    public static Callback getCallbackAddress(MethodHandle target, Signature signature) {
+        if (!CallbackGenerator.isSupported(signature)) {
+            throw new UnsupportedOperationException("cannot generate callback for " + signature);
+        }
+
+        return new Callback(com.kenai.jffi.ClosureManager.getInstance().newClosure(CallbackGenerator.generate(signature, target),
+                signature.getNativeCallContext()));
+    }
+
+    /**
+     * Creates a batch handle, which calls a native function once for each element of its argument arrays, with a
+     * single transition to native code for the whole batch.
+     *
+     * The handle has one {@code Object} parameter for each parameter of {@code signature}, then one for the result
+     * unless the result type is void, then an {@code int} count.  Each of those is either a primitive array of the
+     * java type of the parameter or result, or a direct buffer of the same element type, starting at its position.
+     * Heap arrays are copied to and from native memory once per batch; direct buffers are used in place.
+     * errno is not saved, so {@link Signature#SAVE_ERRNO} is not supported.
+     *
+     * @param signature the signature of the function, which may only have primitive parameter and result types.
+     * @param nativeAddress the address of the function.
+     * @param parallelThreshold if greater than zero, batches larger than this are split into chunks of this size,
+     * which are run in parallel on a fork/join pool.
+     * @return a new batch handle.
+     */
+    public static MethodHandle getBatchMethodHandle(final Signature signature, CodeAddress nativeAddress, final int parallelThreshold) {
+        if (!BatchMethodHandleGenerator.isSupported(signature)) {
+            throw new UnsupportedOperationException("cannot generate batch handle for " + signature);
+        }
+
+        return Library.link(new CodeAddress[] { nativeAddress }, new Library.HandleFactory() {
+            @Override
+            public MethodHandle create(CodeAddress[] functions) {
+                return BatchMethodHandleGenerator.createBoundHandle(signature, functions[0], parallelThreshold);
+            }
+        });
+    }
+
+    /**
+     * Creates a handle which makes a Linux system call directly, without going through libc.
+     *
+     * If {@code signature} has {@link Signature#SAVE_ERRNO}, a failed call returns -1 and saves errno, the same as
+     * the libc wrapper would.  Otherwise the handle returns the raw result of the system call, which is the negated
+     * errno on failure.  Only integer and pointer parameters are supported, up to six of them.
+     *
+     * @param number the system call number for the current architecture, e.g. 39 for getpid on x86_64.
+     * @param signature the signature of the system call.
+     * @return a new handle.
+     */
+    public static MethodHandle getSyscallHandle(long number, Signature signature) {
+        if (signature.isBlocking()) {
+            return BlockingCalls.wrap(getSyscallHandle(number, signature.withFlags(signature.getFlags() & ~Signature.BLOCKING)), signature);
+        }
+
+        if (!SyscallMethodHandleGenerator.isSupported(signature)) {
+            throw new UnsupportedOperationException("cannot generate syscall handle for " + signature);
+        }
+
+        return SyscallMethodHandleGenerator.createHandle(number, signature);
+    }
+
+    /**
+     * Creates a handle which makes all the calls in {@code chain}, from a single native stub.
+     *
+     * @param chain the chain of calls.
+     * @return a new handle, with the inputs of the chain as parameters.
+     */
+    public static MethodHandle getMethodHandle(final CallChain chain) {
+        if (!ChainMethodHandleGenerator.isSupported(chain)) {
+            throw new UnsupportedOperationException("cannot generate handle for call chain");
+        }
+
+        return Library.link(chain.getFunctions(), new Library.HandleFactory() {
+            @Override
+            public MethodHandle create(CodeAddress[] functions) {
+                return ChainMethodHandleGenerator.createHandle(chain.withFunctions(functions));
+            }
+        });
+    }
+
+    /**
+     * Creates a handle which calls a native function asynchronously on {@code executor}, and returns a
+     * {@link java.util.concurrent.CompletableFuture} for the result.
+     *
+     * errno and out-scalar values are saved on the thread which makes the call, where the caller cannot read them,
+     * so signatures with {@link Signature#SAVE_ERRNO} or out-scalar parameters are not supported.
+     *
+     * @param signature the signature of the function.
+     * @param nativeAddress the address of the function.
+     * @param executor the executor to make the call on.
+     * @return a new handle, which returns a future instead of the result of the function.
+     * @throws UnsupportedOperationException if the signature saves errno or has out-scalar parameters.
+     */
+    public static MethodHandle getAsyncMethodHandle(Signature signature, CodeAddress nativeAddress, Executor executor) {
+        if (signature.saveErrno() || signature.hasOutScalars()) {
+            throw new UnsupportedOperationException("cannot return errno or out-scalars from asynchronous call of " + signature);
+        }
+
+        return asAsync(getMethodHandle(signature, nativeAddress), executor);
+    }
+
+    /**
+     * Creates a handle which calls a native function asynchronously on the default native call executor.
+     *
+     * @param signature the signature of the function.
+     * @param nativeAddress the address of the function.
+     * @return a new handle, which returns a future instead of the result of the function.
+     * @see #getDefaultAsyncExecutor()
+     */
+    public static MethodHandle getAsyncMethodHandle(Signature signature, CodeAddress nativeAddress) {
+        return getAsyncMethodHandle(signature, nativeAddress, getDefaultAsyncExecutor());
+    }
+
+    /**
+     * Adapts any handle to be called asynchronously on {@code executor}.  The arguments are captured without
+     * boxing, and the future completes with the boxed result, null for a void handle, or the exception thrown.
+     * Per thread state the call leaves behind, such as a saved errno or out-scalar values, stays on the thread of
+     * {@code executor} which made the call, so {@code target} should not rely on it.
+     *
+     * @param target the handle to call.
+     * @param executor the executor to make the call on.
+     * @return a new handle, with the parameters of {@code target}, which returns a future.
+     */
+    public static MethodHandle asAsync(MethodHandle target, Executor executor) {
+        return AsyncMethodHandleGenerator.createHandle(target, executor);
+    }
+
+    /**
+     * Gets the default executor for asynchronous calls.  Its size is set by the {@code jnr.invoke.async.threads}
+     * and {@code jnr.invoke.async.queue} system properties.
+     *
+     * @return the default executor.
+     */
+    public static NativeCallExecutor getDefaultAsyncExecutor() {
+        return AsyncMethodHandleGenerator.DefaultExecutorHolder.EXECUTOR;
+    }
+
+    private static MethodHandle convertResult(MethodHandle mh, Signature signature) {
+        ResultType resultType = signature.getResultType();
+        MethodHandle converter = resultType.getResultConverter();
+        int index = resultType.getSizeParameterIndex();
+        if (index < 0) {
+            return MethodHandles.filterReturnValue(mh, converter);
+        }
+
+        if (index >= signature.getParameterCount()) {
+            throw new IllegalArgumentException("no parameter " + index + " for the size of the result of " + signature);
+        }
+
+        // The index counts out-scalar parameters, which have no java parameter, so map it to the out-scalar or the
+        // java parameter it refers to
+        int outIndex = 0, javaIndex = 0;
+        for (int i = 0; i < index; i++) {
+            outIndex += signature.getParameterType(i).isOutScalar() ? 1 : 0;
+            javaIndex += signature.getParameterType(i).isJavaParameter() ? 1 : 0;
+        }
+
+        if (signature.getParameterType(index).isOutScalar()) {
+            // The size was written by the native function, and saved in the out-scalars of the calling thread
+            return MethodHandles.filterReturnValue(mh, MethodHandles.collectArguments(converter, 1,
+                    ResultConverters.outScalarSize(outIndex)));
+        }
+
+        // Pass the parameter holding the size to the converter, along with the result
+        MethodType type = mh.type();
+        converter = MethodHandles.filterArguments(converter, 1, ResultConverters.sizeOf(type.parameterType(javaIndex)));
+        converter = MethodHandles.permuteArguments(converter, type.insertParameterTypes(0, type.returnType())
+                .changeReturnType(converter.type().returnType()), 0, javaIndex + 1);
+
+        return MethodHandles.foldArguments(converter, mh);
+    }
+
     private static MethodHandle getPrimitiveMethodHandle(Signature signature, CodeAddress nativeAddress) {
+        if (FfmMethodHandleGenerator.isSupported(signature)) {
+            return new FfmMethodHandleGenerator().createBoundHandle(signature, nativeAddress);
+        }
+
         MethodHandleGenerator[] generators = {
                 new PrimitiveX86MethodHandleGenerator(),
                 new PrimitiveNumericMethodHandleGenerator(),
                 new DirectCheckMethodHandleGenerator(),
+                new ScratchMethodHandleGenerator(),
                 new DefaultMethodHandleGenerator()
         };
 
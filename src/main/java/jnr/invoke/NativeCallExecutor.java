@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of daemon platform threads for asynchronous native calls, with queue metrics.
+ *
+ * Calls submitted while all threads are busy and the queue is full are rejected, which completes their future
+ * exceptionally with a {@link RejectedExecutionException}.
+ */
+public final class NativeCallExecutor extends ThreadPoolExecutor {
+    private static final AtomicInteger nextPoolID = new AtomicInteger(0);
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+    private final AtomicInteger peakQueueSize = new AtomicInteger(0);
+
+    /**
+     * Creates an executor.
+     *
+     * @param threadCount the maximum number of threads.
+     * @param queueSize the maximum number of calls waiting for a thread.
+     */
+    public NativeCallExecutor(int threadCount, int queueSize) {
+        super(threadCount, threadCount, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                newThreadFactory(), new RejectedExecutionHandler() {
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        ((NativeCallExecutor) executor).rejectedCount.incrementAndGet();
+                        throw new RejectedExecutionException("native call queue is full");
+                    }
+                });
+        allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final int poolID = nextPoolID.incrementAndGet();
+        return new ThreadFactory() {
+            private final AtomicInteger nextThreadID = new AtomicInteger(0);
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jnr-native-call-" + poolID + "-" + nextThreadID.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command);
+        int size = getQueue().size();
+        for (int peak = peakQueueSize.get(); size > peak && !peakQueueSize.compareAndSet(peak, size); peak = peakQueueSize.get()) {
+        }
+    }
+
+    /**
+     * Gets the number of calls waiting for a thread.
+     */
+    public int getQueueSize() {
+        return getQueue().size();
+    }
+
+    /**
+     * Gets the largest number of calls that have been waiting for a thread at once.
+     */
+    public int getPeakQueueSize() {
+        return peakQueueSize.get();
+    }
+
+    /**
+     * Gets the number of calls rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
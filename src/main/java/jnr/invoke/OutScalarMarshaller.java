@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+/**
+ * Allocates scratch memory for a native function to write a scalar value to, and stores the value in the
+ * {@link OutScalars} of the calling thread once the function returns.  The generated handle stores the java
+ * parameter of an in-out scalar into the scalar itself, with a primitive store, so the value is never boxed.
+ */
+final class OutScalarMarshaller extends ScratchMarshaller {
+    private final NativeType nativeType;
+    private final boolean in;
+    private final int index;
+
+    OutScalarMarshaller(NativeType nativeType, boolean in, int index) {
+        this.nativeType = nativeType;
+        this.in = in;
+        this.index = index;
+    }
+
+    NativeType getNativeType() {
+        return nativeType;
+    }
+
+    boolean isIn() {
+        return in;
+    }
+
+    /**
+     * Gets a marshaller which stores the value at {@code index} in {@link OutScalars}.
+     */
+    OutScalarMarshaller atIndex(int index) {
+        return index == this.index ? this : new OutScalarMarshaller(nativeType, in, index);
+    }
+
+    @Override
+    public long toNative(ScratchArena arena, Object parameter) {
+        long address = arena.allocate(8);
+        MemoryIO.getInstance().putLong(address, 0L);
+
+        return address;
+    }
+
+    @Override
+    public void fromNative(ScratchArena arena, Object parameter, long address) {
+        OutScalars.current().set(index, getValue(address));
+    }
+
+    private long getValue(long address) {
+        MemoryIO io = MemoryIO.getInstance();
+        switch (nativeType) {
+            case SCHAR:
+                return io.getByte(address);
+            case UCHAR:
+                return io.getByte(address) & 0xffL;
+            case SSHORT:
+                return io.getShort(address);
+            case USHORT:
+                return io.getShort(address) & 0xffffL;
+            case SINT:
+            case FLOAT:
+                return io.getInt(address);
+            case UINT:
+                return io.getInt(address) & 0xffffffffL;
+            case SLONG:
+                return nativeType.size() == 4 ? io.getInt(address) : io.getLong(address);
+            case ULONG:
+            case POINTER:
+                return nativeType.size() == 4 ? io.getInt(address) & 0xffffffffL : io.getLong(address);
+            case SLONG_LONG:
+            case ULONG_LONG:
+            case DOUBLE:
+                return io.getLong(address);
+            default:
+                throw new IllegalArgumentException("unsupported out parameter type " + nativeType);
+        }
+    }
+
+    @Override
+    boolean hasOutput() {
+        return true;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+/**
+ * Holds the values written by a native function to its out-scalar parameters.
+ *
+ * After a call to a function with {@link ParameterType#out(NativeType)} or {@link ParameterType#inOut(NativeType)}
+ * parameters, the values are available from {@link #current()}, indexed by the position of the parameter amongst the
+ * out-scalar parameters of the function.
+ * The values are overwritten by the next such call on the same thread.
+ */
+public final class OutScalars {
+    private static final ThreadLocal<OutScalars> HOLDERS = new ThreadLocal<OutScalars>() {
+        @Override
+        protected OutScalars initialValue() {
+            return new OutScalars();
+        }
+    };
+
+    private long[] values = new long[4];
+
+    private OutScalars() {
+    }
+
+    /**
+     * Gets the out-scalar values of the last call made on the current thread.
+     *
+     * @return the out-scalar holder for the current thread.
+     */
+    public static OutScalars current() {
+        return HOLDERS.get();
+    }
+
+    public int getInt(int index) {
+        return (int) values[index];
+    }
+
+    public long getLong(int index) {
+        return values[index];
+    }
+
+    public float getFloat(int index) {
+        return Float.intBitsToFloat((int) values[index]);
+    }
+
+    public double getDouble(int index) {
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    long[] save() {
+        return values.clone();
+    }
+
+    void restore(long[] values) {
+        this.values = values;
+    }
+
+    void set(int index, long value) {
+        if (index >= values.length) {
+            values = java.util.Arrays.copyOf(values, Math.max(values.length * 2, index + 1));
+        }
+        values[index] = value;
+    }
+}
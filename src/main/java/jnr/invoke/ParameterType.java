@@ -19,28 +19,38 @@
 package jnr.invoke;
 
 import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.Charset;
 
 public final class ParameterType extends SignatureType {
     private final DataDirection dataDirection;
     private final MethodHandle lookupObjectStrategy;
     private final MethodHandle directCheckHandle;
     private final MethodHandle directAddressHandle;
+    private final ArrayPinningPolicy pinningPolicy;
+    private final ScratchMarshaller scratchMarshaller;
+    private final MethodHandle addressHandle;
 
     private ParameterType(NativeType nativeType, Class javaType, DataDirection dataDirection) {
         this(nativeType, javaType, dataDirection, nativeType.jffiType());
     }
 
     private ParameterType(NativeType nativeType, Class javaType, DataDirection dataDirection, com.kenai.jffi.Type jffiType) {
-        this(nativeType, javaType, dataDirection, jffiType, null, null, null);
+        this(nativeType, javaType, dataDirection, jffiType, null, null, null, null, null, null);
     }
 
     private ParameterType(NativeType nativeType, Class javaType, DataDirection dataDirection, com.kenai.jffi.Type jffiType,
-                          MethodHandle lookupObjectStrategy, MethodHandle directCheckHandle, MethodHandle directAddressHandle) {
+                          MethodHandle lookupObjectStrategy, MethodHandle directCheckHandle, MethodHandle directAddressHandle,
+                          ArrayPinningPolicy pinningPolicy, ScratchMarshaller scratchMarshaller, MethodHandle addressHandle) {
         super(nativeType, javaType, jffiType);
         this.dataDirection = dataDirection;
         this.lookupObjectStrategy = lookupObjectStrategy;
         this.directCheckHandle = directCheckHandle;
         this.directAddressHandle = directAddressHandle;
+        this.pinningPolicy = pinningPolicy;
+        this.scratchMarshaller = scratchMarshaller;
+        this.addressHandle = addressHandle;
     }
 
 
@@ -49,25 +59,209 @@ public final class ParameterType extends SignatureType {
     }
 
     public static ParameterType array(Class javaType, DataDirection dataDirection) {
-        return object(javaType, dataDirection,
+        return array(javaType, dataDirection, null);
+    }
+
+    /**
+     * Creates a parameter type for a primitive array, where arrays at or above the size threshold of
+     * {@code pinningPolicy} are pinned instead of copied, if the function is a {@link Signature#LEAF} function.
+     *
+     * @param javaType the java array class.
+     * @param dataDirection the direction data is copied.
+     * @param pinningPolicy the policy deciding when to pin the array.
+     * @return a new parameter type.
+     */
+    public static ParameterType array(Class javaType, DataDirection dataDirection, ArrayPinningPolicy pinningPolicy) {
+        return new ParameterType(NativeType.POINTER, javaType, dataDirection, NativeType.POINTER.jffiType(),
                 PrimitiveArrayParameterStrategy.getStrategyLookupHandle(javaType),
                 PrimitiveArrayParameterStrategy.getDirectCheckHandle(javaType),
-                PrimitiveArrayParameterStrategy.getDirectAddressHandle(javaType));
+                PrimitiveArrayParameterStrategy.getDirectAddressHandle(javaType),
+                pinningPolicy, ArrayScratchMarshaller.forArrayType(javaType, dataDirection), null);
     }
 
     public static ParameterType buffer(Class<? extends java.nio.Buffer> bufferClass, DataDirection dataDirection) {
-        return object(bufferClass, dataDirection, BufferParameterStrategy.getStrategyHandle(bufferClass));
+        return object(bufferClass, dataDirection, BufferParameterStrategy.getStrategyHandle(bufferClass, dataDirection));
+    }
+
+    /**
+     * Creates a parameter type for a {@link String}, passed to native code as a NUL terminated string encoded
+     * using {@code charset}.
+     *
+     * @param charset the charset to encode the string in.
+     * @return a new parameter type.
+     */
+    public static ParameterType string(Charset charset) {
+        return new ParameterType(NativeType.POINTER, String.class, DataDirection.IN, NativeType.POINTER.jffiType(),
+                null, null, null, null, new StringScratchMarshaller(charset), null);
     }
 
     public static ParameterType object(Class javaType, DataDirection dataDirection, MethodHandle lookupObjectStrategy,
                                        MethodHandle directCheckHandle, MethodHandle directAddressHandle) {
         return new ParameterType(NativeType.POINTER, javaType, dataDirection, NativeType.POINTER.jffiType(),
-                lookupObjectStrategy, directCheckHandle, directAddressHandle);
+                lookupObjectStrategy, directCheckHandle, directAddressHandle, null, null, null);
     }
 
+    /**
+     * Creates a parameter type for an object converted by an {@link ObjectParameterStrategy}.
+     *
+     * The strategy is looked up once per call, and used to decide if the parameter is passed directly, or
+     * via a heap invocation.
+     *
+     * @param javaType the java class of the parameter.
+     * @param dataDirection the direction data is copied.
+     * @param lookupObjectStrategy a handle that returns the strategy for a parameter value.
+     * @return a new parameter type.
+     */
     public static ParameterType object(Class javaType, DataDirection dataDirection, MethodHandle lookupObjectStrategy) {
-        return object(javaType, dataDirection, lookupObjectStrategy, Util.getDirectCheckHandle(lookupObjectStrategy),
-                Util.getDirectAddressHandle(lookupObjectStrategy));
+        return object(javaType, dataDirection, lookupObjectStrategy, null, null);
+    }
+
+    /**
+     * Creates a parameter type for an {@link Addressable} object, which is passed to native code as its address.
+     *
+     * @param javaType the java class of the parameter.
+     * @param nullable if true, a null parameter is passed as a NULL pointer, otherwise it throws a NullPointerException.
+     * @return a new parameter type.
+     */
+    public static ParameterType address(Class<? extends Addressable> javaType, boolean nullable) {
+        return address(javaType, Util.findVirtual(Addressable.class, "address", MethodType.methodType(long.class)), nullable);
+    }
+
+    /**
+     * Creates a parameter type for an object which refers to native memory, and is passed to native code as the
+     * address returned by {@code addressHandle}.
+     *
+     * Since the address is always native, the parameter is converted before calling a primitive stub, without
+     * any check for heap memory.
+     *
+     * @param javaType the java class of the parameter.
+     * @param addressHandle a handle which gets the native address of the parameter.
+     * @param nullable if true, a null parameter is passed as a NULL pointer without calling {@code addressHandle}.
+     * @return a new parameter type.
+     */
+    public static ParameterType address(Class javaType, MethodHandle addressHandle, boolean nullable) {
+        MethodHandle handle = addressHandle.asType(MethodType.methodType(long.class, javaType));
+        if (nullable) {
+            handle = MethodHandles.guardWithTest(Util.getIsNullHandle().asType(MethodType.methodType(boolean.class, javaType)),
+                    MethodHandles.dropArguments(MethodHandles.constant(long.class, 0L), 0, javaType),
+                    handle);
+        }
+
+        return new ParameterType(NativeType.POINTER, javaType, DataDirection.INOUT, NativeType.POINTER.jffiType(),
+                null, null, null, null, null, handle);
+    }
+
+    /**
+     * Creates a parameter type for a {@link String} array, passed to native code as a NULL terminated array of
+     * pointers to NUL terminated strings encoded using {@code charset} (i.e. a {@code char **}).
+     *
+     * The pointer array and all the strings are copied into a single block of memory, which is valid for the
+     * duration of the call.  A null element is passed as a NULL pointer.
+     *
+     * @param charset the charset to encode the strings in.
+     * @return a new parameter type.
+     */
+    public static ParameterType stringArray(Charset charset) {
+        return new ParameterType(NativeType.POINTER, String[].class, DataDirection.IN, NativeType.POINTER.jffiType(),
+                null, null, null, null, StringArrayScratchMarshaller.strings(new StringScratchMarshaller(charset)), null);
+    }
+
+    /**
+     * Creates a parameter type for an array of already encoded strings, passed to native code as a NULL terminated
+     * array of pointers to NUL terminated strings (i.e. a {@code char **}).
+     *
+     * @return a new parameter type.
+     * @see #stringArray(Charset)
+     */
+    public static ParameterType byteStringArray() {
+        return new ParameterType(NativeType.POINTER, byte[][].class, DataDirection.IN, NativeType.POINTER.jffiType(),
+                null, null, null, null, StringArrayScratchMarshaller.byteStrings(), null);
+    }
+
+    /**
+     * Creates an out-scalar parameter type, for a pointer to a scalar value written by the native function.
+     *
+     * The parameter does not appear in the java method type.  Its memory is allocated for the duration of the call,
+     * and the value written to it is available from {@link OutScalars#current()} once the call returns.
+     *
+     * @param nativeType the type of the value written by the native function.
+     * @return a new parameter type.
+     */
+    public static ParameterType out(NativeType nativeType) {
+        return outScalar(nativeType, DataDirection.OUT);
+    }
+
+    /**
+     * Creates an in-out scalar parameter type, for a pointer to a scalar value which is read and then written by
+     * the native function, such as the {@code socklen_t *optlen} parameter of {@code getsockopt}.
+     *
+     * Unlike {@link #out(NativeType)}, the parameter appears in the java method type, as an {@code int}, {@code long},
+     * {@code float} or {@code double}, and its value is written to the scalar before the call.  The value written by
+     * the native function is available from {@link OutScalars#current()}, indexed amongst the out-scalar and in-out
+     * scalar parameters of the function.
+     *
+     * @param nativeType the type of the value.
+     * @return a new parameter type.
+     */
+    public static ParameterType inOut(NativeType nativeType) {
+        return outScalar(nativeType, DataDirection.INOUT);
+    }
+
+    private static ParameterType outScalar(NativeType nativeType, DataDirection dataDirection) {
+        if (nativeType == NativeType.VOID) {
+            throw new IllegalArgumentException("invalid out parameter type " + nativeType);
+        }
+
+        Class javaType = nativeType == NativeType.FLOAT ? float.class
+                : nativeType == NativeType.DOUBLE ? double.class
+                : nativeType.size() == 8 ? long.class : int.class;
+
+        return new ParameterType(NativeType.POINTER, javaType, dataDirection, NativeType.POINTER.jffiType(),
+                null, null, null, null, new OutScalarMarshaller(nativeType, dataDirection == DataDirection.INOUT, 0), null);
+    }
+
+    /**
+     * Creates a parameter type for a struct accessor created by {@code structType}, which is passed to native code
+     * as a pointer to the struct.
+     *
+     * @param structType the struct type.
+     * @param nullable if true, a null parameter is passed as a NULL pointer.
+     * @return a new parameter type.
+     */
+    public static ParameterType struct(StructType<?> structType, boolean nullable) {
+        return address(structType.structInterface(),
+                Util.findVirtual(Flyweight.class, "address", MethodType.methodType(long.class)), nullable);
+    }
+
+    /**
+     * Creates a parameter type for an array of objects, passed to native code as a pointer to a contiguous array
+     * of structs packed by {@code packer}.
+     *
+     * The struct array is valid for the duration of the call.  If {@code dataDirection} is {@link DataDirection#OUT}
+     * or {@link DataDirection#INOUT}, the structs are unpacked back into the objects when the call returns.
+     *
+     * @param packer the packer which copies the objects to and from native structs.
+     * @param dataDirection the direction data is copied.
+     * @return a new parameter type.
+     */
+    public static ParameterType structArray(StructPacker<?> packer, DataDirection dataDirection) {
+        return new ParameterType(NativeType.POINTER, java.lang.reflect.Array.newInstance(packer.elementClass(), 0).getClass(),
+                dataDirection, NativeType.POINTER.jffiType(), null, null, null, null,
+                new StructArrayScratchMarshaller(packer, dataDirection), null);
+    }
+
+    /**
+     * Creates a parameter type for a {@link java.util.List} of objects, passed to native code as a pointer to a
+     * contiguous array of structs packed by {@code packer}.
+     *
+     * @param packer the packer which copies the objects to and from native structs.
+     * @param dataDirection the direction data is copied.
+     * @return a new parameter type.
+     * @see #structArray(StructPacker, DataDirection)
+     */
+    public static ParameterType structList(StructPacker<?> packer, DataDirection dataDirection) {
+        return new ParameterType(NativeType.POINTER, java.util.List.class, dataDirection, NativeType.POINTER.jffiType(),
+                null, null, null, null, new StructArrayScratchMarshaller(packer, dataDirection), null);
     }
 
     DataDirection getDataDirection() {
@@ -90,7 +284,30 @@ public final class ParameterType extends SignatureType {
         return directAddressHandle;
     }
 
+    ArrayPinningPolicy getPinningPolicy() {
+        return pinningPolicy;
+    }
+
+    ScratchMarshaller getScratchMarshaller() {
+        return scratchMarshaller;
+    }
+
+    MethodHandle getAddressHandle() {
+        return addressHandle;
+    }
+
+    boolean isOutScalar() {
+        return scratchMarshaller instanceof OutScalarMarshaller;
+    }
+
+    /**
+     * Tests if this parameter appears in the java method type, which all parameters except out-scalars do.
+     */
+    boolean isJavaParameter() {
+        return !isOutScalar() || ((OutScalarMarshaller) scratchMarshaller).isIn();
+    }
+
     ParameterType asPrimitiveType() {
-        return lookupObjectStrategy != null ? ParameterType.primitive(NativeType.POINTER, long.class) : this;
+        return lookupObjectStrategy != null || scratchMarshaller != null || addressHandle != null ? ParameterType.primitive(NativeType.POINTER, long.class) : this;
     }
 }
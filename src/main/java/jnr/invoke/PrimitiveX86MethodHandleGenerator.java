@@ -55,6 +55,25 @@ final class PrimitiveX86MethodHandleGenerator implements MethodHandleGenerator {
 
     @Override
     public MethodHandle createBoundHandle(Signature signature, CodeAddress nativeAddress) {
+        return createHandle(signature, nativeAddress, nativeAddress.address(), false);
+    }
+
+    /**
+     * Tests if a handle which calls through a {@link FunctionSlot} can be created for a signature.
+     */
+    boolean isIndirectSupported(Signature signature) {
+        return compiler.canCompileIndirect()
+                && isSupported(signature.getResultType(), signature.parameterTypeList(), signature.getCallingConvention());
+    }
+
+    /**
+     * Creates a handle which calls the function whose address is in {@code slot} when the handle is called.
+     */
+    MethodHandle createIndirectHandle(Signature signature, FunctionSlot slot) {
+        return createHandle(signature, slot, slot.slotAddress(), true);
+    }
+
+    private MethodHandle createHandle(Signature signature, Object target, long address, boolean indirect) {
         AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
         ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         ClassVisitor cv = Native.DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
@@ -64,10 +83,10 @@ final class PrimitiveX86MethodHandleGenerator implements MethodHandleGenerator {
 
         cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(java.lang.Object.class), new String[0]);
 
-        compile(signature, builder, nativeAddress.address(), STUB_NAME, resultType, signature.parameterTypeArray());
+        compile(signature, builder, address, indirect, STUB_NAME, resultType, signature.parameterTypeArray());
 
-        // Stash a strong ref to the library, so it doesn't get garbage collected.
-        builder.getObjectField(nativeAddress);
+        // Stash a strong ref to the library or slot, so it doesn't get garbage collected.
+        builder.getObjectField(target);
 
         emitDefaultConstructor(cv);
         emitStaticFieldInitialization(builder, cv);
@@ -90,15 +109,21 @@ final class PrimitiveX86MethodHandleGenerator implements MethodHandleGenerator {
         }
     }
 
-    private void compile(Signature signature, AsmBuilder builder, long function, String stubName, ResultType resultType, ParameterType[] parameterTypes) {
+    private void compile(Signature signature, AsmBuilder builder, long function, boolean indirect, String stubName,
+                         ResultType resultType, ParameterType[] parameterTypes) {
         Class[] nativeParameterTypes = javaTypeArray(parameterTypes);
         Class nativeReturnType = resultType.javaType();
 
         builder.getClassVisitor().visitMethod(ACC_PUBLIC | ACC_FINAL | ACC_NATIVE | ACC_STATIC,
                 stubName, sig(nativeReturnType, nativeParameterTypes), null, null).visitEnd();
 
-        compiler.compile(function, stubName, resultType, parameterTypes, nativeReturnType, nativeParameterTypes,
-                signature.getCallingConvention(), signature.saveErrno());
+        if (indirect) {
+            compiler.compileIndirect(function, stubName, resultType, parameterTypes, nativeReturnType, nativeParameterTypes,
+                    signature.saveErrno());
+        } else {
+            compiler.compile(function, stubName, resultType, parameterTypes, nativeReturnType, nativeParameterTypes,
+                    signature.getCallingConvention(), signature.saveErrno());
+        }
     }
 
     private static boolean isSupportedType(SignatureType type) {
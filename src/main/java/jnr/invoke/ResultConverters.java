@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Conversions from native pointer results to java objects.
+ */
+final class ResultConverters {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private ResultConverters() {
+    }
+
+    static MethodHandle string(Charset charset) {
+        return MethodHandles.insertArguments(Util.findStatic(ResultConverters.class, "decodeString",
+                MethodType.methodType(String.class, long.class, Charset.class)), 1, charset);
+    }
+
+    static MethodHandle charSequence(Charset charset) {
+        return MethodHandles.insertArguments(Util.findStatic(ResultConverters.class, "lazyString",
+                MethodType.methodType(CharSequence.class, long.class, Charset.class)), 1, charset);
+    }
+
+    static MethodHandle buffer() {
+        return Util.findStatic(ResultConverters.class, "buffer", MethodType.methodType(ByteBuffer.class, long.class, long.class));
+    }
+
+    static MethodHandle buffer(long size) {
+        return MethodHandles.insertArguments(buffer(), 1, size);
+    }
+
+    /**
+     * Gets a handle which converts a parameter into the size of a buffer.  Scalar parameters are used as the size,
+     * and for int[] or long[] parameters (e.g. size_t* out parameters), the first element is used.
+     */
+    static MethodHandle sizeOf(Class parameterClass) {
+        if (int.class == parameterClass || long.class == parameterClass || int[].class == parameterClass || long[].class == parameterClass) {
+            return Util.findStatic(ResultConverters.class, "sizeOf", MethodType.methodType(long.class, parameterClass));
+        }
+
+        throw new IllegalArgumentException("cannot determine buffer size from parameter of type " + parameterClass);
+    }
+
+    /**
+     * Gets a handle which reads the size of a buffer from the out-scalar at {@code index}, e.g. a {@code size_t *}
+     * parameter created with {@link ParameterType#out(NativeType)}.
+     */
+    static MethodHandle outScalarSize(int index) {
+        return MethodHandles.insertArguments(Util.findStatic(ResultConverters.class, "getOutScalar",
+                MethodType.methodType(long.class, int.class)), 0, index);
+    }
+
+    static String decodeString(long address, Charset charset) {
+        if (address == 0L) {
+            return null;
+        }
+
+        // Find the terminating NUL, and check if the string is pure ASCII in the same pass
+        MemoryIO io = MemoryIO.getInstance();
+        int length = 0, bits = 0;
+        byte b;
+        while ((b = io.getByte(address + length)) != 0) {
+            bits |= b;
+            length++;
+        }
+
+        byte[] bytes = new byte[length];
+        UnsafeMemoryIO.getArray(address, bytes, 0, length);
+
+        return bits >= 0 && isAsciiCompatible(charset) ? new String(bytes, ISO_8859_1) : new String(bytes, charset);
+    }
+
+    static CharSequence lazyString(long address, Charset charset) {
+        return address != 0L ? new NativeCharSequence(address, charset) : null;
+    }
+
+    static ByteBuffer buffer(long address, long size) {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid buffer size " + size);
+        }
+
+        return address != 0L ? MemoryIO.getInstance().newDirectByteBuffer(address, (int) size) : null;
+    }
+
+    static long sizeOf(int size) {
+        return size;
+    }
+
+    static long sizeOf(long size) {
+        return size;
+    }
+
+    static long sizeOf(int[] size) {
+        return size[0];
+    }
+
+    static long sizeOf(long[] size) {
+        return size[0];
+    }
+
+    static long getOutScalar(int index) {
+        return OutScalars.current().getLong(index);
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        String name = charset.name();
+        return "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+    }
+
+    /**
+     * A native string which is only decoded when its contents are first accessed.
+     */
+    private static final class NativeCharSequence implements CharSequence {
+        private final long address;
+        private final Charset charset;
+        private String value;
+
+        NativeCharSequence(long address, Charset charset) {
+            this.address = address;
+            this.charset = charset;
+        }
+
+        private String value() {
+            return value != null ? value : (value = decodeString(address, charset));
+        }
+
+        public int length() {
+            return value().length();
+        }
+
+        public char charAt(int index) {
+            return value().charAt(index);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return value().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return value();
+        }
+    }
+}
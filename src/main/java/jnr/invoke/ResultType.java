@@ -19,8 +19,12 @@
 package jnr.invoke;
 
 import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public class ResultType extends SignatureType {
+    private final MethodHandle resultConverter;
+    private final int sizeParameterIndex;
 
     public static ResultType primitive(NativeType nativeType, Class javaType) {
         return new ResultType(nativeType, javaType, nativeType.jffiType());
@@ -31,11 +35,80 @@ public class ResultType extends SignatureType {
     }
 
 
+    /**
+     * Creates a result type for a native function returning a NUL terminated string, which is decoded using
+     * {@code charset}.  A NULL pointer is returned as null.
+     *
+     * @param charset the charset the native string is encoded in.
+     * @return a new result type.
+     */
+    public static ResultType string(Charset charset) {
+        return new ResultType(NativeType.POINTER, String.class, NativeType.POINTER.jffiType(),
+                ResultConverters.string(charset), -1);
+    }
+
+    /**
+     * Creates a result type for a native function returning a NUL terminated string, which is only decoded using
+     * {@code charset} when it is first accessed.  The native memory must remain valid until then.
+     *
+     * @param charset the charset the native string is encoded in.
+     * @return a new result type.
+     */
+    public static ResultType charSequence(Charset charset) {
+        return new ResultType(NativeType.POINTER, CharSequence.class, NativeType.POINTER.jffiType(),
+                ResultConverters.charSequence(charset), -1);
+    }
+
+    /**
+     * Creates a result type for a native function returning a pointer to {@code size} bytes of memory, which is
+     * returned as a direct {@link ByteBuffer} over that memory, without copying it.
+     *
+     * @param size the size of the memory returned.
+     * @return a new result type.
+     */
+    public static ResultType buffer(long size) {
+        return new ResultType(NativeType.POINTER, ByteBuffer.class, NativeType.POINTER.jffiType(),
+                ResultConverters.buffer(size), -1);
+    }
+
+    /**
+     * Creates a result type for a native function returning a pointer to memory, which is returned as a direct
+     * {@link ByteBuffer} over that memory, without copying it.
+     *
+     * The size of the memory is taken from the parameter at {@code parameterIndex}, after the native function
+     * returns.  This can be an int or long parameter, an int[] or long[] out parameter, in which case its first
+     * element is used, or an out-scalar or in-out scalar parameter, such as the {@code size_t *len} of
+     * {@code void *f(..., size_t *len)}, in which case the value written by the native function is used.
+     *
+     * @param parameterIndex the index of the parameter containing the size of the memory, amongst the parameters of
+     * the {@link Signature}.  This counts out-scalar parameters, although they do not appear in the java method type.
+     * @return a new result type.
+     */
+    public static ResultType bufferSizedBy(int parameterIndex) {
+        return new ResultType(NativeType.POINTER, ByteBuffer.class, NativeType.POINTER.jffiType(),
+                ResultConverters.buffer(), parameterIndex);
+    }
+
     ResultType(NativeType nativeType, Class javaType, com.kenai.jffi.Type jffiType) {
+        this(nativeType, javaType, jffiType, null, -1);
+    }
+
+    private ResultType(NativeType nativeType, Class javaType, com.kenai.jffi.Type jffiType, MethodHandle resultConverter,
+                       int sizeParameterIndex) {
         super(nativeType, javaType, jffiType);
+        this.resultConverter = resultConverter;
+        this.sizeParameterIndex = sizeParameterIndex;
+    }
+
+    MethodHandle getResultConverter() {
+        return resultConverter;
+    }
+
+    int getSizeParameterIndex() {
+        return sizeParameterIndex;
     }
 
     ResultType asPrimitiveType() {
-        return this;
+        return resultConverter != null ? ResultType.primitive(NativeType.POINTER, long.class) : this;
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A per-thread, bump allocated region of native memory used to marshal parameters for the duration of a
+ * single native call.
+ *
+ * Generated code calls {@link #mark()} before marshalling any parameters, and {@link #reset(long)} once the
+ * native call has returned, which releases everything allocated in between.  Allocations that do not fit
+ * in the remaining space of the arena are satisfied with a separate native allocation, which is freed on reset.
+ *
+ * Platform threads keep their native memory for the lifetime of the thread.  Virtual threads return it to a
+ * shared pool once their outermost call completes, so the native memory in use is bounded by the number of
+ * threads concurrently in a native call, rather than the number of threads.
+ */
+public final class ScratchArena {
+    private static final long CHUNK_SIZE = Math.max(Integer.getInteger("jnr.invoke.scratch.size", 16384), 256);
+    private static final int MAX_POOLED_CHUNKS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final long ALIGN = 16;
+
+    private static final Queue<Chunk> POOL = new ConcurrentLinkedQueue<Chunk>();
+    private static final AtomicInteger POOL_SIZE = new AtomicInteger();
+
+    private static final ThreadLocal<ScratchArena> ARENAS = new ThreadLocal<ScratchArena>() {
+        @Override
+        protected ScratchArena initialValue() {
+            return new ScratchArena(Util.isVirtual(Thread.currentThread()));
+        }
+    };
+
+    private final boolean pooled;
+    private Chunk chunk;
+    private long offset;
+    private long[] overflow = new long[0];
+    private int overflowCount;
+
+    private ScratchArena(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Gets the scratch arena for the current thread.
+     *
+     * @return the scratch arena for the current thread.
+     */
+    public static ScratchArena current() {
+        return ARENAS.get();
+    }
+
+    /**
+     * Records the current allocation position, so it can later be restored with {@link #reset(long)}.
+     *
+     * @return an opaque marker for the current allocation position.
+     */
+    public long mark() {
+        return ((long) overflowCount << 32) | offset;
+    }
+
+    /**
+     * Releases all memory allocated since {@code mark} was obtained.
+     *
+     * @param mark a marker returned by {@link #mark()}
+     */
+    public void reset(long mark) {
+        int count = (int) (mark >>> 32);
+        while (overflowCount > count) {
+            MemoryIO.getInstance().freeMemory(overflow[--overflowCount]);
+        }
+
+        offset = mark & 0xffffffffL;
+        if (offset == 0 && pooled && chunk != null) {
+            release(chunk);
+            chunk = null;
+        }
+    }
+
+    /**
+     * Allocates native memory that is valid until the arena is reset to a mark obtained before this allocation.
+     *
+     * @param size the number of bytes to allocate.
+     * @return the address of the allocated memory, aligned to 16 bytes.
+     */
+    public long allocate(long size) {
+        long alignedSize = (size + ALIGN - 1) & ~(ALIGN - 1);
+        if (chunk == null) {
+            chunk = acquire();
+        }
+
+        if (alignedSize <= chunk.size - offset) {
+            long address = chunk.address + offset;
+            offset += alignedSize;
+            return address;
+        }
+
+        return allocateOverflow(size);
+    }
+
+    private long allocateOverflow(long size) {
+        long address = MemoryIO.getInstance().allocateMemory(Math.max(size, 1), false);
+        if (address == 0L) {
+            throw new OutOfMemoryError("failed to allocate " + size + " bytes of native memory");
+        }
+
+        if (overflowCount == overflow.length) {
+            overflow = Arrays.copyOf(overflow, Math.max(overflow.length * 2, 4));
+        }
+        overflow[overflowCount++] = address;
+
+        return address;
+    }
+
+    private static Chunk acquire() {
+        Chunk chunk = POOL.poll();
+        if (chunk != null) {
+            POOL_SIZE.decrementAndGet();
+            return chunk;
+        }
+
+        long address = MemoryIO.getInstance().allocateMemory(CHUNK_SIZE, false);
+        if (address == 0L) {
+            throw new OutOfMemoryError("failed to allocate scratch arena");
+        }
+
+        return new Chunk(address, CHUNK_SIZE);
+    }
+
+    private static void release(Chunk chunk) {
+        // Chunks that do not fit in the pool are freed when they are garbage collected
+        if (POOL_SIZE.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+            POOL.offer(chunk);
+        } else {
+            POOL_SIZE.decrementAndGet();
+        }
+    }
+
+    private static final class Chunk {
+        final long address;
+        final long size;
+
+        Chunk(long address, long size) {
+            this.address = address;
+            this.size = size;
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                MemoryIO.getInstance().freeMemory(address);
+            } catch (Throwable t) {
+                Logger.getLogger(getClass().getName()).log(Level.WARNING,
+                    "Exception when freeing scratch arena: %s", t.getLocalizedMessage());
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
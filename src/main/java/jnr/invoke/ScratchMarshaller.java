@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+/**
+ * Converts a java parameter into native memory allocated from a {@link ScratchArena}.
+ */
+public abstract class ScratchMarshaller {
+    /**
+     * Copies {@code parameter} into native memory.
+     *
+     * @param arena the arena to allocate the native memory from.
+     * @param parameter the java parameter.
+     * @return the address of the native memory to pass to the native function.
+     */
+    public abstract long toNative(ScratchArena arena, Object parameter);
+
+    /**
+     * Copies any native data back into {@code parameter} after the native function has returned.
+     *
+     * @param arena the arena the native memory was allocated from.
+     * @param parameter the java parameter.
+     * @param address the address returned from {@link #toNative(ScratchArena, Object)}.
+     */
+    public void fromNative(ScratchArena arena, Object parameter, long address) {
+    }
+
+    boolean hasOutput() {
+        return false;
+    }
+}
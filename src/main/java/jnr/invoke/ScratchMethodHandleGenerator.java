@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.Collection;
+
+import static jnr.invoke.AsmUtil.*;
+import static jnr.invoke.CodegenUtils.*;
+import static jnr.invoke.Native.*;
+import static jnr.invoke.Util.asPrimitiveTypes;
+import static jnr.invoke.Util.javaParameterTypes;
+import static jnr.invoke.Util.javaTypeArray;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates handles that copy heap parameters into a per-thread {@link ScratchArena}, and then call the
+ * native function via a primitive stub, instead of going through a jffi HeapInvocationBuffer.
+ */
+final class ScratchMethodHandleGenerator implements MethodHandleGenerator {
+    static final boolean ENABLED = Util.getBooleanProperty("jnr.invoke.scratch.enabled", true);
+
+    private final MethodHandleGenerator[] primitiveGenerators = {
+            new PrimitiveX86MethodHandleGenerator(),
+            new PrimitiveNumericMethodHandleGenerator()
+    };
+
+    @Override
+    public MethodHandle createBoundHandle(Signature signature, CodeAddress nativeAddress) {
+        Signature primitiveContext = signature.asPrimitiveContext();
+        for (MethodHandleGenerator g : primitiveGenerators) {
+            if (g.isSupported(primitiveContext.getResultType(), primitiveContext.parameterTypeList(), primitiveContext.getCallingConvention())) {
+                return createBoundHandle(signature, g.createBoundHandle(primitiveContext, nativeAddress));
+            }
+        }
+
+        throw new RuntimeException("internal error");
+    }
+
+    @Override
+    public boolean isSupported(ResultType resultType, Collection<ParameterType> parameterTypes, CallingConvention callingConvention) {
+        if (!ENABLED || !resultType.javaType().isPrimitive()) {
+            return false;
+        }
+
+        for (ParameterType parameterType : parameterTypes) {
+            if (!parameterType.javaType().isPrimitive() && parameterType.getScratchMarshaller() == null && !parameterType.isObject()) {
+                return false;
+            }
+        }
+
+        Collection<ParameterType> primitiveParameterTypes = asPrimitiveTypes(parameterTypes);
+        for (MethodHandleGenerator g : primitiveGenerators) {
+            if (g.isSupported(resultType, primitiveParameterTypes, callingConvention)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Creates a handle that marshals parameters into scratch memory, then invokes {@code primitiveHandle}.
+     */
+    MethodHandle createBoundHandle(Signature signature, MethodHandle primitiveHandle) {
+        AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$jnr$scratch$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(java.lang.Object.class), new String[0]);
+
+        MethodType methodType = signature.methodType();
+        generate(builder, STUB_NAME, signature.parameterTypeArray(),
+                primitiveHandle.asType(primitiveHandle.type().changeReturnType(methodType.returnType())));
+
+        emitDefaultConstructor(cv);
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            return LOOKUP.findStatic(implClass, STUB_NAME, methodType);
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void generate(final AsmBuilder builder, String functionName, final ParameterType[] parameterTypes,
+                                 final MethodHandle primitiveHandle) {
+        final Class resultClass = primitiveHandle.type().returnType();
+        ParameterType[] javaParameterTypes = javaParameterTypes(parameterTypes);
+        final SkinnyMethodAdapter mv = new SkinnyMethodAdapter(builder.getClassVisitor(), ACC_PUBLIC | ACC_FINAL | ACC_STATIC,
+                functionName, sig(resultClass, javaTypeArray(javaParameterTypes)), null, null);
+        mv.start();
+
+        LocalVariableAllocator localVariableAllocator = new LocalVariableAllocator(javaParameterTypes);
+        LocalVariable[] javaParameters = AsmUtil.getParameterVariables(javaParameterTypes, true);
+
+        // Out-scalar parameters have no java parameter, and store their values by their position amongst themselves
+        final LocalVariable[] parameters = new LocalVariable[parameterTypes.length];
+        final ScratchMarshaller[] marshallers = new ScratchMarshaller[parameterTypes.length];
+        for (int i = 0, javaIndex = 0, outIndex = 0; i < parameterTypes.length; i++) {
+            marshallers[i] = scratchMarshaller(parameterTypes[i]);
+            if (parameterTypes[i].isOutScalar()) {
+                marshallers[i] = ((OutScalarMarshaller) marshallers[i]).atIndex(outIndex++);
+            }
+            if (parameterTypes[i].isJavaParameter()) {
+                parameters[i] = javaParameters[javaIndex++];
+            }
+        }
+        final LocalVariable arena = localVariableAllocator.allocate(ScratchArena.class);
+        final LocalVariable mark = localVariableAllocator.allocate(long.class);
+        final LocalVariable result = resultClass != void.class ? localVariableAllocator.allocate(resultClass) : null;
+        final LocalVariable[] addresses = new LocalVariable[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (marshallers[i] != null && marshallers[i].hasOutput()) {
+                addresses[i] = localVariableAllocator.allocate(long.class);
+            }
+        }
+
+        mv.invokestatic(ScratchArena.class, "current", ScratchArena.class);
+        mv.dup();
+        mv.astore(arena);
+        mv.invokevirtual(ScratchArena.class, "mark", long.class);
+        mv.lstore(mark);
+
+        tryfinally(mv, new Runnable() {
+            public void run() {
+                mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(primitiveHandle, MethodHandle.class), ci(MethodHandle.class));
+
+                for (int i = 0; i < parameterTypes.length; i++) {
+                    if (parameterTypes[i].isOutScalar() && parameters[i] != null) {
+                        putInOutScalar(mv, builder, (OutScalarMarshaller) marshallers[i], arena, parameters[i], addresses[i]);
+
+                    } else if (marshallers[i] != null) {
+                        mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(marshallers[i], ScratchMarshaller.class), ci(ScratchMarshaller.class));
+                        mv.aload(arena);
+                        loadParameter(mv, parameterTypes[i], parameters[i]);
+                        mv.invokevirtual(ScratchMarshaller.class, "toNative", long.class, ScratchArena.class, Object.class);
+                        if (addresses[i] != null) {
+                            mv.dup2();
+                            mv.lstore(addresses[i]);
+                        }
+
+                    } else {
+                        load(mv, parameterTypes[i].javaType(), parameters[i]);
+                    }
+                }
+
+                mv.invokevirtual(MethodHandle.class, "invokeExact", resultClass, primitiveHandle.type().parameterArray());
+                if (result != null) {
+                    store(mv, resultClass, result);
+                }
+
+                // Copy any output parameters back to the java heap
+                for (int i = 0; i < parameterTypes.length; i++) {
+                    if (addresses[i] != null) {
+                        mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(marshallers[i], ScratchMarshaller.class), ci(ScratchMarshaller.class));
+                        mv.aload(arena);
+                        loadParameter(mv, parameterTypes[i], parameterTypes[i].isOutScalar() ? null : parameters[i]);
+                        mv.lload(addresses[i]);
+                        mv.invokevirtual(ScratchMarshaller.class, "fromNative", void.class, ScratchArena.class, Object.class, long.class);
+                    }
+                }
+            }
+        }, new Runnable() {
+            public void run() {
+                mv.aload(arena);
+                mv.lload(mark);
+                mv.invokevirtual(ScratchArena.class, "reset", void.class, long.class);
+            }
+        });
+
+        if (result != null) {
+            load(mv, resultClass, result);
+        }
+        emitReturnOp(mv, resultClass);
+
+        mv.visitMaxs(100, localVariableAllocator.getSpaceUsed());
+        mv.visitEnd();
+    }
+
+    /**
+     * Gets the marshaller for a parameter.  Object parameters without their own scratch marshaller, such as
+     * buffers, are marshalled via their strategy, so they can be mixed with strings and out-scalar parameters.
+     */
+    private static ScratchMarshaller scratchMarshaller(ParameterType parameterType) {
+        ScratchMarshaller marshaller = parameterType.getScratchMarshaller();
+        return marshaller == null && parameterType.isObject() ? new StrategyScratchMarshaller(parameterType) : marshaller;
+    }
+
+    /**
+     * Allocates the scalar of an in-out parameter, and stores the java parameter in it with a primitive store, so
+     * the value is not boxed.  Leaves the address of the scalar on the stack.
+     */
+    private static void putInOutScalar(SkinnyMethodAdapter mv, AsmBuilder builder, OutScalarMarshaller marshaller,
+                                       LocalVariable arena, LocalVariable parameter, LocalVariable address) {
+        mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(marshaller, ScratchMarshaller.class), ci(ScratchMarshaller.class));
+        mv.aload(arena);
+        mv.aconst_null();
+        mv.invokevirtual(ScratchMarshaller.class, "toNative", long.class, ScratchArena.class, Object.class);
+        mv.dup2();
+        mv.lstore(address);
+
+        NativeType nativeType = marshaller.getNativeType();
+        Class storeType = nativeType == NativeType.FLOAT ? float.class
+                : nativeType == NativeType.DOUBLE ? double.class
+                : nativeType.size() == 1 ? byte.class
+                : nativeType.size() == 2 ? short.class
+                : nativeType.size() == 4 ? int.class : long.class;
+        String putMethod = "put" + Character.toUpperCase(storeType.getName().charAt(0)) + storeType.getName().substring(1);
+
+        mv.invokestatic(MemoryIO.class, "getInstance", MemoryIO.class);
+        mv.lload(address);
+        load(mv, parameter.type, parameter);
+        NumberUtil.convertPrimitive(mv, parameter.type, storeType);
+        mv.invokevirtual(MemoryIO.class, putMethod, void.class, long.class, storeType);
+    }
+
+    private static void loadParameter(SkinnyMethodAdapter mv, ParameterType parameterType, LocalVariable parameter) {
+        if (parameter != null) {
+            load(mv, parameterType.javaType(), parameter);
+        } else {
+            mv.aconst_null();
+        }
+    }
+}
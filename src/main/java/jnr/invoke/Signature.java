@@ -38,6 +38,7 @@ import java.util.Collections;
 import java.util.List;
 
 import static jnr.invoke.Util.asPrimitiveTypes;
+import static jnr.invoke.Util.javaParameterTypes;
 import static jnr.invoke.Util.javaTypeArray;
 
 /**
@@ -52,8 +53,26 @@ public final class Signature {
     public static final int CDECL         = 0x2;
     public static final int STDCALL       = 0x4;
     public static final int FAULT_PROTECT = 0x8;
+
+    /**
+     * The function is short running, never blocks and never calls back into java.  This allows
+     * large heap arrays to be pinned for the duration of the call, instead of copied.
+     */
+    public static final int LEAF          = 0x10;
+
+    /**
+     * The function may block for a long time.  Calls from virtual threads are made on a platform thread while the
+     * virtual thread waits, and calls from fork/join pool workers are made as a managed block, so the pool can add
+     * a compensating worker.
+     *
+     * The errno saved by {@link #SAVE_ERRNO} and the values of {@link ParameterType#out(NativeType)} parameters are
+     * carried back to the virtual thread.  Any other native per-thread state is that of the platform thread, so
+     * functions which use thread-local storage, or whose effects belong to the calling thread, such as locking a
+     * mutex, must not be called with this flag from virtual threads.
+     */
+    public static final int BLOCKING      = 0x20;
     public static final int DEFAULT = (CDECL);
-    private static final int VALID_FLAGS = (SAVE_ERRNO | CDECL | STDCALL | FAULT_PROTECT);
+    private static final int VALID_FLAGS = (SAVE_ERRNO | CDECL | STDCALL | FAULT_PROTECT | LEAF | BLOCKING);
 
     /** The return type of this function */
     private final ResultType resultType;
@@ -174,6 +193,14 @@ public final class Signature {
         return (flags & SAVE_ERRNO) != 0;
     }
 
+    boolean isLeaf() {
+        return (flags & LEAF) != 0;
+    }
+
+    boolean isBlocking() {
+        return (flags & BLOCKING) != 0;
+    }
+
     private synchronized com.kenai.jffi.CallContext createNativeCallContext() {
         if (jffiContext != null) {
             return jffiContext;
@@ -189,7 +216,17 @@ public final class Signature {
     }
 
     MethodType methodType() {
-        return MethodType.methodType(resultType.javaType(), javaTypeArray(parameterTypes));
+        return MethodType.methodType(resultType.javaType(), javaTypeArray(javaParameterTypes(parameterTypes)));
+    }
+
+    boolean hasOutScalars() {
+        for (ParameterType parameterType : parameterTypes) {
+            if (parameterType.isOutScalar()) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     ParameterType[] parameterTypeArray() {
@@ -200,6 +237,22 @@ public final class Signature {
         return Collections.unmodifiableList(Arrays.asList(parameterTypes));
     }
 
+    Signature withFlags(int flags) {
+        return Signature.getSignature(flags, resultType, parameterTypes);
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    Signature withResultType(ResultType resultType) {
+        return Signature.getSignature(flags, resultType, parameterTypes);
+    }
+
+    Signature withParameterTypes(ParameterType[] parameterTypes) {
+        return Signature.getSignature(flags, resultType, parameterTypes);
+    }
+
     Signature asPrimitiveContext() {
         return Signature.getSignature(flags, resultType.asPrimitiveType(), asPrimitiveTypes(parameterTypes));
     }
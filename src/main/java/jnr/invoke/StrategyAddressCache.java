@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An inline cache for {@link ObjectParameterStrategy#address(Object)}, keyed by the exact class of the strategy.
+ *
+ * Each strategy class seen is added as a class check in front of the cache, which calls the address method looked up
+ * on that class, so it is bound directly.  Once more than a few strategy classes have been seen,
+ * the cache gives up and calls the address method virtually.
+ */
+final class StrategyAddressCache {
+    private static final int MAX_ENTRIES = Integer.getInteger("jnr.invoke.strategy.cache.size", 4);
+    private static final MethodType TYPE = MethodType.methodType(long.class, ObjectParameterStrategy.class, Object.class);
+    private static final MethodHandle ADDRESS = findVirtual(ObjectParameterStrategy.class, "address", MethodType.methodType(long.class, Object.class));
+    private static final MethodHandle IS_CLASS = findStatic(StrategyAddressCache.class, "isClass",
+            MethodType.methodType(boolean.class, Class.class, Object.class));
+    private static final MethodHandle RELINK = findVirtual(StrategyAddressCache.class, "relink", TYPE);
+
+    private final MutableCallSite callSite = new MutableCallSite(TYPE);
+    private final Set<Class> cachedClasses = new HashSet<Class>();
+
+    StrategyAddressCache() {
+        callSite.setTarget(RELINK.bindTo(this));
+    }
+
+    /**
+     * Gets a handle of type (ObjectParameterStrategy, Object)long which calls the address method of the strategy.
+     */
+    MethodHandle getInvoker() {
+        return callSite.dynamicInvoker();
+    }
+
+    private static boolean isClass(Class klass, Object obj) {
+        return obj.getClass() == klass;
+    }
+
+    private synchronized long relink(ObjectParameterStrategy strategy, Object parameter) {
+        Class strategyClass = strategy.getClass();
+        MethodHandle target;
+        if (cachedClasses.contains(strategyClass)) {
+            // Another thread already added this class
+            return strategy.address(parameter);
+
+        } else if (cachedClasses.size() < MAX_ENTRIES) {
+            MethodHandle address = exactAddress(strategyClass).asType(TYPE);
+            MethodHandle test = MethodHandles.insertArguments(IS_CLASS, 0, strategyClass)
+                    .asType(MethodType.methodType(boolean.class, ObjectParameterStrategy.class));
+            target = MethodHandles.guardWithTest(test, address, callSite.getTarget());
+            cachedClasses.add(strategyClass);
+
+        } else {
+            // Megamorphic - just call the address method virtually
+            target = ADDRESS;
+        }
+
+        callSite.setTarget(target);
+        MutableCallSite.syncAll(new MutableCallSite[] { callSite });
+
+        return strategy.address(parameter);
+    }
+
+    /**
+     * Looks up the address method of the exact strategy class, so the call is bound to its implementation rather than
+     * dispatched through the ObjectParameterStrategy vtable.
+     */
+    private static MethodHandle exactAddress(Class strategyClass) {
+        try {
+            return MethodHandles.lookup().findVirtual(strategyClass, "address", MethodType.methodType(long.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // A strategy class which is not accessible from here is still called via the base class
+            return ADDRESS.asType(MethodType.methodType(long.class, strategyClass, Object.class));
+        }
+    }
+
+    private static MethodHandle findVirtual(Class klass, String methodName, MethodType methodType) {
+        try {
+            return MethodHandles.lookup().findVirtual(klass, methodName, methodType);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MethodHandle findStatic(Class klass, String methodName, MethodType methodType) {
+        try {
+            return MethodHandles.lookup().findStatic(klass, methodName, methodType);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
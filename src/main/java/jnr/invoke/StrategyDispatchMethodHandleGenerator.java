@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+
+import static jnr.invoke.AsmUtil.*;
+import static jnr.invoke.CodegenUtils.*;
+import static jnr.invoke.Native.*;
+import static jnr.invoke.Util.javaTypeArray;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates handles which look up the ObjectParameterStrategy of each object parameter once, then call the
+ * native function via a primitive stub if all the strategies are direct, or via a jffi HeapInvocationBuffer if not.
+ */
+final class StrategyDispatchMethodHandleGenerator {
+
+    /**
+     * Tests if any of the object parameters of a signature can only be converted by looking up their strategy.
+     */
+    static boolean isRequired(Signature signature) {
+        for (ParameterType parameterType : signature.parameterTypeArray()) {
+            if (parameterType.isObject() && (parameterType.getDirectCheckHandle() == null || parameterType.getDirectAddressHandle() == null)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    MethodHandle createBoundHandle(Signature signature, CodeAddress nativeAddress, MethodHandle primitiveHandle) {
+        AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$jnr$dispatch$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(java.lang.Object.class), new String[0]);
+
+        generate(builder, STUB_NAME, signature, nativeAddress, primitiveHandle);
+
+        // Stash a strong ref to the library, so it doesn't get garbage collected.
+        builder.getObjectField(nativeAddress);
+
+        emitDefaultConstructor(cv);
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            return LOOKUP.findStatic(implClass, STUB_NAME, signature.methodType());
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void generate(AsmBuilder builder, String functionName, Signature signature, CodeAddress nativeAddress,
+                                 MethodHandle primitiveHandle) {
+        ParameterType[] parameterTypes = signature.parameterTypeArray();
+        ResultType resultType = signature.getResultType().asPrimitiveType();
+        primitiveHandle = primitiveHandle.asType(primitiveHandle.type().changeReturnType(resultType.javaType()));
+
+        SkinnyMethodAdapter mv = new SkinnyMethodAdapter(builder.getClassVisitor(), ACC_PUBLIC | ACC_FINAL | ACC_STATIC,
+                functionName, sig(resultType.javaType(), javaTypeArray(parameterTypes)), null, null);
+        mv.start();
+
+        LocalVariableAllocator localVariableAllocator = new LocalVariableAllocator(parameterTypes);
+        LocalVariable[] parameters = AsmUtil.getParameterVariables(parameterTypes, true);
+        LocalVariable[] strategies = new LocalVariable[parameterTypes.length];
+
+        // Look up the strategy for each object parameter exactly once
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (parameterTypes[i].isObject()) {
+                strategies[i] = localVariableAllocator.allocate(ObjectParameterStrategy.class);
+                mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(parameterTypes[i].getObjectStrategyHandle(), MethodHandle.class), ci(MethodHandle.class));
+                load(mv, parameterTypes[i].javaType(), parameters[i]);
+                mv.invokevirtual(MethodHandle.class, "invokeExact", ObjectParameterStrategy.class, parameterTypes[i].javaType());
+                mv.astore(strategies[i]);
+            }
+        }
+
+        Label heap = new Label();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (strategies[i] != null) {
+                mv.aload(strategies[i]);
+                mv.invokevirtual(com.kenai.jffi.ObjectParameterStrategy.class, "isDirect", boolean.class);
+                mv.iffalse(heap);
+            }
+        }
+
+        // All the parameters are direct, so pass their addresses to the primitive stub
+        mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(primitiveHandle, MethodHandle.class), ci(MethodHandle.class));
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (strategies[i] != null) {
+                StrategyAddressCache cache = new StrategyAddressCache();
+                mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(cache.getInvoker(), MethodHandle.class), ci(MethodHandle.class));
+                mv.aload(strategies[i]);
+                mv.aload(parameters[i]);
+                mv.invokevirtual(MethodHandle.class, "invokeExact", long.class, ObjectParameterStrategy.class, Object.class);
+
+            } else {
+                load(mv, parameterTypes[i].javaType(), parameters[i]);
+            }
+        }
+        mv.invokevirtual(MethodHandle.class, "invokeExact", resultType.javaType(), primitiveHandle.type().parameterArray());
+        emitReturnOp(mv, resultType.javaType());
+
+        mv.label(heap);
+        DefaultMethodHandleGenerator.emitInvocation(builder, mv, localVariableAllocator, signature.getNativeCallContext(),
+                nativeAddress.address(), resultType, parameterTypes, parameters, strategies, signature.isLeaf());
+
+        mv.visitMaxs(100, localVariableAllocator.getSpaceUsed());
+        mv.visitEnd();
+    }
+}
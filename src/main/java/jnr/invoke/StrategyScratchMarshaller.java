@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+
+/**
+ * Marshals an object parameter via its {@link ObjectParameterStrategy}, so it can be passed alongside parameters
+ * which need scratch memory.  Direct objects are passed as their address; the heap array of any other object is
+ * copied into scratch memory, from the offset and for the length given by the strategy.
+ */
+final class StrategyScratchMarshaller extends ScratchMarshaller {
+    private final MethodHandle lookupObjectStrategy;
+    private final DataDirection dataDirection;
+    private final ClassValue<ArrayScratchMarshaller> arrayMarshallers = new ClassValue<ArrayScratchMarshaller>() {
+        @Override
+        protected ArrayScratchMarshaller computeValue(Class arrayType) {
+            return ArrayScratchMarshaller.forArrayType(arrayType, dataDirection);
+        }
+    };
+
+    StrategyScratchMarshaller(ParameterType parameterType) {
+        this.lookupObjectStrategy = parameterType.getObjectStrategyHandle()
+                .asType(MethodType.methodType(ObjectParameterStrategy.class, Object.class));
+        this.dataDirection = parameterType.getDataDirection();
+    }
+
+    @Override
+    public long toNative(ScratchArena arena, Object parameter) {
+        if (parameter == null) {
+            return 0L;
+        }
+
+        ObjectParameterStrategy strategy = strategy(parameter);
+        if (strategy.isDirect()) {
+            return strategy.address(parameter);
+        }
+
+        Object array = strategy.object(parameter);
+        return arrayMarshaller(array).toNative(arena, array, strategy.offset(parameter), strategy.length(parameter));
+    }
+
+    @Override
+    public void fromNative(ScratchArena arena, Object parameter, long address) {
+        if (parameter == null) {
+            return;
+        }
+
+        ObjectParameterStrategy strategy = strategy(parameter);
+        if (!strategy.isDirect()) {
+            Object array = strategy.object(parameter);
+            arrayMarshaller(array).fromNative(array, strategy.offset(parameter), strategy.length(parameter), address);
+        }
+    }
+
+    @Override
+    boolean hasOutput() {
+        return dataDirection != DataDirection.IN;
+    }
+
+    private ObjectParameterStrategy strategy(Object parameter) {
+        try {
+            return (ObjectParameterStrategy) lookupObjectStrategy.invokeExact(parameter);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private ArrayScratchMarshaller arrayMarshaller(Object array) {
+        ArrayScratchMarshaller marshaller = arrayMarshallers.get(array.getClass());
+        if (marshaller == null) {
+            throw new IllegalArgumentException("cannot copy " + array.getClass().getName() + " into scratch memory");
+        }
+
+        return marshaller;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+/**
+ * Marshals arrays of strings as a NULL terminated array of pointers to NUL terminated strings (i.e. a char **),
+ * laid out in a single scratch allocation.
+ */
+abstract class StringArrayScratchMarshaller extends ScratchMarshaller {
+    private static final int POINTER_SIZE = NativeType.POINTER.size();
+
+    abstract int length(Object array);
+
+    /** Gets the maximum size of an element once encoded, including its terminator */
+    abstract long encodedSize(Object array, int index);
+
+    /** Encodes an element, and returns the number of bytes written */
+    abstract long encode(long address, Object array, int index);
+
+    static StringArrayScratchMarshaller strings(final StringScratchMarshaller stringMarshaller) {
+        return new StringArrayScratchMarshaller() {
+            int length(Object array) {
+                return ((String[]) array).length;
+            }
+
+            long encodedSize(Object array, int index) {
+                String s = ((String[]) array)[index];
+                return s != null ? stringMarshaller.encodedSize(s) : 0L;
+            }
+
+            long encode(long address, Object array, int index) {
+                return stringMarshaller.encode(address, ((String[]) array)[index]);
+            }
+        };
+    }
+
+    static StringArrayScratchMarshaller byteStrings() {
+        return new StringArrayScratchMarshaller() {
+            int length(Object array) {
+                return ((byte[][]) array).length;
+            }
+
+            long encodedSize(Object array, int index) {
+                byte[] bytes = ((byte[][]) array)[index];
+                return bytes != null ? bytes.length + 1 : 0L;
+            }
+
+            long encode(long address, Object array, int index) {
+                byte[] bytes = ((byte[][]) array)[index];
+                UnsafeMemoryIO.putArray(address, bytes, 0, bytes.length);
+                MemoryIO.getInstance().putByte(address + bytes.length, (byte) 0);
+
+                return bytes.length + 1;
+            }
+        };
+    }
+
+    @Override
+    public final long toNative(ScratchArena arena, Object parameter) {
+        if (parameter == null) {
+            return 0L;
+        }
+
+        int length = length(parameter);
+        long tableSize = (long) (length + 1) * POINTER_SIZE;
+        long size = tableSize;
+        for (int i = 0; i < length; i++) {
+            size += encodedSize(parameter, i);
+        }
+
+        // The pointer table comes first, followed by the string data
+        MemoryIO io = MemoryIO.getInstance();
+        long table = arena.allocate(size);
+        long data = table + tableSize;
+        for (int i = 0; i < length; i++) {
+            if (encodedSize(parameter, i) != 0L) {
+                io.putAddress(table + (long) i * POINTER_SIZE, data);
+                data += encode(data, parameter, i);
+            } else {
+                io.putAddress(table + (long) i * POINTER_SIZE, 0L);
+            }
+        }
+        io.putAddress(table + (long) length * POINTER_SIZE, 0L);
+
+        return table;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes strings as NUL terminated native strings in scratch memory.
+ */
+final class StringScratchMarshaller extends ScratchMarshaller {
+    /** The number of zero bytes appended, so the string is terminated even for multi-byte charsets */
+    private static final int TERMINATOR_SIZE = 4;
+
+    private final Charset charset;
+    private final char fastPathLimit;
+    private final ThreadLocal<byte[]> singleByteBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+    private final ThreadLocal<CharsetEncoder> encoders = new ThreadLocal<CharsetEncoder>() {
+        @Override
+        protected CharsetEncoder initialValue() {
+            return charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+    };
+
+    StringScratchMarshaller(Charset charset) {
+        this.charset = charset;
+        this.fastPathLimit = fastPathLimit(charset);
+    }
+
+    /**
+     * Gets the first character which cannot be encoded as a single byte of the same value.
+     */
+    private static char fastPathLimit(Charset charset) {
+        String name = charset.name();
+        if ("ISO-8859-1".equals(name)) {
+            return 0x100;
+
+        } else if ("US-ASCII".equals(name) || "UTF-8".equals(name)) {
+            return 0x80;
+
+        } else {
+            return 0;
+        }
+    }
+
+    @Override
+    public long toNative(ScratchArena arena, Object parameter) {
+        if (parameter == null) {
+            return 0L;
+        }
+
+        String s = (String) parameter;
+        if (isSingleByte(s)) {
+            long address = arena.allocate(s.length() + 1);
+            encodeSingleByte(address, s);
+            return address;
+        }
+
+        long address = arena.allocate(maxLength(s));
+        encodeMultiByte(address, s);
+
+        return address;
+    }
+
+    /**
+     * Gets the maximum number of bytes {@link #encode(long, String)} can write for a string.
+     */
+    long encodedSize(String s) {
+        return isSingleByte(s) ? s.length() + 1 : maxLength(s);
+    }
+
+    /**
+     * Encodes a string as a NUL terminated native string.
+     *
+     * @return the number of bytes written, including the terminator.
+     */
+    long encode(long address, String s) {
+        return isSingleByte(s) ? encodeSingleByte(address, s) : encodeMultiByte(address, s);
+    }
+
+    private boolean isSingleByte(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= fastPathLimit) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private long maxLength(String s) {
+        return (long) Math.ceil(encoders.get().maxBytesPerChar() * s.length()) + TERMINATOR_SIZE;
+    }
+
+    /**
+     * Copies a string whose chars are all within the fast path range into native memory, one char per byte.
+     */
+    @SuppressWarnings("deprecation")
+    private long encodeSingleByte(long address, String s) {
+        int length = s.length();
+        byte[] bytes = singleByteBuffers.get();
+        if (bytes.length < length + 1) {
+            singleByteBuffers.set(bytes = new byte[Math.max(length + 1, bytes.length * 2)]);
+        }
+
+        // Copies the low byte of each char, which is a plain array copy for compact strings
+        s.getBytes(0, length, bytes, 0);
+        bytes[length] = 0;
+        UnsafeMemoryIO.putArray(address, bytes, 0, length + 1);
+
+        return length + 1;
+    }
+
+    private long encodeMultiByte(long address, String s) {
+        long maxLength = maxLength(s);
+        ByteBuffer buf = MemoryIO.getInstance().newDirectByteBuffer(address, (int) maxLength);
+        CharsetEncoder encoder = encoders.get();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(s), buf, true);
+        encoder.flush(buf);
+        MemoryIO.getInstance().setMemory(address + buf.position(), TERMINATOR_SIZE, (byte) 0);
+
+        return buf.position() + TERMINATOR_SIZE;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.ArrayFlags;
+
+import java.util.List;
+
+/**
+ * Marshals arrays or lists of java objects as a contiguous native array of structs, via a {@link StructPacker}.
+ */
+final class StructArrayScratchMarshaller extends ScratchMarshaller {
+    private final StructPacker packer;
+    private final boolean in, out;
+
+    StructArrayScratchMarshaller(StructPacker packer, DataDirection dataDirection) {
+        this.packer = packer;
+        this.in = ArrayFlags.isIn(dataDirection.getArrayFlags());
+        this.out = ArrayFlags.isOut(dataDirection.getArrayFlags());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public long toNative(ScratchArena arena, Object parameter) {
+        if (parameter == null) {
+            return 0L;
+        }
+
+        int length = parameter instanceof List ? ((List) parameter).size() : ((Object[]) parameter).length;
+        long address = arena.allocate(Math.max(length * packer.layout().size(), 1));
+        if (!in) {
+            com.kenai.jffi.MemoryIO.getInstance().setMemory(address, length * packer.layout().size(), (byte) 0);
+
+        } else if (parameter instanceof List) {
+            packer.pack((List) parameter, address);
+
+        } else {
+            packer.pack((Object[]) parameter, address);
+        }
+
+        return address;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void fromNative(ScratchArena arena, Object parameter, long address) {
+        if (parameter instanceof List) {
+            packer.unpack(address, (List) parameter);
+
+        } else if (parameter != null) {
+            packer.unpack(address, (Object[]) parameter);
+        }
+    }
+
+    @Override
+    boolean hasOutput() {
+        return out;
+    }
+}
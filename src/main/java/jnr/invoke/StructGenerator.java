@@ -0,0 +1,408 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+import static jnr.invoke.AsmUtil.*;
+import static jnr.invoke.CodegenUtils.*;
+import static jnr.invoke.Native.*;
+import static jnr.invoke.NumberUtil.convertPrimitive;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates {@link Flyweight} subclasses which implement struct accessor interfaces.
+ */
+final class StructGenerator {
+    private StructGenerator() {
+    }
+
+    /**
+     * Generates an accessor class, and returns a handle to its constructor.
+     */
+    static MethodHandle generate(StructLayout layout, Class structInterface) {
+        if (!structInterface.isInterface()) {
+            throw new IllegalArgumentException(structInterface + " is not an interface");
+        }
+
+        AsmClassLoader classLoader = new AsmClassLoader(structInterface.getClassLoader());
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$jnr$struct$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(Flyweight.class),
+                new String[] { p(structInterface) });
+
+        for (Method m : structInterface.getMethods()) {
+            if (Modifier.isAbstract(m.getModifiers()) && !isImplemented(m)) {
+                generateAccessor(builder, layout, m);
+            }
+        }
+
+        SkinnyMethodAdapter init = new SkinnyMethodAdapter(cv, ACC_PUBLIC, "<init>", sig(void.class), null, null);
+        init.start();
+        init.aload(0);
+        init.invokespecial(p(Flyweight.class), "<init>", sig(void.class));
+        init.voidreturn();
+        init.visitMaxs(10, 10);
+        init.visitEnd();
+
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            return LOOKUP.findConstructor(implClass, MethodType.methodType(void.class));
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static boolean isImplemented(Method m) {
+        try {
+            return !Modifier.isAbstract(Flyweight.class.getMethod(m.getName(), m.getParameterTypes()).getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static StructLayout.Field findField(StructLayout layout, Method m) {
+        String name = m.getName();
+        StructLayout.Field field = layout.findField(name);
+        if (field == null) {
+            for (String prefix : new String[] { "get", "set", "is" }) {
+                if (name.startsWith(prefix) && name.length() > prefix.length()) {
+                    String fieldName = name.substring(prefix.length());
+                    field = layout.findField(fieldName);
+                    if (field == null) {
+                        field = layout.findField(Character.toLowerCase(fieldName.charAt(0)) + fieldName.substring(1));
+                    }
+                    if (field != null) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (field == null) {
+            throw new IllegalArgumentException("no field for method " + m);
+        }
+
+        return field;
+    }
+
+    private static void generateAccessor(AsmBuilder builder, StructLayout layout, Method m) {
+        StructLayout.Field field = findField(layout, m);
+        Class[] parameterTypes = m.getParameterTypes();
+        int indexCount = field.isArray() ? 1 : 0;
+
+        boolean isGetter = m.getReturnType() != void.class && parameterTypes.length == indexCount;
+        boolean isSetter = m.getReturnType() == void.class && parameterTypes.length == indexCount + 1;
+        if ((!isGetter && !isSetter) || (field.isArray() && parameterTypes[0] != int.class)) {
+            throw new IllegalArgumentException("invalid accessor method " + m + " for field " + field.name);
+        }
+
+        Class valueType = isGetter ? m.getReturnType() : parameterTypes[indexCount];
+        Class storageType = storageType(field.type);
+        if (!isValidValueType(valueType, storageType)) {
+            throw new IllegalArgumentException("invalid type " + valueType + " for field " + field.name + " of type " + field.type);
+        }
+
+        SkinnyMethodAdapter mv = new SkinnyMethodAdapter(builder.getClassVisitor(), ACC_PUBLIC | ACC_FINAL,
+                m.getName(), sig(m.getReturnType(), parameterTypes), null, null);
+        mv.start();
+
+        mv.getstatic(builder.getClassNamePath(), builder.getObjectFieldName(MemoryIO.getInstance(), MemoryIO.class), ci(MemoryIO.class));
+
+        // Calculate the address of the field
+        mv.aload(0);
+        mv.getfield(p(Flyweight.class), "address", ci(long.class));
+        if (field.offset != 0) {
+            mv.ldc(field.offset);
+            mv.ladd();
+        }
+        if (field.isArray()) {
+            mv.iload(1);
+            mv.i2l();
+            mv.ldc((long) field.type.size());
+            mv.lmul();
+            mv.ladd();
+        }
+
+        String typeName = accessorTypeName(field.type);
+        if (isGetter) {
+            mv.invokevirtual(MemoryIO.class, "get" + typeName, storageType, long.class);
+            convertPrimitive(mv, storageType, valueType, field.type);
+            emitReturnOp(mv, valueType);
+
+        } else {
+            load(mv, valueType, new LocalVariable(valueType, 1 + indexCount));
+            convertPrimitive(mv, valueType, storageType);
+            mv.invokevirtual(MemoryIO.class, "put" + typeName, void.class, long.class, storageType);
+            mv.voidreturn();
+        }
+
+        mv.visitMaxs(100, 10);
+        mv.visitEnd();
+    }
+
+    /**
+     * Generates a {@link StructPacker} which copies scalar fields between {@code elementClass} and native structs.
+     */
+    static StructPacker generatePacker(StructLayout layout, Class elementClass, Map<String, String> fieldMapping) {
+        if (!Modifier.isPublic(elementClass.getModifiers())) {
+            throw new IllegalArgumentException(elementClass + " is not public");
+        }
+
+        AsmClassLoader classLoader = new AsmClassLoader(elementClass.getClassLoader());
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$jnr$packer$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(StructPacker.class), new String[0]);
+
+        SkinnyMethodAdapter pack = new SkinnyMethodAdapter(cv, ACC_PUBLIC | ACC_FINAL, "pack",
+                sig(void.class, Object.class, long.class), null, null);
+        pack.start();
+        SkinnyMethodAdapter unpack = new SkinnyMethodAdapter(cv, ACC_PUBLIC | ACC_FINAL, "unpack",
+                sig(void.class, long.class, Object.class), null, null);
+        unpack.start();
+
+        String memoryIOField = builder.getObjectFieldName(MemoryIO.getInstance(), MemoryIO.class);
+        for (StructLayout.Field field : layout.getFields()) {
+            if (field.isArray()) {
+                continue;
+            }
+
+            String memberName = fieldMapping.containsKey(field.name) ? fieldMapping.get(field.name) : field.name;
+            Class storageType = storageType(field.type);
+            String typeName = accessorTypeName(field.type);
+
+            Member getter = findGetter(elementClass, memberName);
+            if (getter != null) {
+                Class valueType = getter instanceof Field ? ((Field) getter).getType() : ((Method) getter).getReturnType();
+                if (!isValidValueType(valueType, storageType)) {
+                    throw new IllegalArgumentException("invalid type " + valueType + " for field " + field.name + " of type " + field.type);
+                }
+
+                pack.getstatic(builder.getClassNamePath(), memoryIOField, ci(MemoryIO.class));
+                pack.lload(2);
+                if (field.offset != 0) {
+                    pack.ldc(field.offset);
+                    pack.ladd();
+                }
+                pack.aload(1);
+                pack.checkcast(p(elementClass));
+                if (getter instanceof Field) {
+                    pack.getfield(p(elementClass), getter.getName(), ci(valueType));
+                } else if (elementClass.isInterface()) {
+                    pack.invokeinterface(p(elementClass), getter.getName(), sig(valueType));
+                } else {
+                    pack.invokevirtual(p(elementClass), getter.getName(), sig(valueType));
+                }
+                convertPrimitive(pack, valueType, storageType);
+                pack.invokevirtual(MemoryIO.class, "put" + typeName, void.class, long.class, storageType);
+            }
+
+            Member setter = findSetter(elementClass, memberName);
+            if (setter != null) {
+                Class valueType = setter instanceof Field ? ((Field) setter).getType() : ((Method) setter).getParameterTypes()[0];
+                if (!isValidValueType(valueType, storageType)) {
+                    throw new IllegalArgumentException("invalid type " + valueType + " for field " + field.name + " of type " + field.type);
+                }
+
+                unpack.aload(3);
+                unpack.checkcast(p(elementClass));
+                unpack.getstatic(builder.getClassNamePath(), memoryIOField, ci(MemoryIO.class));
+                unpack.lload(1);
+                if (field.offset != 0) {
+                    unpack.ldc(field.offset);
+                    unpack.ladd();
+                }
+                unpack.invokevirtual(MemoryIO.class, "get" + typeName, storageType, long.class);
+                convertPrimitive(unpack, storageType, valueType, field.type);
+                if (setter instanceof Field) {
+                    unpack.putfield(p(elementClass), setter.getName(), ci(valueType));
+                } else {
+                    Method m = (Method) setter;
+                    if (elementClass.isInterface()) {
+                        unpack.invokeinterface(p(elementClass), m.getName(), sig(m.getReturnType(), valueType));
+                    } else {
+                        unpack.invokevirtual(p(elementClass), m.getName(), sig(m.getReturnType(), valueType));
+                    }
+                    if (m.getReturnType() == long.class || m.getReturnType() == double.class) {
+                        unpack.pop2();
+                    } else if (m.getReturnType() != void.class) {
+                        unpack.pop();
+                    }
+                }
+            }
+        }
+
+        pack.voidreturn();
+        pack.visitMaxs(100, 10);
+        pack.visitEnd();
+        unpack.voidreturn();
+        unpack.visitMaxs(100, 10);
+        unpack.visitEnd();
+
+        SkinnyMethodAdapter init = new SkinnyMethodAdapter(cv, ACC_PUBLIC, "<init>", sig(void.class), null, null);
+        init.start();
+        init.aload(0);
+        init.invokespecial(p(StructPacker.class), "<init>", sig(void.class));
+        init.voidreturn();
+        init.visitMaxs(10, 10);
+        init.visitEnd();
+
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            return (StructPacker) implClass.newInstance();
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static Member findGetter(Class elementClass, String name) {
+        try {
+            Field f = elementClass.getField(name);
+            if (!Modifier.isStatic(f.getModifiers())) {
+                return f;
+            }
+        } catch (NoSuchFieldException ignored) {
+        }
+
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (String methodName : new String[] { name, "get" + suffix, "is" + suffix }) {
+            try {
+                Method m = elementClass.getMethod(methodName);
+                if (!Modifier.isStatic(m.getModifiers()) && m.getReturnType() != void.class) {
+                    return m;
+                }
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+
+        return null;
+    }
+
+    private static Member findSetter(Class elementClass, String name) {
+        try {
+            Field f = elementClass.getField(name);
+            if (!Modifier.isStatic(f.getModifiers()) && !Modifier.isFinal(f.getModifiers())) {
+                return f;
+            }
+        } catch (NoSuchFieldException ignored) {
+        }
+
+        String methodName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (Method m : elementClass.getMethods()) {
+            if (m.getName().equals(methodName) && m.getParameterTypes().length == 1 && !Modifier.isStatic(m.getModifiers())) {
+                return m;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isValidValueType(Class valueType, Class storageType) {
+        if (float.class == storageType || double.class == storageType) {
+            return valueType == storageType;
+        }
+
+        return byte.class == valueType || short.class == valueType || char.class == valueType || int.class == valueType
+                || long.class == valueType || boolean.class == valueType;
+    }
+
+    static String accessorTypeName(NativeType nativeType) {
+        switch (nativeType) {
+            case SCHAR:
+            case UCHAR:
+                return "Byte";
+            case SSHORT:
+            case USHORT:
+                return "Short";
+            case SINT:
+            case UINT:
+                return "Int";
+            case SLONG:
+            case ULONG:
+                return nativeType.size() == 4 ? "Int" : "Long";
+            case SLONG_LONG:
+            case ULONG_LONG:
+                return "Long";
+            case FLOAT:
+                return "Float";
+            case DOUBLE:
+                return "Double";
+            case POINTER:
+                return "Address";
+            default:
+                throw new IllegalArgumentException("unsupported field type " + nativeType);
+        }
+    }
+
+    static Class storageType(NativeType nativeType) {
+        switch (nativeType) {
+            case SCHAR:
+            case UCHAR:
+                return byte.class;
+            case SSHORT:
+            case USHORT:
+                return short.class;
+            case SINT:
+            case UINT:
+                return int.class;
+            case SLONG:
+            case ULONG:
+                return nativeType.size() == 4 ? int.class : long.class;
+            case FLOAT:
+                return float.class;
+            case DOUBLE:
+                return double.class;
+            default:
+                return long.class;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the memory layout of a C struct, using the native sizes and alignments of its fields.
+ *
+ * <pre>
+ * StructLayout timeval = StructLayout.builder()
+ *         .field("tv_sec", NativeType.SLONG)
+ *         .field("tv_usec", NativeType.SLONG)
+ *         .build();
+ * </pre>
+ */
+public final class StructLayout {
+    private final Map<String, Field> fields;
+    private final long size;
+    private final int alignment;
+
+    private StructLayout(Map<String, Field> fields, long size, int alignment) {
+        this.fields = Collections.unmodifiableMap(fields);
+        this.size = size;
+        this.alignment = alignment;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the size of the struct, including any trailing padding.
+     *
+     * @return the size of the struct in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    public int alignment() {
+        return alignment;
+    }
+
+    /**
+     * Gets the offset of a field from the start of the struct.
+     *
+     * @param name the name of the field.
+     * @return the offset of the field in bytes.
+     */
+    public long offsetOf(String name) {
+        return getField(name).offset;
+    }
+
+    public NativeType typeOf(String name) {
+        return getField(name).type;
+    }
+
+    /**
+     * Creates a {@link StructType} which accesses structs with this layout via the methods of {@code
+     * structInterface}.
+     *
+     * @param structInterface the interface which declares accessor methods for the fields of the struct.
+     * @return a new struct type.
+     * @see StructType
+     */
+    public <T> StructType<T> bind(Class<T> structInterface) {
+        return new StructType<T>(this, structInterface);
+    }
+
+    private Field getField(String name) {
+        Field field = fields.get(name);
+        if (field == null) {
+            throw new IllegalArgumentException("no field named " + name);
+        }
+
+        return field;
+    }
+
+    Field findField(String name) {
+        return fields.get(name);
+    }
+
+    List<Field> getFields() {
+        return new ArrayList<Field>(fields.values());
+    }
+
+    static final class Field {
+        final String name;
+        final NativeType type;
+        final long offset;
+        final int count;
+
+        Field(String name, NativeType type, long offset, int count) {
+            this.name = name;
+            this.type = type;
+            this.offset = offset;
+            this.count = count;
+        }
+
+        boolean isArray() {
+            return count > 0;
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, Field> fields = new LinkedHashMap<String, Field>();
+        private long offset;
+        private int alignment = 1;
+
+        private Builder() {
+        }
+
+        /**
+         * Appends a scalar field, aligned to the native alignment of its type.
+         *
+         * @param name the name of the field.
+         * @param type the native type of the field.
+         * @return this builder.
+         */
+        public Builder field(String name, NativeType type) {
+            return add(name, type, 0);
+        }
+
+        /**
+         * Appends a fixed size array field, e.g. {@code char name[16]}.
+         *
+         * @param name the name of the field.
+         * @param type the native type of the array elements.
+         * @param count the number of elements in the array.
+         * @return this builder.
+         */
+        public Builder array(String name, NativeType type, int count) {
+            if (count < 1) {
+                throw new IllegalArgumentException("invalid array length " + count);
+            }
+
+            return add(name, type, count);
+        }
+
+        /**
+         * Appends unnamed padding.
+         *
+         * @param size the number of bytes of padding.
+         * @return this builder.
+         */
+        public Builder padding(long size) {
+            offset += size;
+            return this;
+        }
+
+        private Builder add(String name, NativeType type, int count) {
+            if (type == NativeType.VOID) {
+                throw new IllegalArgumentException("invalid field type " + type);
+            }
+
+            if (fields.containsKey(name)) {
+                throw new IllegalArgumentException("duplicate field " + name);
+            }
+
+            offset = align(offset, type.alignment());
+            fields.put(name, new Field(name, type, offset, count));
+            offset += (long) type.size() * Math.max(count, 1);
+            alignment = Math.max(alignment, type.alignment());
+
+            return this;
+        }
+
+        public StructLayout build() {
+            return new StructLayout(new LinkedHashMap<String, Field>(fields), align(offset, alignment), alignment);
+        }
+
+        private static long align(long offset, int alignment) {
+            return (offset + alignment - 1) & ~(alignment - 1L);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies java objects to and from native structs, using generated code specialised for a {@link StructLayout}
+ * and a java class.
+ *
+ * Each scalar field of the layout is mapped to a public field of the java class with the same name, or to a
+ * public accessor method; either a record style {@code name()} method, or a {@code getName()} or {@code isName()}
+ * method.  Fields are unpacked into public non-final fields, or via {@code setName(value)} methods.  Layout fields
+ * with no java counterpart are packed as zero, and left alone when unpacking.
+ *
+ * @param <T> the java class of the elements.
+ */
+public abstract class StructPacker<T> {
+    private StructLayout layout;
+    private Class<T> elementClass;
+
+    protected StructPacker() {
+    }
+
+    /**
+     * Creates a packer, mapping layout fields to java members with the same name.
+     *
+     * @param layout the native layout of each struct.
+     * @param elementClass the public java class the structs are copied from and to.
+     * @return a new packer.
+     */
+    public static <T> StructPacker<T> create(StructLayout layout, Class<T> elementClass) {
+        return create(layout, elementClass, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Creates a packer, mapping layout fields to java members via {@code fieldMapping}.
+     *
+     * @param layout the native layout of each struct.
+     * @param elementClass the public java class the structs are copied from and to.
+     * @param fieldMapping a map from layout field names to java member names.  Fields which are not in the map
+     * are mapped to java members with the same name.
+     * @return a new packer.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> StructPacker<T> create(StructLayout layout, Class<T> elementClass, Map<String, String> fieldMapping) {
+        StructPacker<T> packer = (StructPacker<T>) StructGenerator.generatePacker(layout, elementClass, fieldMapping);
+        packer.layout = layout;
+        packer.elementClass = elementClass;
+
+        return packer;
+    }
+
+    public final StructLayout layout() {
+        return layout;
+    }
+
+    public final Class<T> elementClass() {
+        return elementClass;
+    }
+
+    /**
+     * Copies the fields of {@code element} into the struct at {@code address}.
+     *
+     * @param element the object to copy from.
+     * @param address the native address of the struct.
+     */
+    public abstract void pack(T element, long address);
+
+    /**
+     * Copies the fields of the struct at {@code address} into {@code element}.
+     *
+     * @param address the native address of the struct.
+     * @param element the object to copy to.
+     */
+    public abstract void unpack(long address, T element);
+
+    /**
+     * Copies an array of objects into a contiguous native array of structs.  Null elements are packed as zeroed
+     * structs.
+     *
+     * @param elements the objects to copy from.
+     * @param address the native address of the struct array.
+     */
+    public final void pack(T[] elements, long address) {
+        long size = layout.size();
+        MemoryIO.getInstance().setMemory(address, size * elements.length, (byte) 0);
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] != null) {
+                pack(elements[i], address + i * size);
+            }
+        }
+    }
+
+    public final void pack(List<? extends T> elements, long address) {
+        long size = layout.size();
+        MemoryIO.getInstance().setMemory(address, size * elements.size(), (byte) 0);
+        int i = 0;
+        for (T element : elements) {
+            if (element != null) {
+                pack(element, address + i * size);
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Copies a contiguous native array of structs into an array of objects.  Null elements are skipped.
+     *
+     * @param address the native address of the struct array.
+     * @param elements the objects to copy to.
+     */
+    public final void unpack(long address, T[] elements) {
+        long size = layout.size();
+        for (int i = 0; i < elements.length; i++) {
+            if (elements[i] != null) {
+                unpack(address + i * size, elements[i]);
+            }
+        }
+    }
+
+    public final void unpack(long address, List<? extends T> elements) {
+        long size = layout.size();
+        int i = 0;
+        for (T element : elements) {
+            if (element != null) {
+                unpack(address + i * size, element);
+            }
+            i++;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Creates accessors for structs with a given {@link StructLayout}, implementing a user supplied interface.
+ *
+ * Each abstract method of the interface is bound to a field of the layout by name, with any get, set or is
+ * prefix removed.  Methods with no parameters read the field, and methods with one parameter and a void return
+ * type write it.  Array fields take an additional leading int index parameter.  For example:
+ *
+ * <pre>
+ * interface Timeval extends Addressable {
+ *     long tv_sec();
+ *     void tv_sec(long value);
+ *     long getTv_usec();
+ * }
+ * </pre>
+ *
+ * The generated accessors read and write native memory directly, without any bounds checks, and can be moved to
+ * another struct with {@link #moveTo(Object, long)} so arrays of structs can be walked without allocation.
+ */
+public final class StructType<T> {
+    private final StructLayout layout;
+    private final Class<T> structInterface;
+    private final MethodHandle constructor;
+
+    StructType(StructLayout layout, Class<T> structInterface) {
+        this.layout = layout;
+        this.structInterface = structInterface;
+        this.constructor = StructGenerator.generate(layout, structInterface);
+    }
+
+    public StructLayout layout() {
+        return layout;
+    }
+
+    public Class<T> structInterface() {
+        return structInterface;
+    }
+
+    /**
+     * Creates an accessor for the struct at {@code address}.
+     *
+     * @param address the native address of the struct.
+     * @return a new accessor.
+     */
+    public T at(long address) {
+        return at(address, null);
+    }
+
+    T at(long address, Object owner) {
+        T struct = newInstance();
+        flyweight(struct).moveTo(address, owner);
+        return struct;
+    }
+
+    /**
+     * Creates an accessor for element {@code index} of an array of structs starting at {@code address}.
+     *
+     * @param address the native address of the array.
+     * @param index the index of the struct in the array.
+     * @return a new accessor.
+     */
+    public T at(long address, long index) {
+        return at(address + index * layout.size());
+    }
+
+    /**
+     * Creates an accessor for the struct at the current position of a direct buffer.  The accessor keeps a
+     * reference to the buffer, so the memory is not freed while the accessor refers to it.
+     *
+     * @param buffer a direct buffer.
+     * @return a new accessor.
+     */
+    public T at(ByteBuffer buffer) {
+        return at(address(buffer), buffer);
+    }
+
+    /**
+     * Moves an accessor created by this struct type to the struct at {@code address}.  The accessor no longer keeps
+     * the memory it previously referred to, such as a buffer, from being freed.
+     *
+     * @param struct the accessor to move.
+     * @param address the native address of the struct.
+     */
+    public void moveTo(T struct, long address) {
+        flyweight(struct).moveTo(address, null);
+    }
+
+    /**
+     * Moves an accessor created by this struct type to element {@code index} of an array of structs.  As with
+     * {@link #moveTo(Object, long)}, the accessor no longer keeps the memory it previously referred to alive.
+     *
+     * @param struct the accessor to move.
+     * @param address the native address of the array.
+     * @param index the index of the struct in the array.
+     */
+    public void moveTo(T struct, long address, long index) {
+        flyweight(struct).moveTo(address + index * layout.size(), null);
+    }
+
+    private static Flyweight flyweight(Object struct) {
+        return (Flyweight) struct;
+    }
+
+    private static long address(Buffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer is not direct");
+        }
+
+        return UnsafeMemoryIO.getDirectBufferAddress(buffer) + buffer.position();
+    }
+
+    private T newInstance() {
+        try {
+            return structInterface.cast(constructor.invoke());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+}
@@ -61,6 +61,69 @@ abstract class StubCompiler {
 
     abstract Object attach(Class clazz);
 
+    /**
+     * Tests if stubs which call through an address slot can be compiled, see {@link #compileIndirect}.
+     */
+    boolean canCompileIndirect() {
+        return false;
+    }
+
+    /**
+     * Compiles a stub like {@link #compile}, which calls the function whose address is stored in the 8 byte
+     * {@code slot}, read on every call, so the target can be changed without compiling a new stub.
+     */
+    void compileIndirect(long slot, String name, ResultType returnType, ParameterType[] parameterTypes,
+                         Class resultClass, Class[] parameterClasses, boolean saveErrno) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    /**
+     * Tests if a batch stub can be compiled for a function, see {@link #compileBatch}.
+     */
+    boolean canCompileBatch(ResultType returnType, ParameterType[] parameterTypes, CallingConvention convention) {
+        return false;
+    }
+
+    /**
+     * Compiles a stub for a static native method with the signature {@code (long columns, long results, int start, int end)},
+     * which calls {@code function} once for each index from {@code start} to {@code end}.  Argument {@code i} of each call
+     * is read from the array whose address is at {@code columns[i]}, and the result is stored in the {@code results} array.
+     * The element size of each array is the size of the java type of the parameter or result.
+     */
+    void compileBatch(long function, String name, ResultType returnType, ParameterType[] parameterTypes) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    /**
+     * Tests if a single stub can be compiled for all the calls in a chain.
+     */
+    boolean canCompileChain(CallChain chain) {
+        return false;
+    }
+
+    /**
+     * Compiles a stub for a static native method which makes all the calls in a chain.
+     */
+    void compileChain(String name, CallChain chain) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    /**
+     * Tests if a stub which makes a system call directly can be compiled, see {@link #compileSyscall}.
+     */
+    boolean canCompileSyscall(ResultType returnType, ParameterType[] parameterTypes) {
+        return false;
+    }
+
+    /**
+     * Compiles a stub for a static native method which makes system call {@code number} directly, without going
+     * through a libc wrapper.  If {@code saveErrno} is set, a failed call returns -1 and saves the error the same way
+     * as a libc call would; otherwise the raw kernel result is returned, which is the negated errno on failure.
+     */
+    void compileSyscall(long number, String name, ResultType returnType, ParameterType[] parameterTypes, boolean saveErrno) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     static final class DummyStubCompiler extends StubCompiler {
 
         boolean canCompile(ResultType returnType, ParameterType[] parameterTypes, CallingConvention convention) {
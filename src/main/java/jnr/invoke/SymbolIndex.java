@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+import com.kenai.jffi.Platform;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index of the symbols exported by a library, read from the dynamic symbol table of its ELF file.
+ *
+ * Lookups in the index are plain hash table probes, instead of a {@code dlsym} call per symbol, and the exports of
+ * a library can be listed, e.g. to bind every function with a given prefix.
+ *
+ * @see Library#getSymbolIndex()
+ */
+public final class SymbolIndex {
+    private final Library library;
+    private final ElfSymbolTable symbolTable;
+    private final long loadBias;
+    private final String[] names;
+
+    SymbolIndex(Library library, ElfSymbolTable symbolTable, long loadBias) {
+        this.library = library;
+        this.symbolTable = symbolTable;
+        this.loadBias = loadBias;
+        this.names = symbolTable.names().toArray(new String[0]);
+        Arrays.sort(names);
+    }
+
+    /**
+     * Memory maps the file a library was loaded from, and indexes its exported symbols.
+     *
+     * The file and load bias are read from the link map of the library, if the dynamic linker provides it.
+     * Otherwise they are found from the mappings of the process, where the load bias is the start of the first
+     * mapping of the file, less its file offset and the virtual address of the first loadable segment.
+     */
+    static SymbolIndex load(Library library, String name) {
+        long linkMap = library.linkMap();
+        if (linkMap != 0L) {
+            MemoryIO io = MemoryIO.getInstance();
+            long loadBias = io.getAddress(linkMap);
+            File file = new File(new String(io.getZeroTerminatedByteArray(io.getAddress(linkMap + Platform.getPlatform().addressSize() / 8)),
+                    Charset.defaultCharset()));
+
+            return new SymbolIndex(library, parse(file), loadBias);
+        }
+
+        Mapping mapping = findMapping(name);
+        ElfSymbolTable symbolTable = parse(mapping.file);
+
+        return new SymbolIndex(library, symbolTable, mapping.start - mapping.offset - symbolTable.imageBase());
+    }
+
+    private static ElfSymbolTable parse(File file) {
+        try {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                return ElfSymbolTable.parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                channel.close();
+            }
+
+        } catch (IOException | IllegalArgumentException e) {
+            throw (UnsatisfiedLinkError) new UnsatisfiedLinkError("cannot index " + file + ": " + e.getMessage()).initCause(e);
+        }
+    }
+
+    private static final class Mapping {
+        final File file;
+        final long start;
+        final long offset;
+
+        Mapping(File file, long start, long offset) {
+            this.file = file;
+            this.start = start;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Finds the first mapping of the file a library was loaded from.  A file with exactly the name of the library
+     * is preferred to one with a versioned name, e.g. libm.so.6 for libm.so, and a versioned name must be unique.
+     */
+    private static Mapping findMapping(String name) {
+        File named = new File(name);
+        Mapping exact = null, versioned = null;
+        File ambiguous = null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/maps"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int index = line.indexOf('/');
+                    if (index < 0) {
+                        continue;
+                    }
+
+                    File mapped = new File(line.substring(index));
+                    boolean isExact = named.isAbsolute() ? mapped.equals(named) : mapped.getName().equals(name);
+                    boolean isVersioned = !named.isAbsolute() && mapped.getName().startsWith(name + ".");
+                    if ((isExact && exact != null) || (isVersioned && versioned != null && versioned.file.equals(mapped))
+                            || (!isExact && !isVersioned)) {
+                        continue;
+                    }
+
+                    // e.g. 7f1c2a000000-7f1c2a028000 r--p 00000000 08:01 1234 /usr/lib/libm.so.6
+                    String[] fields = line.split("\\s+");
+                    String[] range = fields[0].split("-");
+                    Mapping mapping = new Mapping(mapped, Long.parseLong(range[0], 16), Long.parseLong(fields[2], 16));
+                    if (isExact) {
+                        exact = mapping;
+
+                    } else if (versioned == null) {
+                        versioned = mapping;
+
+                    } else {
+                        ambiguous = mapped;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+
+        } catch (IOException e) {
+            throw (UnsatisfiedLinkError) new UnsatisfiedLinkError("cannot read the mappings of the process").initCause(e);
+        }
+
+        if (exact == null && versioned == null) {
+            throw new UnsatisfiedLinkError("cannot find the loaded file for " + name);
+
+        } else if (exact == null && ambiguous != null) {
+            throw new UnsatisfiedLinkError("ambiguous loaded file for " + name + ": " + versioned.file + " or " + ambiguous);
+        }
+
+        return exact != null ? exact : versioned;
+    }
+
+    /**
+     * Gets the address of a symbol from the index.
+     *
+     * @return the address of the symbol, or 0 if it is not in the index or is an indirect function, which has to be
+     * resolved by the dynamic linker.
+     */
+    long getAddress(String name) {
+        long value = symbolTable.getValue(name);
+        return value != 0L ? loadBias + value : 0L;
+    }
+
+    /**
+     * Gets the names of all the functions and variables exported by the library.
+     *
+     * @return the names, in sorted order.
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * Gets the names of the functions and variables exported by the library which start with {@code prefix}.
+     *
+     * @param prefix the prefix of the names.
+     * @return the names, in sorted order.
+     */
+    public List<String> getNames(String prefix) {
+        int start = Arrays.binarySearch(names, prefix);
+        if (start < 0) {
+            start = -(start + 1);
+        }
+
+        int end = start;
+        while (end < names.length && names[end].startsWith(prefix)) {
+            end++;
+        }
+
+        return getNames().subList(start, end);
+    }
+
+    /**
+     * Gets the addresses of the functions and variables exported by the library which start with {@code prefix}.
+     *
+     * @param prefix the prefix of the names.
+     * @return a map of name to address, in sorted order of name.
+     */
+    public Map<String, CodeAddress> getFunctions(String prefix) {
+        Map<String, CodeAddress> functions = new LinkedHashMap<String, CodeAddress>();
+        for (String name : getNames(prefix)) {
+            functions.put(name, library.getFunction(name));
+        }
+
+        return functions;
+    }
+}
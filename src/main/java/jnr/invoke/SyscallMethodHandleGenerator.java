@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.Platform;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.OutputStreamWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static jnr.invoke.AsmUtil.emitDefaultConstructor;
+import static jnr.invoke.AsmUtil.emitStaticFieldInitialization;
+import static jnr.invoke.CodegenUtils.ci;
+import static jnr.invoke.CodegenUtils.p;
+import static jnr.invoke.Native.STUB_NAME;
+import static jnr.invoke.Native.nextClassID;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Creates handles which make a system call directly from a native stub, instead of calling the libc wrapper.
+ */
+final class SyscallMethodHandleGenerator {
+    private static final String PAGE_HOLDER_FIELD = "pageHolder";
+
+    private SyscallMethodHandleGenerator() {
+    }
+
+    static boolean isSupported(Signature signature) {
+        if (!Platform.getPlatform().getCPU().equals(Platform.CPU.X86_64)
+                || signature.getCallingConvention() != CallingConvention.DEFAULT) {
+            return false;
+        }
+
+        ParameterType[] parameterTypes = signature.parameterTypeArray();
+        for (ParameterType parameterType : parameterTypes) {
+            if (parameterType.asPrimitiveType() != parameterType || !parameterType.javaType().isPrimitive()) {
+                return false;
+            }
+        }
+
+        return signature.getResultType().getResultConverter() == null
+                && StubCompiler.newCompiler().canCompileSyscall(signature.getResultType(), parameterTypes);
+    }
+
+    static MethodHandle createHandle(long number, Signature signature) {
+        StubCompiler compiler = StubCompiler.newCompiler();
+        AsmClassLoader classLoader = new AsmClassLoader(Native.class.getClassLoader());
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor cv = Native.DEBUG ? AsmUtil.newCheckClassAdapter(cw) : cw;
+
+        AsmBuilder builder = new AsmBuilder(p(Native.class) + "$syscall$" + nextClassID.getAndIncrement(), cv, classLoader);
+
+        cv.visit(V1_7, ACC_PUBLIC | ACC_FINAL, builder.getClassNamePath(), null, p(Object.class), new String[0]);
+
+        MethodType type = signature.methodType();
+        cv.visitMethod(ACC_PUBLIC | ACC_FINAL | ACC_NATIVE | ACC_STATIC, STUB_NAME, type.toMethodDescriptorString(), null, null).visitEnd();
+        compiler.compileSyscall(number, STUB_NAME, signature.getResultType(), signature.parameterTypeArray(), signature.saveErrno());
+
+        emitDefaultConstructor(cv);
+        emitStaticFieldInitialization(builder, cv);
+
+        cv.visitField(ACC_PUBLIC | ACC_STATIC | ACC_VOLATILE, PAGE_HOLDER_FIELD, ci(Object.class), null, null);
+        cv.visitEnd();
+
+        try {
+            Class implClass = classLoader.defineClass(builder.getClassNamePath().replace("/", "."), cw.toByteArray(),
+                    Native.DEBUG ? new OutputStreamWriter(System.err) : null);
+
+            implClass.getField(PAGE_HOLDER_FIELD).set(implClass, compiler.attach(implClass));
+
+            return MethodHandles.lookup().findStatic(implClass, STUB_NAME, type);
+
+        } catch (Throwable ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
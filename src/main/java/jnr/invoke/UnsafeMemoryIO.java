@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.lang.reflect.Field;
+
+/**
+ * Bulk copies between java arrays and native memory.
+ *
+ * jffi's {@link MemoryIO} array operations all go through JNI, so where sun.misc.Unsafe is available,
+ * it is used to do the copy directly instead.
+ */
+final class UnsafeMemoryIO {
+    private static final sun.misc.Unsafe UNSAFE = getUnsafe();
+    private static final long ARRAY_BYTE_BASE_OFFSET = arrayBaseOffset(byte[].class);
+    private static final long ARRAY_SHORT_BASE_OFFSET = arrayBaseOffset(short[].class);
+    private static final long ARRAY_CHAR_BASE_OFFSET = arrayBaseOffset(char[].class);
+    private static final long ARRAY_INT_BASE_OFFSET = arrayBaseOffset(int[].class);
+    private static final long ARRAY_LONG_BASE_OFFSET = arrayBaseOffset(long[].class);
+    private static final long ARRAY_FLOAT_BASE_OFFSET = arrayBaseOffset(float[].class);
+    private static final long ARRAY_DOUBLE_BASE_OFFSET = arrayBaseOffset(double[].class);
+
+    private static final long BUFFER_ADDRESS_OFFSET = bufferAddressOffset();
+
+    private UnsafeMemoryIO() {
+    }
+
+    static boolean isAvailable() {
+        return UNSAFE != null;
+    }
+
+    static sun.misc.Unsafe unsafe() {
+        return UNSAFE;
+    }
+
+    private static sun.misc.Unsafe getUnsafe() {
+        try {
+            Field f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            return (sun.misc.Unsafe) f.get(null);
+
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    private static long bufferAddressOffset() {
+        try {
+            if (UNSAFE != null) {
+                Field address = java.nio.Buffer.class.getDeclaredField("address");
+                if (address.getType() == long.class) {
+                    return UNSAFE.objectFieldOffset(address);
+                }
+            }
+        } catch (Throwable t) {
+        }
+
+        return -1L;
+    }
+
+    /**
+     * Gets the native address of a direct buffer, reading the address field of the buffer directly
+     * instead of making a JNI call.
+     */
+    static long getDirectBufferAddress(java.nio.Buffer buffer) {
+        return BUFFER_ADDRESS_OFFSET != -1L
+                ? UNSAFE.getLong(buffer, BUFFER_ADDRESS_OFFSET)
+                : MemoryIO.getInstance().getDirectBufferAddress(buffer);
+    }
+
+    private static long arrayBaseOffset(Class arrayClass) {
+        return UNSAFE != null ? UNSAFE.arrayBaseOffset(arrayClass) : 0L;
+    }
+
+    static void putArray(long address, byte[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(array, ARRAY_BYTE_BASE_OFFSET + offset, null, address, length);
+        } else {
+            MemoryIO.getInstance().putByteArray(address, array, offset, length);
+        }
+    }
+
+    static void getArray(long address, byte[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(null, address, array, ARRAY_BYTE_BASE_OFFSET + offset, length);
+        } else {
+            MemoryIO.getInstance().getByteArray(address, array, offset, length);
+        }
+    }
+
+    static void putArray(long address, short[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(array, ARRAY_SHORT_BASE_OFFSET + ((long) offset << 1), null, address, (long) length << 1);
+        } else {
+            MemoryIO.getInstance().putShortArray(address, array, offset, length);
+        }
+    }
+
+    static void getArray(long address, short[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(null, address, array, ARRAY_SHORT_BASE_OFFSET + ((long) offset << 1), (long) length << 1);
+        } else {
+            MemoryIO.getInstance().getShortArray(address, array, offset, length);
+        }
+    }
+
+    static void putArray(long address, char[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(array, ARRAY_CHAR_BASE_OFFSET + ((long) offset << 1), null, address, (long) length << 1);
+        } else {
+            MemoryIO.getInstance().putCharArray(address, array, offset, length);
+        }
+    }
+
+    static void getArray(long address, char[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(null, address, array, ARRAY_CHAR_BASE_OFFSET + ((long) offset << 1), (long) length << 1);
+        } else {
+            MemoryIO.getInstance().getCharArray(address, array, offset, length);
+        }
+    }
+
+    static void putArray(long address, int[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(array, ARRAY_INT_BASE_OFFSET + ((long) offset << 2), null, address, (long) length << 2);
+        } else {
+            MemoryIO.getInstance().putIntArray(address, array, offset, length);
+        }
+    }
+
+    static void getArray(long address, int[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(null, address, array, ARRAY_INT_BASE_OFFSET + ((long) offset << 2), (long) length << 2);
+        } else {
+            MemoryIO.getInstance().getIntArray(address, array, offset, length);
+        }
+    }
+
+    static void putArray(long address, long[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(array, ARRAY_LONG_BASE_OFFSET + ((long) offset << 3), null, address, (long) length << 3);
+        } else {
+            MemoryIO.getInstance().putLongArray(address, array, offset, length);
+        }
+    }
+
+    static void getArray(long address, long[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(null, address, array, ARRAY_LONG_BASE_OFFSET + ((long) offset << 3), (long) length << 3);
+        } else {
+            MemoryIO.getInstance().getLongArray(address, array, offset, length);
+        }
+    }
+
+    static void putArray(long address, float[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(array, ARRAY_FLOAT_BASE_OFFSET + ((long) offset << 2), null, address, (long) length << 2);
+        } else {
+            MemoryIO.getInstance().putFloatArray(address, array, offset, length);
+        }
+    }
+
+    static void getArray(long address, float[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(null, address, array, ARRAY_FLOAT_BASE_OFFSET + ((long) offset << 2), (long) length << 2);
+        } else {
+            MemoryIO.getInstance().getFloatArray(address, array, offset, length);
+        }
+    }
+
+    static void putArray(long address, double[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(array, ARRAY_DOUBLE_BASE_OFFSET + ((long) offset << 3), null, address, (long) length << 3);
+        } else {
+            MemoryIO.getInstance().putDoubleArray(address, array, offset, length);
+        }
+    }
+
+    static void getArray(long address, double[] array, int offset, int length) {
+        if (UNSAFE != null) {
+            UNSAFE.copyMemory(null, address, array, ARRAY_DOUBLE_BASE_OFFSET + ((long) offset << 3), (long) length << 3);
+        } else {
+            MemoryIO.getInstance().getDoubleArray(address, array, offset, length);
+        }
+    }
+}
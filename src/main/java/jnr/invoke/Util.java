@@ -37,6 +37,27 @@ final class Util {
         }
     }
 
+    private static final MethodHandle IS_VIRTUAL_HANDLE = getIsVirtualHandle();
+
+    private static MethodHandle getIsVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tests if a thread is a virtual thread, on java versions that support them.
+     */
+    static boolean isVirtual(Thread thread) {
+        try {
+            return IS_VIRTUAL_HANDLE != null && (boolean) IS_VIRTUAL_HANDLE.invokeExact(thread);
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
     static int sizeof(NativeType nativeType) {
         return nativeType.size();
     }
@@ -51,6 +72,20 @@ final class Util {
         return javaTypes;
     }
 
+    /**
+     * Gets the parameter types which appear in the java method type, i.e. all except out-scalar parameters.
+     */
+    static ParameterType[] javaParameterTypes(ParameterType[] parameterTypes) {
+        List<ParameterType> javaParameterTypes = new ArrayList<ParameterType>(parameterTypes.length);
+        for (ParameterType parameterType : parameterTypes) {
+            if (parameterType.isJavaParameter()) {
+                javaParameterTypes.add(parameterType);
+            }
+        }
+
+        return javaParameterTypes.toArray(new ParameterType[javaParameterTypes.size()]);
+    }
+
     static MethodHandle getNotNullHandle() {
         return findStatic(AsmRuntime.class, "notNull", MethodType.methodType(boolean.class, Object.class));
     }
@@ -93,26 +128,6 @@ final class Util {
         return primitiveParameterTypes;
     }
 
-
-    static MethodHandle getDirectCheckHandle(MethodHandle strategyLookup) {
-        return MethodHandles.filterArguments(getStrategyIsDirectHandle(), 0, strategyLookup);
-    }
-
-    static MethodHandle getDirectAddressHandle(MethodHandle strategyLookup) {
-        MethodHandle addressHandle = getStrategyAddressHandle()
-                .asType(MethodType.methodType(long.class, ObjectParameterStrategy.class, strategyLookup.type().parameterType(0)));
-        return MethodHandles.foldArguments(addressHandle, strategyLookup);
-    }
-
-    private static MethodHandle getStrategyIsDirectHandle() {
-        return findVirtual(com.kenai.jffi.ObjectParameterStrategy.class, "isDirect", MethodType.methodType(boolean.class))
-                .asType(MethodType.methodType(boolean.class, ObjectParameterStrategy.class));
-    }
-
-    private static MethodHandle getStrategyAddressHandle() {
-        return findVirtual(com.kenai.jffi.ObjectParameterStrategy.class, "address", MethodType.methodType(long.class, Object.class));
-    }
-
     static int countObjects(ParameterType... parameterTypes) {
         int objectCount = 0;
         for (ParameterType p : parameterTypes) {
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.MemoryIO;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A typed accessor for a global variable exported by a native library.
+ *
+ * Reads and writes access the memory of the variable directly, without calling native code.  Integer values are
+ * sign or zero extended according to the native type of the variable.
+ */
+public final class Variable implements Addressable {
+    private static final MemoryIO IO = MemoryIO.getInstance();
+    /** Keeps the library loaded while the variable is in use */
+    private final Library.Reference reference;
+    private final NativeType nativeType;
+    private final long address;
+
+    Variable(Library.Reference reference, NativeType nativeType, long address) {
+        this.reference = reference;
+        this.nativeType = nativeType;
+        this.address = address;
+    }
+
+    public long address() {
+        return address;
+    }
+
+    public NativeType nativeType() {
+        return nativeType;
+    }
+
+    public int getInt() {
+        return (int) getLong();
+    }
+
+    public long getLong() {
+        switch (nativeType) {
+            case SCHAR:
+                return IO.getByte(address);
+            case UCHAR:
+                return IO.getByte(address) & 0xffL;
+            case SSHORT:
+                return IO.getShort(address);
+            case USHORT:
+                return IO.getShort(address) & 0xffffL;
+            case FLOAT:
+                return (long) IO.getFloat(address);
+            case DOUBLE:
+                return (long) IO.getDouble(address);
+            default:
+                if (nativeType.size() == 4) {
+                    return nativeType.isUnsigned() ? IO.getInt(address) & 0xffffffffL : IO.getInt(address);
+                }
+                return IO.getLong(address);
+        }
+    }
+
+    public float getFloat() {
+        return nativeType == NativeType.FLOAT ? IO.getFloat(address) : (float) getDouble();
+    }
+
+    public double getDouble() {
+        switch (nativeType) {
+            case FLOAT:
+                return IO.getFloat(address);
+            case DOUBLE:
+                return IO.getDouble(address);
+            default:
+                return getLong();
+        }
+    }
+
+    public void setInt(int value) {
+        setLong(nativeType.isUnsigned() ? value & 0xffffffffL : value);
+    }
+
+    public void setLong(long value) {
+        switch (nativeType) {
+            case SCHAR:
+            case UCHAR:
+                IO.putByte(address, (byte) value);
+                break;
+            case SSHORT:
+            case USHORT:
+                IO.putShort(address, (short) value);
+                break;
+            case FLOAT:
+                IO.putFloat(address, value);
+                break;
+            case DOUBLE:
+                IO.putDouble(address, value);
+                break;
+            default:
+                if (nativeType.size() == 4) {
+                    IO.putInt(address, (int) value);
+                } else {
+                    IO.putLong(address, value);
+                }
+                break;
+        }
+    }
+
+    public void setFloat(float value) {
+        setDouble(value);
+    }
+
+    public void setDouble(double value) {
+        switch (nativeType) {
+            case FLOAT:
+                IO.putFloat(address, (float) value);
+                break;
+            case DOUBLE:
+                IO.putDouble(address, value);
+                break;
+            default:
+                setLong((long) value);
+                break;
+        }
+    }
+
+    /**
+     * Creates a direct buffer view of the memory of the variable, in native byte order.
+     *
+     * @return a new buffer.
+     */
+    public ByteBuffer asByteBuffer() {
+        return IO.newDirectByteBuffer(address, nativeType.size()).order(ByteOrder.nativeOrder());
+    }
+}
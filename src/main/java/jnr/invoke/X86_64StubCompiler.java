@@ -19,8 +19,12 @@
 package jnr.invoke;
 
 import jnr.x86asm.Assembler;
+import jnr.x86asm.Mem;
 import jnr.x86asm.REG;
 import jnr.x86asm.Register;
+import jnr.x86asm.XMMRegister;
+
+import java.util.List;
 
 import static jnr.invoke.CodegenUtils.sig;
 import static jnr.x86asm.Asm.*;
@@ -108,6 +112,22 @@ final class X86_64StubCompiler extends AbstractX86StubCompiler {
     @Override
     final void compile(long function, String name, ResultType resultType, ParameterType[] parameterTypes,
                        Class resultClass, Class[] parameterClasses, CallingConvention convention, boolean saveErrno) {
+        compile(function, false, name, resultType, parameterTypes, resultClass, parameterClasses, saveErrno);
+    }
+
+    @Override
+    boolean canCompileIndirect() {
+        return true;
+    }
+
+    @Override
+    void compileIndirect(long slot, String name, ResultType resultType, ParameterType[] parameterTypes,
+                         Class resultClass, Class[] parameterClasses, boolean saveErrno) {
+        compile(slot, true, name, resultType, parameterTypes, resultClass, parameterClasses, saveErrno);
+    }
+
+    private void compile(long function, boolean indirect, String name, ResultType resultType, ParameterType[] parameterTypes,
+                         Class resultClass, Class[] parameterClasses, boolean saveErrno) {
 
         Assembler a = new Assembler(X86_64);
         int iCount = iCount(parameterTypes);
@@ -186,7 +206,7 @@ final class X86_64StubCompiler extends AbstractX86StubCompiler {
 
         // For args 5 & 6 of the function, they would have been pushed on the stack
         for (int i = 4; i < iCount; i++) {
-            int disp = 8 + ((4 - i) * 8);
+            int disp = 8 + ((i - 4) * 8);
             switch (parameterTypes[i].nativeType()) {
                 case SCHAR:
                     a.movsx(dstRegisters64[i], byte_ptr(rsp, disp));
@@ -226,7 +246,13 @@ final class X86_64StubCompiler extends AbstractX86StubCompiler {
         }
 
         if (canJumpToTarget) {
-            a.jmp(imm(function));
+            if (indirect) {
+                // %r11 is neither an argument register nor preserved across calls, so it is free to hold the slot
+                a.mov(r11, imm(function));
+                a.jmp(qword_ptr(r11, 0));
+            } else {
+                a.jmp(imm(function));
+            }
             stubs.add(new Stub(name, sig(resultClass, parameterClasses), a));
             return;
         }
@@ -242,7 +268,12 @@ final class X86_64StubCompiler extends AbstractX86StubCompiler {
         a.xor_(eax, eax);
 
         // Call to the actual native function
-        a.call(imm(function));
+        if (indirect) {
+            a.mov(r11, imm(function));
+            a.call(qword_ptr(r11, 0));
+        } else {
+            a.call(imm(function));
+        }
 
         if (saveErrno) {
             // Save the return on the stack
@@ -346,6 +377,571 @@ final class X86_64StubCompiler extends AbstractX86StubCompiler {
         stubs.add(new Stub(name, sig(resultClass, parameterClasses), a));
     }
 
+    @Override
+    boolean canCompileBatch(ResultType returnType, ParameterType[] parameterTypes, CallingConvention convention) {
+        if (!canCompile(returnType, parameterTypes, convention) || !isBatchType(returnType)) {
+            return false;
+        }
+
+        for (ParameterType parameterType : parameterTypes) {
+            if (!isBatchType(parameterType)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isBatchType(SignatureType type) {
+        switch (type.nativeType()) {
+            case VOID:
+                return void.class == type.javaType();
+
+            case FLOAT:
+                return float.class == type.javaType();
+
+            case DOUBLE:
+                return double.class == type.javaType();
+
+            default:
+                return byte.class == type.javaType() || short.class == type.javaType() || char.class == type.javaType()
+                        || int.class == type.javaType() || long.class == type.javaType();
+        }
+    }
+
+    @Override
+    void compileBatch(long function, String name, ResultType resultType, ParameterType[] parameterTypes) {
+        Assembler a = new Assembler(X86_64);
+
+        // Save the callee-saved registers used to hold the loop state.  Five pushes plus the return address
+        // leaves the stack 16 byte aligned for the calls to the function.
+        a.push(rbx);
+        a.push(r12);
+        a.push(r13);
+        a.push(r14);
+        a.push(r15);
+
+        // JNI args: env in %rdi, class in %rsi, columns in %rdx, results in %rcx, start in %r8d, end in %r9d
+        a.mov(r12, rdx);
+        a.mov(r13, rcx);
+        a.movsxd(rbx, srcRegisters32[2]);
+        a.movsxd(r14, srcRegisters32[3]);
+
+        a.cmp(rbx, r14);
+        int skipLoop = jccPlaceholder(a);
+
+        int loop = a.offset();
+        int iCount = 0, fCount = 0;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            ParameterType parameterType = parameterTypes[i];
+            int shift = shift(parameterType.javaType());
+
+            // Load the address of the argument array
+            a.mov(rax, qword_ptr(r12, i * 8));
+
+            switch (parameterType.nativeType()) {
+                case FLOAT:
+                    a.movss(xmm(fCount++), dword_ptr(rax, rbx, shift, 0));
+                    break;
+
+                case DOUBLE:
+                    a.movsd(xmm(fCount++), qword_ptr(rax, rbx, shift, 0));
+                    break;
+
+                default:
+                    loadBatchArgument(a, iCount++, parameterType, shift);
+                    break;
+            }
+        }
+
+        // Clear %rax, since it is used by varargs functions to determine the number of float registers to be saved
+        a.xor_(eax, eax);
+        a.call(imm(function));
+
+        if (resultType.nativeType() != NativeType.VOID) {
+            int shift = shift(resultType.javaType());
+            switch (resultType.nativeType()) {
+                case FLOAT:
+                    a.movss(dword_ptr(r13, rbx, shift, 0), xmm0);
+                    break;
+
+                case DOUBLE:
+                    a.movsd(qword_ptr(r13, rbx, shift, 0), xmm0);
+                    break;
+
+                default:
+                    // sign/zero extend the result to 64 bits, then store as many bytes as the java type needs
+                    switch (resultType.nativeType()) {
+                        case SCHAR:
+                            a.movsx(rax, al);
+                            break;
+
+                        case UCHAR:
+                            a.movzx(rax, al);
+                            break;
+
+                        case SSHORT:
+                            a.movsx(rax, ax);
+                            break;
+
+                        case USHORT:
+                            a.movzx(rax, ax);
+                            break;
+
+                        case SINT:
+                            a.movsxd(rax, eax);
+                            break;
+
+                        case UINT:
+                            a.mov(eax, eax);
+                            break;
+                    }
+
+                    switch (shift) {
+                        case 0:
+                            a.mov(byte_ptr(r13, rbx, shift, 0), al);
+                            break;
+                        case 1:
+                            a.mov(word_ptr(r13, rbx, shift, 0), ax);
+                            break;
+                        case 2:
+                            a.mov(dword_ptr(r13, rbx, shift, 0), eax);
+                            break;
+                        default:
+                            a.mov(qword_ptr(r13, rbx, shift, 0), rax);
+                            break;
+                    }
+                    break;
+            }
+        }
+
+        a.inc(rbx);
+        a.cmp(rbx, r14);
+        patchJcc(a, jccPlaceholder(a), JL, loop);
+        patchJcc(a, skipLoop, JGE, a.offset());
+
+        a.pop(r15);
+        a.pop(r14);
+        a.pop(r13);
+        a.pop(r12);
+        a.pop(rbx);
+        a.ret();
+
+        stubs.add(new Stub(name, sig(void.class, long.class, long.class, int.class, int.class), a));
+    }
+
+    @Override
+    boolean canCompileChain(CallChain chain) {
+        ParameterType[] inputs = chain.getInputs();
+        if (iCount(inputs) > 6 || fCount(inputs) > 8 || !PrimitiveX86MethodHandleGenerator.isSupportedResult(chain.getResultType())) {
+            return false;
+        }
+
+        for (CallChain.Step step : chain.getSteps()) {
+            if (step.signature.saveErrno()
+                    || !canCompile(step.signature.getResultType(), step.signature.parameterTypeArray(), step.signature.getCallingConvention())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    void compileChain(String name, CallChain chain) {
+        Assembler a = new Assembler(X86_64);
+        ParameterType[] inputs = chain.getInputs();
+        List<CallChain.Step> steps = chain.getSteps();
+
+        // Each input and each call result is kept in a 64 bit stack slot below %rbp.  Integer values are stored
+        // sign or zero extended to 64 bits, so they can be passed on as any integer type.
+        a.push(rbp);
+        a.mov(rbp, rsp);
+        a.sub(rsp, imm(align((inputs.length + steps.size()) * 8, 16)));
+
+        int iCount = 0, fCount = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            Mem slot = qword_ptr(rbp, -8 * (i + 1));
+            switch (inputs[i].nativeType()) {
+                case FLOAT:
+                    a.movss(slot, xmm(fCount++));
+                    break;
+
+                case DOUBLE:
+                    a.movsd(slot, xmm(fCount++));
+                    break;
+
+                default:
+                    // JNI passes env and class in %rdi and %rsi, so the first four integer inputs are in %rdx, %rcx,
+                    // %r8 and %r9, and the rest are on the stack above the return address
+                    if (iCount < 4) {
+                        a.mov(rax, srcRegisters64[iCount]);
+                    } else {
+                        a.mov(rax, qword_ptr(rbp, 16 + (iCount - 4) * 8));
+                    }
+                    iCount++;
+                    extendResult(a, inputs[i].nativeType());
+                    a.mov(slot, rax);
+                    break;
+            }
+        }
+
+        for (int s = 0; s < steps.size(); s++) {
+            CallChain.Step step = steps.get(s);
+            iCount = 0;
+            fCount = 0;
+
+            for (int i = 0; i < step.arguments.length; i++) {
+                CallChain.Argument argument = step.arguments[i];
+                NativeType nativeType = step.signature.getParameterType(i).nativeType();
+                Mem slot = argument.kind == CallChain.Argument.INPUT ? qword_ptr(rbp, -8 * (argument.value + 1))
+                        : argument.kind == CallChain.Argument.RESULT ? qword_ptr(rbp, -8 * (inputs.length + argument.value + 1))
+                        : null;
+
+                switch (nativeType) {
+                    case FLOAT:
+                        a.movss(xmm(fCount++), slot);
+                        break;
+
+                    case DOUBLE:
+                        a.movsd(xmm(fCount++), slot);
+                        break;
+
+                    default:
+                        if (argument.kind == CallChain.Argument.CONSTANT) {
+                            a.mov(dstRegisters64[iCount++], imm(argument.value));
+                        } else {
+                            a.mov(dstRegisters64[iCount++], slot);
+                        }
+                        break;
+                }
+            }
+
+            // Clear %rax, since it is used by varargs functions to determine the number of float registers to be saved
+            a.xor_(eax, eax);
+            a.call(imm(step.function.address()));
+
+            Mem slot = qword_ptr(rbp, -8 * (inputs.length + s + 1));
+            switch (step.signature.getResultType().nativeType()) {
+                case VOID:
+                    break;
+
+                case FLOAT:
+                    a.movss(slot, xmm0);
+                    break;
+
+                case DOUBLE:
+                    a.movsd(slot, xmm0);
+                    break;
+
+                default:
+                    extendResult(a, step.signature.getResultType().nativeType());
+                    a.mov(slot, rax);
+                    break;
+            }
+        }
+
+        Mem result = qword_ptr(rbp, -8 * (inputs.length + chain.getResultStep() + 1));
+        switch (chain.getResultType().nativeType()) {
+            case VOID:
+                break;
+
+            case FLOAT:
+                a.movss(xmm0, result);
+                break;
+
+            case DOUBLE:
+                a.movsd(xmm0, result);
+                break;
+
+            default:
+                a.mov(rax, result);
+                break;
+        }
+
+        a.mov(rsp, rbp);
+        a.pop(rbp);
+        a.ret();
+
+        Class[] parameterClasses = new Class[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            parameterClasses[i] = inputs[i].javaType();
+        }
+
+        stubs.add(new Stub(name, sig(chain.getResultType().javaType(), parameterClasses), a));
+    }
+
+    // The kernel passes syscall arguments in these registers; the same as SYSV, except %r10 instead of %rcx
+    static final Register[] syscallRegisters32 = { edi, esi, edx, Register.gpr(REG.REG_R10D), Register.gpr(REG.REG_R8D), Register.gpr(REG.REG_R9D) };
+    static final Register[] syscallRegisters64 = { rdi, rsi, rdx, r10, r8, r9 };
+
+    private static final class ErrnoLocationHolder {
+        static final long ADDRESS = com.kenai.jffi.Library.getDefault().getSymbolAddress("__errno_location");
+    }
+
+    @Override
+    boolean canCompileSyscall(ResultType returnType, ParameterType[] parameterTypes) {
+        if (com.kenai.jffi.Platform.getPlatform().getOS() != com.kenai.jffi.Platform.OS.LINUX
+                || ErrnoLocationHolder.ADDRESS == 0L
+                || fCount(parameterTypes) != 0 || iCount(parameterTypes) != parameterTypes.length || parameterTypes.length > 6) {
+            return false;
+        }
+
+        switch (returnType.nativeType()) {
+            case FLOAT:
+            case DOUBLE:
+                return false;
+
+            default:
+                return PrimitiveX86MethodHandleGenerator.isSupportedResult(returnType);
+        }
+    }
+
+    @Override
+    void compileSyscall(long number, String name, ResultType resultType, ParameterType[] parameterTypes, boolean saveErrno) {
+        Assembler a = new Assembler(X86_64);
+
+        // JNI passes env and class in %rdi and %rsi, so the first four arguments are in %rdx, %rcx, %r8 and %r9, and
+        // the rest are on the stack.  Each source register is read before it is overwritten.
+        for (int i = 0; i < parameterTypes.length; i++) {
+            loadSyscallArgument(a, i, parameterTypes[i].nativeType());
+        }
+
+        a.mov(rax, imm(number));
+
+        // syscall; the assembler has no mnemonic for it
+        int offset = a.offset();
+        a.nop();
+        a.nop();
+        a.setByteAt(offset, (byte) 0x0f);
+        a.setByteAt(offset + 1, (byte) 0x05);
+
+        int error = 0;
+        if (saveErrno) {
+            // The kernel returns -4095 to -1 for errors
+            a.cmp(rax, imm(-4095));
+            error = jccPlaceholder(a);
+        }
+
+        extendResult(a, resultType.nativeType());
+        a.ret();
+
+        if (saveErrno) {
+            patchJcc(a, error, JAE, a.offset());
+
+            // Set errno as libc would, then save it where jffi keeps it.  The slot for the error also aligns the
+            // stack to 16 bytes for the calls.
+            a.neg(rax);
+            a.push(rax);
+            a.call(imm(ErrnoLocationHolder.ADDRESS));
+            a.pop(rcx);
+            a.mov(dword_ptr(rax, 0), ecx);
+            a.push(rcx);
+            a.call(imm(errnoFunctionAddress));
+            a.pop(rcx);
+
+            a.mov(rax, imm(-1));
+            extendResult(a, resultType.nativeType());
+            a.ret();
+        }
+
+        Class[] parameterClasses = new Class[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterClasses[i] = parameterTypes[i].javaType();
+        }
+
+        stubs.add(new Stub(name, sig(resultType.javaType(), parameterClasses), a));
+    }
+
+    private static void loadSyscallArgument(Assembler a, int index, NativeType nativeType) {
+        Register dst = syscallRegisters64[index];
+        if (index < 4) {
+            switch (nativeType) {
+                case SCHAR:
+                    a.movsx(dst, srcRegisters8[index]);
+                    break;
+
+                case UCHAR:
+                    a.movzx(dst, srcRegisters8[index]);
+                    break;
+
+                case SSHORT:
+                    a.movsx(dst, srcRegisters16[index]);
+                    break;
+
+                case USHORT:
+                    a.movzx(dst, srcRegisters16[index]);
+                    break;
+
+                case SINT:
+                    a.movsxd(dst, srcRegisters32[index]);
+                    break;
+
+                case UINT:
+                    // mov with a 32bit dst reg zero extends to 64bit
+                    a.mov(syscallRegisters32[index], srcRegisters32[index]);
+                    break;
+
+                default:
+                    a.mov(dst, srcRegisters64[index]);
+                    break;
+            }
+
+        } else {
+            int disp = 8 + ((index - 4) * 8);
+            switch (nativeType) {
+                case SCHAR:
+                    a.movsx(dst, byte_ptr(rsp, disp));
+                    break;
+
+                case UCHAR:
+                    a.movzx(dst, byte_ptr(rsp, disp));
+                    break;
+
+                case SSHORT:
+                    a.movsx(dst, word_ptr(rsp, disp));
+                    break;
+
+                case USHORT:
+                    a.movzx(dst, word_ptr(rsp, disp));
+                    break;
+
+                case SINT:
+                    a.movsxd(dst, dword_ptr(rsp, disp));
+                    break;
+
+                case UINT:
+                    a.mov(syscallRegisters32[index], dword_ptr(rsp, disp));
+                    break;
+
+                default:
+                    a.mov(dst, qword_ptr(rsp, disp));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Sign or zero extends an integer value in %rax to 64 bits, according to its native type.
+     */
+    private static void extendResult(Assembler a, NativeType nativeType) {
+        switch (nativeType) {
+            case SCHAR:
+                a.movsx(rax, al);
+                break;
+
+            case UCHAR:
+                a.movzx(rax, al);
+                break;
+
+            case SSHORT:
+                a.movsx(rax, ax);
+                break;
+
+            case USHORT:
+                a.movzx(rax, ax);
+                break;
+
+            case SINT:
+                a.movsxd(rax, eax);
+                break;
+
+            case UINT:
+                a.mov(eax, eax);
+                break;
+
+            case SLONG:
+            case ULONG:
+            case POINTER:
+                if (nativeType.size() == 4) {
+                    if (nativeType.isUnsigned()) {
+                        a.mov(eax, eax);
+                    } else {
+                        a.movsxd(rax, eax);
+                    }
+                }
+                break;
+        }
+    }
+
+    private static void loadBatchArgument(Assembler a, int index, ParameterType parameterType, int shift) {
+        // Load no more bytes than either the java or native type holds, extending according to the native type
+        int size = Math.min(1 << shift, parameterType.nativeType().size());
+        boolean unsigned = parameterType.nativeType().isUnsigned();
+        switch (size) {
+            case 1:
+                if (unsigned) {
+                    a.movzx(dstRegisters64[index], byte_ptr(rax, rbx, shift, 0));
+                } else {
+                    a.movsx(dstRegisters64[index], byte_ptr(rax, rbx, shift, 0));
+                }
+                break;
+
+            case 2:
+                if (unsigned) {
+                    a.movzx(dstRegisters64[index], word_ptr(rax, rbx, shift, 0));
+                } else {
+                    a.movsx(dstRegisters64[index], word_ptr(rax, rbx, shift, 0));
+                }
+                break;
+
+            case 4:
+                if (unsigned) {
+                    // mov with a 32bit dst reg zero extends to 64bit
+                    a.mov(dstRegisters32[index], dword_ptr(rax, rbx, shift, 0));
+                } else {
+                    a.movsxd(dstRegisters64[index], dword_ptr(rax, rbx, shift, 0));
+                }
+                break;
+
+            default:
+                a.mov(dstRegisters64[index], qword_ptr(rax, rbx, shift, 0));
+                break;
+        }
+    }
+
+    private static XMMRegister xmm(int index) {
+        return new XMMRegister[] { xmm0, xmm1, xmm2, xmm3, xmm4, xmm5, xmm6, xmm7 }[index];
+    }
+
+    private static int shift(Class javaType) {
+        if (byte.class == javaType) {
+            return 0;
+        } else if (short.class == javaType || char.class == javaType) {
+            return 1;
+        } else if (int.class == javaType || float.class == javaType) {
+            return 2;
+        } else {
+            return 3;
+        }
+    }
+
+    // The second opcode byte of the near (rel32) forms of the conditional jumps
+    static final int JB = 0x82;
+    static final int JAE = 0x83;
+    static final int JZ = 0x84;
+    static final int JNZ = 0x85;
+    static final int JL = 0x8c;
+    static final int JGE = 0x8d;
+
+    /**
+     * Reserves space for a near conditional jump, to be filled in by {@link #patchJcc} once the target is known.
+     */
+    static int jccPlaceholder(Assembler a) {
+        int offset = a.offset();
+        for (int i = 0; i < 6; i++) {
+            a.nop();
+        }
+
+        return offset;
+    }
+
+    static void patchJcc(Assembler a, int offset, int opcode, int target) {
+        a.setByteAt(offset, (byte) 0x0f);
+        a.setByteAt(offset + 1, (byte) opcode);
+        a.setDWordAt(offset + 2, target - (offset + 6));
+    }
+
     static int fCount(ParameterType[] parameterTypes) {
         int fCount = 0;
 
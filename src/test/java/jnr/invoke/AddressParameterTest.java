@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import com.kenai.jffi.MemoryIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AddressParameterTest {
+    private static final ParameterType SIZE_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+    private static final ResultType LONG_RESULT = ResultType.primitive(NativeType.SLONG, long.class);
+
+    private Library libc;
+    private Memory a, b;
+
+    public static final class Memory implements Addressable {
+        private final long address;
+
+        Memory(long size) {
+            this.address = MemoryIO.getInstance().allocateMemory(size, true);
+        }
+
+        public long address() {
+            return address;
+        }
+
+        public static long addressOf(Memory memory) {
+            return memory.address;
+        }
+
+        void free() {
+            MemoryIO.getInstance().freeMemory(address);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+        a = new Memory(8);
+        b = new Memory(8);
+    }
+
+    @After
+    public void tearDown() {
+        if (a != null) {
+            a.free();
+            b.free();
+        }
+    }
+
+    private MethodHandle memcmp(ParameterType memory) {
+        return Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT, memory, memory, SIZE_PARAMETER),
+                libc.getFunction("memcmp"));
+    }
+
+    @Test
+    public void addressableParameters() throws Throwable {
+        MethodHandle memcmp = memcmp(ParameterType.address(Memory.class, false));
+        assertEquals(0, (int) memcmp.invokeExact(a, b, 8L));
+
+        MemoryIO.getInstance().putByte(b.address() + 7, (byte) 1);
+        assertTrue((int) memcmp.invokeExact(a, b, 8L) < 0);
+    }
+
+    @Test
+    public void addressHandleParameters() throws Throwable {
+        MethodHandle addressOf = MethodHandles.publicLookup().findStatic(Memory.class, "addressOf",
+                MethodType.methodType(long.class, Memory.class));
+        MethodHandle memcmp = memcmp(ParameterType.address(Memory.class, addressOf, false));
+
+        MemoryIO.getInstance().putByte(a.address(), (byte) 2);
+        assertTrue((int) memcmp.invokeExact(a, b, 8L) > 0);
+    }
+
+    @Test
+    public void nullableParameters() throws Throwable {
+        // time(time_t *tloc) stores the time in *tloc, unless it is NULL
+        MethodHandle time = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, LONG_RESULT,
+                ParameterType.address(Memory.class, true)), libc.getFunction("time"));
+        long now = System.currentTimeMillis() / 1000;
+        assertTrue(Math.abs((long) time.invokeExact((Memory) null) - now) < 60);
+
+        long t = (long) time.invokeExact(a);
+        assertEquals(t, MemoryIO.getInstance().getLong(a.address()));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void nonNullableParameters() throws Throwable {
+        MethodHandle memcmp = memcmp(ParameterType.address(Memory.class, false));
+        int result = (int) memcmp.invokeExact(a, (Memory) null, 8L);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ArrayPinningPolicyTest {
+    private static final ResultType VOID_RESULT = ResultType.primitive(NativeType.VOID, void.class);
+    private static final ParameterType SIZE_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    private MethodHandle memset(int flags, ArrayPinningPolicy policy) {
+        return Native.getMethodHandle(Signature.getSignature(flags, VOID_RESULT,
+                ParameterType.array(byte[].class, DataDirection.INOUT, policy), INT_PARAMETER, SIZE_PARAMETER),
+                libc.getFunction("memset"));
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    public void pinsLargeArraysOfLeafFunctions() throws Throwable {
+        ArrayPinningPolicy policy = ArrayPinningPolicy.threshold(64);
+        MethodHandle memset = memset(Signature.LEAF, policy);
+
+        byte[] small = new byte[63];
+        memset.invokeExact(small, 1, (long) small.length);
+        assertArrayEquals(filled(63, 1), small);
+        assertEquals(1, policy.getCopiedCount());
+        assertEquals(0, policy.getPinnedCount());
+
+        byte[] large = new byte[4096];
+        memset.invokeExact(large, 2, (long) large.length);
+        assertArrayEquals(filled(4096, 2), large);
+        assertEquals(1, policy.getCopiedCount());
+        assertEquals(1, policy.getPinnedCount());
+    }
+
+    @Test
+    public void thresholdIsInBytes() throws Throwable {
+        ArrayPinningPolicy policy = ArrayPinningPolicy.threshold(64);
+        MethodHandle memset = Native.getMethodHandle(Signature.getSignature(Signature.LEAF, VOID_RESULT,
+                ParameterType.array(int[].class, DataDirection.INOUT, policy), INT_PARAMETER, SIZE_PARAMETER),
+                libc.getFunction("memset"));
+
+        int[] ints = new int[16];
+        memset.invokeExact(ints, 0xff, 64L);
+        assertEquals(-1, ints[15]);
+        assertEquals(1, policy.getPinnedCount());
+    }
+
+    @Test
+    public void copiesArraysOfOtherFunctions() throws Throwable {
+        ArrayPinningPolicy policy = ArrayPinningPolicy.threshold(0);
+        MethodHandle memset = memset(Signature.DEFAULT, policy);
+
+        byte[] bytes = new byte[4096];
+        memset.invokeExact(bytes, 3, (long) bytes.length);
+        assertArrayEquals(filled(4096, 3), bytes);
+        assertEquals(0, policy.getPinnedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeThreshold() {
+        ArrayPinningPolicy.threshold(-1);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncMethodHandleTest {
+    private Library libc;
+    private NativeCallExecutor executor;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+        executor = new NativeCallExecutor(1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void completesWithTheResult() throws Throwable {
+        MethodHandle abs = Native.getAsyncMethodHandle(INT_INT, libc.getFunction("abs"), executor);
+        assertEquals(CompletableFuture.class, abs.type().returnType());
+        CompletableFuture<?> future = (CompletableFuture<?>) abs.invokeExact(-5);
+        assertEquals(5, future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void defaultExecutor() throws Throwable {
+        MethodHandle abs = Native.getAsyncMethodHandle(INT_INT, libc.getFunction("abs"));
+        assertEquals(9, ((CompletableFuture<?>) abs.invokeExact(-9)).get(10, TimeUnit.SECONDS));
+    }
+
+    static long currentThreadId() {
+        return Thread.currentThread().getId();
+    }
+
+    @Test
+    public void runsOnTheExecutor() throws Throwable {
+        MethodHandle id = Native.asAsync(MethodHandles.lookup().findStatic(AsyncMethodHandleTest.class, "currentThreadId",
+                MethodType.methodType(long.class)), executor);
+        Object threadId = ((CompletableFuture<?>) id.invokeExact()).get(10, TimeUnit.SECONDS);
+        assertTrue(threadId instanceof Long && (Long) threadId != Thread.currentThread().getId());
+    }
+
+    static int reject(int value) {
+        throw new IllegalArgumentException("bad value " + value);
+    }
+
+    @Test
+    public void completesWithTheException() throws Throwable {
+        MethodHandle target = Native.asAsync(MethodHandles.lookup().findStatic(AsyncMethodHandleTest.class, "reject",
+                MethodType.methodType(int.class, int.class)), executor);
+        try {
+            ((CompletableFuture<?>) target.invokeExact(3)).get(10, TimeUnit.SECONDS);
+            fail("expected an exception");
+        } catch (ExecutionException ex) {
+            assertEquals("bad value 3", ex.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsCallsWhenTheQueueIsFull() throws Throwable {
+        // int usleep(useconds_t usec) keeps the only thread busy, while a second call fills the queue
+        MethodHandle usleep = Native.getAsyncMethodHandle(INT_INT, libc.getFunction("usleep"), executor);
+        CompletableFuture<?> running = (CompletableFuture<?>) usleep.invokeExact(200000);
+        CompletableFuture<?> queued = (CompletableFuture<?>) usleep.invokeExact(1000);
+        CompletableFuture<?> rejected = (CompletableFuture<?>) usleep.invokeExact(1000);
+
+        try {
+            rejected.get(10, TimeUnit.SECONDS);
+            fail("expected the call to be rejected");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(0, running.get(10, TimeUnit.SECONDS));
+        assertEquals(0, queued.get(10, TimeUnit.SECONDS));
+        assertEquals(1, executor.getRejectedCount());
+        assertEquals(1, executor.getPeakQueueSize());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectsErrno() {
+        Native.getAsyncMethodHandle(Signature.getSignature(Signature.SAVE_ERRNO, INT_RESULT, INT_PARAMETER),
+                libc.getFunction("close"), executor);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void rejectsOutScalars() {
+        Native.getAsyncMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.DOUBLE, double.class), ParameterType.primitive(NativeType.DOUBLE, double.class),
+                ParameterType.out(NativeType.SINT)), libc.getFunction("frexp"), executor);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BatchMethodHandleTest {
+    private Library libc;
+    private MethodHandle abs;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+        abs = Native.getMethodHandle(INT_INT, libc.getFunction("abs"));
+    }
+
+    private int[] scalarResults(int[] values) throws Throwable {
+        int[] results = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            results[i] = (int) abs.invokeExact(values[i]);
+        }
+
+        return results;
+    }
+
+    private static int[] values(int count) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = (i & 1) == 0 ? -i * 7 : i * 3;
+        }
+
+        return values;
+    }
+
+    @Test
+    public void heapArrays() throws Throwable {
+        MethodHandle batch = Native.getBatchMethodHandle(INT_INT, libc.getFunction("abs"), 0);
+        int[] values = values(1000);
+        int[] results = new int[values.length];
+        batch.invoke(values, results, values.length);
+        assertArrayEquals(scalarResults(values), results);
+    }
+
+    @Test
+    public void countLimitsCalls() throws Throwable {
+        MethodHandle batch = Native.getBatchMethodHandle(INT_INT, libc.getFunction("abs"), 0);
+        int[] results = new int[] { -1, -1, -1 };
+        batch.invoke(new int[] { -1, -2, -3 }, results, 2);
+        assertArrayEquals(new int[] { 1, 2, -1 }, results);
+    }
+
+    @Test
+    public void directBuffers() throws Throwable {
+        MethodHandle batch = Native.getBatchMethodHandle(INT_INT, libc.getFunction("abs"), 0);
+        int[] values = values(100);
+        IntBuffer parameters = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        IntBuffer results = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        parameters.put(values).flip();
+        batch.invoke(parameters, results, values.length);
+
+        int[] expected = scalarResults(values);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(expected[i], results.get(i));
+        }
+    }
+
+    @Test
+    public void parallelBatch() throws Throwable {
+        MethodHandle batch = Native.getBatchMethodHandle(INT_INT, libc.getFunction("abs"), 64);
+        int[] values = values(10000);
+        int[] results = new int[values.length];
+        batch.invoke(values, results, values.length);
+        assertArrayEquals(scalarResults(values), results);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import com.kenai.jffi.LastError;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class BlockingCallTest {
+    private static final int EBADF = 9;
+    private static final ParameterType SIZE_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+
+    private Library libc;
+    private int[] pipe;
+    private MethodHandle read, write;
+
+    @Before
+    public void setUp() throws Throwable {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+
+        MethodHandle pipe = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                ParameterType.array(int[].class, DataDirection.OUT)), libc.getFunction("pipe"));
+        this.pipe = new int[2];
+        assertEquals(0, (int) pipe.invokeExact(this.pipe));
+
+        // ssize_t read(int fd, void *buf, size_t count), and write, with a byte array buffer
+        ResultType sizeResult = ResultType.primitive(NativeType.SLONG, long.class);
+        read = Native.getMethodHandle(Signature.getSignature(Signature.BLOCKING, sizeResult, INT_PARAMETER,
+                ParameterType.array(byte[].class, DataDirection.OUT), SIZE_PARAMETER), libc.getFunction("read"));
+        write = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, sizeResult, INT_PARAMETER,
+                ParameterType.array(byte[].class, DataDirection.IN), SIZE_PARAMETER), libc.getFunction("write"));
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        if (pipe != null) {
+            MethodHandle close = Native.getMethodHandle(INT_INT, libc.getFunction("close"));
+            int result = (int) close.invokeExact(pipe[0]);
+            result = (int) close.invokeExact(pipe[1]);
+        }
+    }
+
+    @Test
+    public void callsFromPlatformThreads() throws Throwable {
+        MethodHandle abs = Native.getMethodHandle(Signature.getSignature(Signature.BLOCKING, INT_RESULT, INT_PARAMETER),
+                libc.getFunction("abs"));
+        assertEquals(4, (int) abs.invokeExact(-4));
+
+        long written = (long) write.invokeExact(pipe[1], new byte[] { 42 }, 1L);
+        byte[] buffer = new byte[1];
+        assertEquals(1L, (long) read.invokeExact(pipe[0], buffer, 1L));
+        assertEquals(42, buffer[0]);
+    }
+
+    @Test
+    public void forkJoinPoolsCompensateForBlockedWorkers() throws Exception {
+        // With a parallelism of 1, the writer only runs if the pool adds a worker while the reader is blocked
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            final byte[] buffer = new byte[1];
+            Future<Long> reader = pool.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    try {
+                        return (long) read.invokeExact(pipe[0], buffer, 1L);
+                    } catch (Throwable t) {
+                        throw new Exception(t);
+                    }
+                }
+            });
+            Thread.sleep(100);
+            Future<Long> writer = pool.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    try {
+                        return (long) write.invokeExact(pipe[1], new byte[] { 7 }, 1L);
+                    } catch (Throwable t) {
+                        throw new Exception(t);
+                    }
+                }
+            });
+
+            assertEquals(1L, (long) writer.get(10, TimeUnit.SECONDS));
+            assertEquals(1L, (long) reader.get(10, TimeUnit.SECONDS));
+            assertEquals(7, buffer[0]);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void errnoIsCarriedBackToVirtualThreads() throws Throwable {
+        final Method startVirtualThread;
+        try {
+            startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException ex) {
+            assumeTrue(false);
+            return;
+        }
+
+        final MethodHandle close = Native.getMethodHandle(Signature.getSignature(Signature.BLOCKING | Signature.SAVE_ERRNO,
+                INT_RESULT, INT_PARAMETER), libc.getFunction("close"));
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread thread = (Thread) startVirtualThread.invoke(null, new Runnable() {
+            public void run() {
+                try {
+                    LastError.getInstance().set(0);
+                    int value = (int) close.invokeExact(-1);
+                    result.set(value + ":" + LastError.getInstance().get());
+                } catch (Throwable t) {
+                    result.set(t);
+                }
+            }
+        });
+        thread.join(10000);
+
+        assertEquals("-1:" + EBADF, result.get());
+    }
+}
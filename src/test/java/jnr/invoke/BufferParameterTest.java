@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferParameterTest {
+    private static final ParameterType SIZE_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    private MethodHandle memcmp(Class<? extends java.nio.Buffer> bufferClass) {
+        ParameterType buffer = ParameterType.buffer(bufferClass, DataDirection.IN);
+        return Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT, buffer, buffer, SIZE_PARAMETER),
+                libc.getFunction("memcmp"));
+    }
+
+    private static ByteBuffer direct(String s) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put(i, (byte) s.charAt(i));
+        }
+
+        return buffer;
+    }
+
+    @Test
+    public void directBuffers() throws Throwable {
+        MethodHandle memcmp = memcmp(ByteBuffer.class);
+        assertEquals(0, (int) memcmp.invokeExact(direct("abcdef"), direct("abcdef"), 6L));
+        assertTrue((int) memcmp.invokeExact(direct("abcdef"), direct("abcdeg"), 6L) < 0);
+    }
+
+    @Test
+    public void directBufferPositions() throws Throwable {
+        MethodHandle memcmp = memcmp(ByteBuffer.class);
+        ByteBuffer a = direct("xxabc");
+        a.position(2);
+        ByteBuffer b = direct("abcyy");
+        assertEquals(0, (int) memcmp.invokeExact(a, b, 3L));
+        assertEquals(0, (int) memcmp.invokeExact(a.slice(), b.duplicate(), 3L));
+    }
+
+    @Test
+    public void directViewBuffers() throws Throwable {
+        MethodHandle memcmp = memcmp(IntBuffer.class);
+        IntBuffer a = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder()).asIntBuffer();
+        IntBuffer b = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder()).asIntBuffer();
+        a.put(new int[] { 0, 1, 2, 3 });
+        b.put(new int[] { 1, 2, 3, 4 });
+        a.position(1);
+        b.rewind();
+        assertEquals(0, (int) memcmp.invokeExact(a, b, 12L));
+    }
+
+    private static ByteBuffer heap(String s) {
+        ByteBuffer buffer = ByteBuffer.allocate(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put(i, (byte) s.charAt(i));
+        }
+
+        return buffer;
+    }
+
+    @Test
+    public void readOnlyHeapBuffers() throws Throwable {
+        MethodHandle memcmp = memcmp(ByteBuffer.class);
+        assertEquals(0, (int) memcmp.invokeExact(heap("abcdef").asReadOnlyBuffer(), direct("abcdef"), 6L));
+        assertTrue((int) memcmp.invokeExact(heap("abcdeg").asReadOnlyBuffer(), heap("abcdef"), 6L) > 0);
+    }
+
+    @Test
+    public void slicedAndDuplicatedHeapBuffers() throws Throwable {
+        MethodHandle memcmp = memcmp(ByteBuffer.class);
+        ByteBuffer buffer = heap("xxabcxx");
+        buffer.position(2);
+        ByteBuffer slice = buffer.slice();
+        ByteBuffer readOnlySlice = buffer.asReadOnlyBuffer().slice();
+        ByteBuffer duplicate = buffer.duplicate();
+        ByteBuffer expected = direct("abc");
+
+        assertEquals(0, (int) memcmp.invokeExact(buffer, expected, 3L));
+        assertEquals(0, (int) memcmp.invokeExact(slice, expected, 3L));
+        assertEquals(0, (int) memcmp.invokeExact(readOnlySlice, expected, 3L));
+        assertEquals(0, (int) memcmp.invokeExact(duplicate, expected, 3L));
+    }
+
+    @Test
+    public void heapBuffersAreWrittenBack() throws Throwable {
+        MethodHandle memset = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.VOID, void.class), ParameterType.buffer(ByteBuffer.class, DataDirection.INOUT),
+                TestLibraries.INT_PARAMETER, SIZE_PARAMETER), libc.getFunction("memset"));
+        ByteBuffer buffer = heap("abcdef");
+        buffer.position(2);
+        memset.invokeExact(buffer.slice(), (int) 'z', 2L);
+        assertEquals('b', buffer.get(1));
+        assertEquals('z', buffer.get(2));
+        assertEquals('z', buffer.get(3));
+        assertEquals('e', buffer.get(4));
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void readOnlyHeapBuffersCannotBeWritten() throws Throwable {
+        MethodHandle memset = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.VOID, void.class), ParameterType.buffer(ByteBuffer.class, DataDirection.OUT),
+                TestLibraries.INT_PARAMETER, SIZE_PARAMETER), libc.getFunction("memset"));
+        memset.invokeExact(heap("abcdef").asReadOnlyBuffer(), (int) 'z', 2L);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+
+public class CallChainTest {
+    private static final Signature INT_INT_INT = Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+            INT_PARAMETER, INT_PARAMETER);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    @Test
+    public void resultIsPassedToNextCall() throws Throwable {
+        CallChain chain = CallChain.builder(INT_PARAMETER)
+                .call(INT_INT, libc.getFunction("abs"), CallChain.input(0))
+                .call(INT_INT, libc.getFunction("toupper"), CallChain.result(0))
+                .build();
+        MethodHandle handle = Native.getMethodHandle(chain);
+
+        assertEquals('A', (int) handle.invokeExact(-'a'));
+    }
+
+    @Test
+    public void inputsAndConstants() throws Throwable {
+        CallChain chain = CallChain.builder(INT_PARAMETER, INT_PARAMETER)
+                .call(INT_INT, libc.getFunction("abs"), CallChain.input(1))
+                .call(INT_INT, libc.getFunction("abs"), CallChain.constant(-42))
+                .call(INT_INT, libc.getFunction("abs"), CallChain.input(0))
+                .returning(1)
+                .build();
+        MethodHandle handle = Native.getMethodHandle(chain);
+
+        assertEquals(42, (int) handle.invokeExact(-1, -2));
+    }
+
+    @Test
+    public void returnsLastResultByDefault() throws Throwable {
+        CallChain chain = CallChain.builder(INT_PARAMETER, INT_PARAMETER)
+                .call(INT_INT, libc.getFunction("abs"), CallChain.input(0))
+                .call(INT_INT, libc.getFunction("abs"), CallChain.input(1))
+                .build();
+        MethodHandle handle = Native.getMethodHandle(chain);
+
+        assertEquals(7, (int) handle.invokeExact(-3, -7));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingInput() {
+        CallChain.builder(INT_PARAMETER).call(INT_INT, libc.getFunction("abs"), CallChain.input(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLaterResult() {
+        CallChain.builder(INT_PARAMETER).call(INT_INT_INT, libc.getFunction("abs"), CallChain.input(0), CallChain.result(0));
+    }
+}
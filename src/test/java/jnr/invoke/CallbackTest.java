@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import com.kenai.jffi.MemoryIO;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CallbackTest {
+    private static final ParameterType POINTER_PARAMETER = ParameterType.primitive(NativeType.POINTER, long.class);
+    private static final ParameterType SIZE_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+    private static final Signature COMPARATOR = Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+            POINTER_PARAMETER, POINTER_PARAMETER);
+
+    private Library libc;
+    private MethodHandle qsort;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+        // void qsort(void *base, size_t nmemb, size_t size, int (*compar)(const void *, const void *))
+        qsort = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.VOID, void.class), ParameterType.array(int[].class, DataDirection.INOUT),
+                SIZE_PARAMETER, SIZE_PARAMETER, POINTER_PARAMETER), libc.getFunction("qsort"));
+    }
+
+    static int descending(long a, long b) {
+        return Integer.compare(MemoryIO.getInstance().getInt(b), MemoryIO.getInstance().getInt(a));
+    }
+
+    static int fail(long a, long b) {
+        throw new IllegalStateException("comparator failed");
+    }
+
+    private static MethodHandle comparator(String name) throws Exception {
+        return MethodHandles.lookup().findStatic(CallbackTest.class, name,
+                MethodType.methodType(int.class, long.class, long.class));
+    }
+
+    @Test
+    public void nativeCallsJava() throws Throwable {
+        Callback callback = Native.getCallbackAddress(comparator("descending"), COMPARATOR);
+        try {
+            int[] values = { 3, -1, 4, 1, -5, 9, 2, 6 };
+            qsort.invokeExact(values, (long) values.length, 4L, callback.address());
+            assertArrayEquals(new int[] { 9, 6, 4, 3, 2, 1, -1, -5 }, values);
+        } finally {
+            callback.dispose();
+        }
+    }
+
+    @Test
+    public void javaCallsCallback() throws Throwable {
+        MethodHandle negate = MethodHandles.lookup().findStatic(Math.class, "negateExact",
+                MethodType.methodType(int.class, int.class));
+        Callback callback = Native.getCallbackAddress(negate, INT_INT);
+        try {
+            MethodHandle handle = Native.getMethodHandle(INT_INT, callback);
+            assertEquals(-42, (int) handle.invokeExact(42));
+            assertEquals(7, (int) handle.invokeExact(-7));
+        } finally {
+            callback.dispose();
+        }
+    }
+
+    @Test
+    public void exceptionsReturnZero() throws Throwable {
+        final List<Throwable> uncaught = new ArrayList<Throwable>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            public void uncaughtException(Thread t, Throwable e) {
+                uncaught.add(e);
+            }
+        });
+
+        Callback callback = Native.getCallbackAddress(comparator("fail"), COMPARATOR);
+        try {
+            MethodHandle handle = Native.getMethodHandle(COMPARATOR, callback);
+            assertEquals(0, (int) handle.invokeExact(1L, 2L));
+            assertEquals(1, uncaught.size());
+            assertEquals("comparator failed", uncaught.get(0).getMessage());
+        } finally {
+            callback.dispose();
+            thread.setUncaughtExceptionHandler(handler);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void onlyPrimitiveSignatures() {
+        Native.getCallbackAddress(MethodHandles.constant(int.class, 0), Signature.getSignature(Signature.DEFAULT,
+                INT_RESULT, ParameterType.string(Charset.forName("UTF-8"))));
+    }
+}
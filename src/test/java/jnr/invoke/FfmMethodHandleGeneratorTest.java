@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.Charset;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class FfmMethodHandleGeneratorTest {
+    private static final ParameterType LONG_PARAMETER = ParameterType.primitive(NativeType.SLONG, long.class);
+    private static final ParameterType DOUBLE_PARAMETER = ParameterType.primitive(NativeType.DOUBLE, double.class);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    private MethodHandle link(Signature signature, String name) {
+        assumeTrue(FfmMethodHandleGenerator.isAvailable());
+        assertTrue(FfmMethodHandleGenerator.isSupported(signature));
+        return new FfmMethodHandleGenerator().createBoundHandle(signature, libc.getFunction(name));
+    }
+
+    @Test
+    public void primitiveCalls() throws Throwable {
+        assertEquals(42, (int) link(INT_INT, "abs").invokeExact(-42));
+
+        MethodHandle labs = link(Signature.getSignature(Signature.DEFAULT, ResultType.primitive(NativeType.SLONG, long.class),
+                LONG_PARAMETER), "labs");
+        assertEquals(1L << 40, (long) labs.invokeExact(-1L << 40));
+
+        MethodHandle ldexp = link(Signature.getSignature(Signature.LEAF, ResultType.primitive(NativeType.DOUBLE, double.class),
+                DOUBLE_PARAMETER, INT_PARAMETER), "ldexp");
+        assertEquals(12.0, (double) ldexp.invokeExact(1.5, 3), 0);
+    }
+
+    @Test
+    public void convertsNarrowAndUnsignedResults() throws Throwable {
+        MethodHandle toupper = link(Signature.getSignature(Signature.DEFAULT, ResultType.primitive(NativeType.UCHAR, int.class),
+                INT_PARAMETER), "toupper");
+        assertEquals('Q', (int) toupper.invokeExact((int) 'q'));
+
+        // abs(INT_MIN) is INT_MIN, which zero extends to 2^31 as an unsigned int
+        MethodHandle abs = link(Signature.getSignature(Signature.DEFAULT, ResultType.primitive(NativeType.UINT, long.class),
+                INT_PARAMETER), "abs");
+        assertEquals(1L << 31, (long) abs.invokeExact(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void matchesTheDefaultHandles() throws Throwable {
+        MethodHandle abs = Native.getMethodHandle(INT_INT, libc.getFunction("abs"));
+        for (int i = -1000; i < 1000; i += 7) {
+            assertEquals(Math.abs(i), (int) abs.invokeExact(i));
+        }
+    }
+
+    @Test
+    public void onlyLinksPrimitiveSignatures() {
+        assertFalse(FfmMethodHandleGenerator.isSupported(Signature.getSignature(Signature.SAVE_ERRNO, INT_RESULT, INT_PARAMETER)));
+        assertFalse(FfmMethodHandleGenerator.isSupported(Signature.getSignature(Signature.FAULT_PROTECT, INT_RESULT, INT_PARAMETER)));
+        assertFalse(FfmMethodHandleGenerator.isSupported(Signature.getSignature(Signature.LEAF, INT_RESULT,
+                ParameterType.array(byte[].class, DataDirection.IN))));
+        assertFalse(FfmMethodHandleGenerator.isSupported(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                ParameterType.string(Charset.forName("UTF-8")))));
+        assertFalse(FfmMethodHandleGenerator.isSupported(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                ParameterType.out(NativeType.SINT))));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.WeakReference;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FunctionSlotTest {
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    @Test
+    public void retargetsExistingHandles() throws Throwable {
+        CodeAddress abs = libc.getFunction("abs");
+        CodeAddress toupper = libc.getFunction("toupper");
+        FunctionSlot slot = new FunctionSlot(abs);
+        MethodHandle handle = Native.getMethodHandle(INT_INT, slot);
+        assertEquals(3, (int) handle.invokeExact(-3));
+
+        slot.set(toupper);
+        assertSame(toupper, slot.get());
+        assertEquals('B', (int) handle.invokeExact((int) 'b'));
+
+        slot.set(abs);
+        assertEquals(5, (int) handle.invokeExact(-5));
+    }
+
+    @Test
+    public void compareAndSet() throws Throwable {
+        CodeAddress abs = libc.getFunction("abs");
+        CodeAddress toupper = libc.getFunction("toupper");
+        FunctionSlot slot = new FunctionSlot(abs);
+        MethodHandle handle = Native.getMethodHandle(INT_INT, slot);
+
+        assertFalse(slot.compareAndSet(toupper, abs));
+        assertTrue(slot.compareAndSet(abs, toupper));
+        assertEquals('C', (int) handle.invokeExact((int) 'c'));
+    }
+
+    @Test
+    public void lazySlotResolvesOnFirstCall() throws Throwable {
+        FunctionSlot slot = FunctionSlot.lazy(libc, "abs", INT_INT);
+        MethodHandle handle = Native.getMethodHandle(INT_INT, slot);
+
+        assertEquals(7, (int) handle.invokeExact(-7));
+        assertEquals(libc.getFunction("abs").address(), slot.get().address());
+        assertEquals(8, (int) handle.invokeExact(-8));
+    }
+
+    @Test
+    public void lazySlotKeepsResolverAlive() throws Throwable {
+        FunctionSlot slot = FunctionSlot.lazy(libc, "abs", INT_INT);
+        // Calls which read the slot before it was resolved still enter the resolver afterwards
+        WeakReference<CodeAddress> resolver = new WeakReference<CodeAddress>(slot.get());
+        MethodHandle handle = Native.getMethodHandle(INT_INT, slot);
+        assertEquals(7, (int) handle.invokeExact(-7));
+
+        System.gc();
+        assertNotNull(resolver.get());
+        assertEquals(9, (int) Native.getMethodHandle(INT_INT, resolver.get()).invokeExact(-9));
+    }
+}
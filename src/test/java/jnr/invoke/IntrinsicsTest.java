@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class IntrinsicsTest {
+    private static final int[] LENGTHS = { 0, 1, 7, 8, 9, 15, 16, 100, 1000, 4099 };
+
+    private Checksum reference;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Intrinsics.isCrc32cSupported());
+        // java.util.zip.CRC32C is only available from java 9
+        Class<?> crc32c;
+        try {
+            crc32c = Class.forName("java.util.zip.CRC32C");
+        } catch (ClassNotFoundException e) {
+            crc32c = null;
+        }
+        assumeTrue(crc32c != null);
+        reference = (Checksum) crc32c.newInstance();
+    }
+
+    private int expected(byte[] bytes, int offset, int length) {
+        reference.reset();
+        reference.update(bytes, offset, length);
+        return (int) reference.getValue();
+    }
+
+    @Test
+    public void array() {
+        Random random = new Random(1);
+        for (int length : LENGTHS) {
+            byte[] bytes = new byte[length + 3];
+            random.nextBytes(bytes);
+            assertEquals("length " + length, expected(bytes, 3, length), Intrinsics.crc32c(0, bytes, 3, length));
+        }
+    }
+
+    @Test
+    public void continuedChecksum() {
+        byte[] bytes = new byte[1001];
+        new Random(2).nextBytes(bytes);
+        int crc = Intrinsics.crc32c(Intrinsics.crc32c(0, bytes, 0, 500), bytes, 500, 501);
+        assertEquals(expected(bytes, 0, bytes.length), crc);
+    }
+
+    @Test
+    public void buffers() {
+        Random random = new Random(3);
+        for (int length : LENGTHS) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            ByteBuffer direct = ByteBuffer.allocateDirect(length);
+            direct.put(bytes).flip();
+            ByteBuffer readOnly = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+
+            assertEquals("length " + length, expected(bytes, 0, length), Intrinsics.crc32c(0, direct));
+            assertFalse(direct.hasRemaining());
+            assertEquals("length " + length, expected(bytes, 0, length), Intrinsics.crc32c(0, readOnly));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsSliceOutsideArray() {
+        Intrinsics.crc32c(0, new byte[4], 2, 3);
+    }
+}
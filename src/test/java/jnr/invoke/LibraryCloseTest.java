@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LibraryCloseTest {
+    // Flags which no other test opens the C library with, so closing it here does not close theirs
+    private static final int FLAGS = Library.NOW | Library.LOCAL;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+    }
+
+    private static Library libc() {
+        return Library.open("libc.so.6", FLAGS);
+    }
+
+    private static void assertClosed(MethodHandle abs) throws Throwable {
+        try {
+            int result = (int) abs.invokeExact(-1);
+            fail("expected the handle to throw");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void closeIsReferenceCounted() throws Throwable {
+        Library libc = libc();
+        assertSame(libc, libc());
+        MethodHandle abs = Native.getMethodHandle(INT_INT, libc.getFunction("abs"));
+
+        libc.close();
+        assertFalse(libc.isClosed());
+        assertEquals(1, (int) abs.invokeExact(-1));
+
+        libc.close();
+        assertTrue(libc.isClosed());
+        assertClosed(abs);
+
+        Library reopened = libc();
+        try {
+            assertNotEquals(libc, reopened);
+            assertClosed(abs);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedLibrariesHaveNoFunctions() {
+        Library libc = libc();
+        libc.close();
+        libc.getFunction("abs");
+    }
+
+    @Test
+    public void reloadRelinksHandles() throws Throwable {
+        Library libc = libc();
+        try {
+            MethodHandle abs = Native.getMethodHandle(INT_INT, libc.getFunction("abs"));
+            assertEquals(2, (int) abs.invokeExact(-2));
+            libc.reload();
+            assertEquals(3, (int) abs.invokeExact(-3));
+            assertEquals(libc.getFunction("abs").address(), TestLibraries.libc().getFunction("abs").address());
+        } finally {
+            libc.close();
+        }
+    }
+
+    @Test
+    public void variablesKeepTheLibraryOpen() {
+        Library libc = libc();
+        Variable optind = libc.getVariable("optind", NativeType.SINT);
+        try {
+            libc.reload();
+            fail("expected reload to fail while a variable is in use");
+        } catch (IllegalStateException expected) {
+        }
+
+        libc.close();
+        assertFalse(libc.isClosed());
+        assertTrue(optind.getInt() >= 0);
+
+        // The reference of the variable is released once it is garbage collected
+        optind = null;
+        for (int i = 0; i < 10 && !libc.isClosed(); i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        assertTrue(libc.isClosed());
+    }
+
+    @Test
+    public void functionSlotsKeepTheLibraryOpen() throws Throwable {
+        Library libc = libc();
+        FunctionSlot slot = new FunctionSlot(libc.getFunction("abs"));
+        MethodHandle abs = Native.getMethodHandle(INT_INT, slot);
+        libc.close();
+        assertFalse(libc.isClosed());
+        assertEquals(4, (int) abs.invokeExact(-4));
+
+        // Retargeting the slot releases the library
+        slot.set(TestLibraries.libc().getFunction("abs"));
+        assertTrue(libc.isClosed());
+        assertEquals(5, (int) abs.invokeExact(-5));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import com.kenai.jffi.MemoryIO;
+import com.kenai.jffi.ObjectParameterType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+
+public class ObjectParameterStrategyTest {
+    private static final ParameterType SIZE_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+    private static final ObjectParameterStrategy HEAP_STRATEGY = BufferParameterStrategy.heap(
+            ObjectParameterType.ComponentType.BYTE, DataDirection.IN);
+
+    private static final ObjectParameterStrategy[] DIRECT_STRATEGIES = {
+        new DirectStrategy() {}, new DirectStrategy() {}, new DirectStrategy() {},
+        new DirectStrategy() {}, new DirectStrategy() {}, new DirectStrategy() {},
+    };
+
+    private static final AtomicInteger LOOKUPS = new AtomicInteger();
+
+    private Library libc;
+    private MethodHandle memcmp;
+
+    @Before
+    public void setUp() throws Exception {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+        LOOKUPS.set(0);
+
+        ParameterType buffer = ParameterType.object(ByteBuffer.class, DataDirection.IN, MethodHandles.lookup().findStatic(
+                ObjectParameterStrategyTest.class, "lookup", MethodType.methodType(ObjectParameterStrategy.class, ByteBuffer.class)));
+        memcmp = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT, buffer, buffer, SIZE_PARAMETER),
+                libc.getFunction("memcmp"));
+    }
+
+    static ObjectParameterStrategy lookup(ByteBuffer buffer) {
+        int count = LOOKUPS.getAndIncrement();
+        return buffer.isDirect() ? DIRECT_STRATEGIES[count % DIRECT_STRATEGIES.length] : HEAP_STRATEGY;
+    }
+
+    private static abstract class DirectStrategy extends ObjectParameterStrategy {
+        DirectStrategy() {
+            super(DIRECT);
+        }
+
+        public long address(Object parameter) {
+            return MemoryIO.getInstance().getDirectBufferAddress((ByteBuffer) parameter);
+        }
+
+        public Object object(Object parameter) {
+            throw new UnsupportedOperationException("direct strategy");
+        }
+
+        public int offset(Object parameter) {
+            throw new UnsupportedOperationException("direct strategy");
+        }
+
+        public int length(Object parameter) {
+            throw new UnsupportedOperationException("direct strategy");
+        }
+    }
+
+    private static ByteBuffer fill(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put(i, (byte) s.charAt(i));
+        }
+
+        return buffer;
+    }
+
+    @Test
+    public void looksUpEachStrategyOnce() throws Throwable {
+        ByteBuffer a = fill(ByteBuffer.allocateDirect(4), "abcd");
+        ByteBuffer b = fill(ByteBuffer.allocateDirect(4), "abcd");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, (int) memcmp.invokeExact(a, b, 4L));
+        }
+        assertEquals(200, LOOKUPS.get());
+    }
+
+    @Test
+    public void looksUpEachStrategyOnceForHeapParameters() throws Throwable {
+        ByteBuffer a = fill(ByteBuffer.allocate(4), "abcd");
+        ByteBuffer b = fill(ByteBuffer.allocateDirect(4), "abce");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(-1, Integer.signum((int) memcmp.invokeExact(a, b, 4L)));
+        }
+        assertEquals(200, LOOKUPS.get());
+    }
+
+    @Test
+    public void manyStrategyClasses() throws Throwable {
+        // More strategy classes than the inline cache holds
+        ByteBuffer a = fill(ByteBuffer.allocateDirect(4), "abcd");
+        ByteBuffer b = fill(ByteBuffer.allocateDirect(4), "abcd");
+        ByteBuffer c = fill(ByteBuffer.allocateDirect(4), "abcc");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, (int) memcmp.invokeExact(a, b, 4L));
+            assertEquals(1, Integer.signum((int) memcmp.invokeExact(a, c, 4L)));
+        }
+    }
+}
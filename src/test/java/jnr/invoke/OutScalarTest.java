@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+
+public class OutScalarTest {
+    private static final ResultType DOUBLE_RESULT = ResultType.primitive(NativeType.DOUBLE, double.class);
+    private static final ParameterType DOUBLE_PARAMETER = ParameterType.primitive(NativeType.DOUBLE, double.class);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    @Test
+    public void intOut() throws Throwable {
+        // double frexp(double x, int *exp)
+        MethodHandle frexp = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, DOUBLE_RESULT,
+                DOUBLE_PARAMETER, ParameterType.out(NativeType.SINT)), libc.getFunction("frexp"));
+        assertEquals(0.75, (double) frexp.invokeExact(48.0), 0);
+        assertEquals(6, OutScalars.current().getInt(0));
+        assertEquals(0.5, (double) frexp.invokeExact(0.125), 0);
+        assertEquals(-2, OutScalars.current().getInt(0));
+        assertEquals(-2L, OutScalars.current().getLong(0));
+    }
+
+    @Test
+    public void doubleOut() throws Throwable {
+        // double modf(double x, double *iptr)
+        MethodHandle modf = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, DOUBLE_RESULT,
+                DOUBLE_PARAMETER, ParameterType.out(NativeType.DOUBLE)), libc.getFunction("modf"));
+        assertEquals(0.25, (double) modf.invokeExact(3.25), 0);
+        assertEquals(3.0, OutScalars.current().getDouble(0), 0);
+    }
+
+    @Test
+    public void pointerOut() throws Throwable {
+        // long strtol(const char *nptr, char **endptr, int base), with endptr pointing into the scratch copy of nptr
+        MethodHandle strtol = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.SLONG, long.class), ParameterType.string(Charset.forName("US-ASCII")),
+                ParameterType.out(NativeType.POINTER), INT_PARAMETER), libc.getFunction("strtol"));
+        assertEquals(1234L, (long) strtol.invokeExact("1234xyz", 10));
+        long end = OutScalars.current().getLong(0);
+        assertEquals(0xffL, (long) strtol.invokeExact("ff", 16));
+        assertEquals(end - 2, OutScalars.current().getLong(0));
+    }
+
+    @Test
+    public void severalOuts() throws Throwable {
+        // void sincos(double x, double *sin, double *cos)
+        Library libm = Library.open("libm.so.6", Library.LAZY);
+        MethodHandle sincos = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.VOID, void.class), DOUBLE_PARAMETER,
+                ParameterType.out(NativeType.DOUBLE), ParameterType.out(NativeType.DOUBLE)), libm.getFunction("sincos"));
+        sincos.invokeExact(1.0);
+        assertEquals(Math.sin(1.0), OutScalars.current().getDouble(0), 1e-15);
+        assertEquals(Math.cos(1.0), OutScalars.current().getDouble(1), 1e-15);
+    }
+
+    @Test
+    public void inOut() throws Throwable {
+        // int getsockopt(int fd, int level, int name, void *value, socklen_t *len), for SOL_SOCKET/SO_TYPE
+        MethodHandle socket = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                INT_PARAMETER, INT_PARAMETER, INT_PARAMETER), libc.getFunction("socket"));
+        MethodHandle close = Native.getMethodHandle(TestLibraries.INT_INT, libc.getFunction("close"));
+        MethodHandle getsockopt = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                INT_PARAMETER, INT_PARAMETER, INT_PARAMETER, ParameterType.buffer(ByteBuffer.class, DataDirection.OUT),
+                ParameterType.inOut(NativeType.UINT)), libc.getFunction("getsockopt"));
+
+        int fd = (int) socket.invokeExact(2, 2, 0);
+        try {
+            for (ByteBuffer value : new ByteBuffer[] { ByteBuffer.allocateDirect(8), ByteBuffer.allocate(8) }) {
+                value.order(ByteOrder.nativeOrder());
+                assertEquals(0, (int) getsockopt.invokeExact(fd, 1, 3, value, 8));
+                assertEquals(2, value.getInt(0));
+                assertEquals(4, OutScalars.current().getInt(0));
+            }
+
+            // A shorter length is passed in, and the value is truncated to it
+            assertEquals(0, (int) getsockopt.invokeExact(fd, 1, 3, ByteBuffer.allocate(8), 2));
+            assertEquals(2, OutScalars.current().getInt(0));
+        } finally {
+            int result = (int) close.invokeExact(fd);
+        }
+    }
+}
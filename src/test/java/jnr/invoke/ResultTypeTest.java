@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResultTypeTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final ParameterType LONG_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+    private static final ParameterType STRING_PARAMETER = ParameterType.string(UTF8);
+    private static final ParameterType BUFFER_PARAMETER = ParameterType.buffer(ByteBuffer.class, DataDirection.INOUT);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    @Test
+    public void stringResult() throws Throwable {
+        MethodHandle getenv = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.string(UTF8), STRING_PARAMETER), libc.getFunction("getenv"));
+        assertEquals(System.getenv("PATH"), (String) getenv.invokeExact("PATH"));
+        assertNull((String) getenv.invokeExact("JNR_INVOKE_NO_SUCH_VARIABLE"));
+    }
+
+    @Test
+    public void charSequenceResult() throws Throwable {
+        MethodHandle getenv = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.charSequence(UTF8), STRING_PARAMETER), libc.getFunction("getenv"));
+        CharSequence path = (CharSequence) getenv.invokeExact("PATH");
+        assertEquals(System.getenv("PATH"), path.toString());
+    }
+
+    @Test
+    public void bufferResult() throws Throwable {
+        MethodHandle memset = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.buffer(8), BUFFER_PARAMETER, INT_PARAMETER, LONG_PARAMETER), libc.getFunction("memset"));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+        ByteBuffer result = (ByteBuffer) memset.invokeExact(buffer, (int) 'x', 16L);
+        assertEquals(8, result.capacity());
+        assertEquals('x', result.get(7));
+    }
+
+    @Test
+    public void bufferSizedByParameter() throws Throwable {
+        MethodHandle memset = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.bufferSizedBy(2), BUFFER_PARAMETER, INT_PARAMETER, LONG_PARAMETER), libc.getFunction("memset"));
+        ByteBuffer result = (ByteBuffer) memset.invokeExact(ByteBuffer.allocateDirect(16), (int) 'x', 10L);
+        assertEquals(10, result.capacity());
+        assertEquals('x', result.get(9));
+    }
+
+    @Test
+    public void bufferSizedByInOutScalar() throws Throwable {
+        // void *lsearch(const void *key, void *base, size_t *nmemb, size_t size, int (*compar)(const void *, const void *))
+        // appends the missing key and increments *nmemb, so the result is sized by the new element count
+        MethodHandle lsearch = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.bufferSizedBy(2), BUFFER_PARAMETER, BUFFER_PARAMETER, ParameterType.inOut(NativeType.ULONG),
+                LONG_PARAMETER, LONG_PARAMETER), libc.getFunction("lsearch"));
+        ByteBuffer key = ByteBuffer.allocateDirect(2).put(0, (byte) 'd');
+        ByteBuffer base = ByteBuffer.allocateDirect(16);
+        base.put(0, (byte) 'a').put(2, (byte) 'b').put(4, (byte) 'c');
+
+        ByteBuffer result = (ByteBuffer) lsearch.invokeExact(key, base, 3L, 2L, libc.getFunction("strcmp").address());
+        assertEquals(4L, OutScalars.current().getLong(0));
+        assertEquals(4, result.capacity());
+        assertEquals('d', result.get(0));
+        assertEquals('d', base.get(6));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ScratchArenaTest {
+    private static final ResultType ADDRESS_RESULT = ResultType.primitive(NativeType.POINTER, long.class);
+    private static final ParameterType SIZE_PARAMETER = ParameterType.primitive(NativeType.ULONG, long.class);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    @Test
+    public void allocationsAreAligned() {
+        ScratchArena arena = ScratchArena.current();
+        long mark = arena.mark();
+        try {
+            long a = arena.allocate(1);
+            long b = arena.allocate(3);
+            assertEquals(0, a & 15);
+            assertEquals(0, b & 15);
+            assertNotEquals(a, b);
+        } finally {
+            arena.reset(mark);
+        }
+    }
+
+    @Test
+    public void resetReusesMemory() {
+        ScratchArena arena = ScratchArena.current();
+        long mark = arena.mark();
+        try {
+            arena.allocate(32);
+            long inner = arena.mark();
+            long address = arena.allocate(64);
+            arena.reset(inner);
+            assertEquals(address, arena.allocate(64));
+        } finally {
+            arena.reset(mark);
+        }
+    }
+
+    @Test
+    public void largeAllocationsDoNotMoveTheMark() {
+        ScratchArena arena = ScratchArena.current();
+        long mark = arena.mark();
+        try {
+            long small = arena.allocate(16);
+            arena.allocate(1 << 20);
+            long next = arena.allocate(16);
+            assertEquals(small + 16, next);
+        } finally {
+            arena.reset(mark);
+        }
+    }
+
+    private MethodHandle memcpy(Class arrayType) {
+        return Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, ADDRESS_RESULT,
+                ParameterType.array(arrayType, DataDirection.OUT), ParameterType.array(arrayType, DataDirection.IN),
+                SIZE_PARAMETER), libc.getFunction("memcpy"));
+    }
+
+    @Test
+    public void copiesHeapArrays() throws Throwable {
+        MethodHandle memcpy = memcpy(int[].class);
+        int[] src = new int[] { 1, 2, 3, 4 };
+        int[] dst = new int[4];
+        long address = (long) memcpy.invokeExact(dst, src, 16L);
+        assertArrayEquals(src, dst);
+        assertNotEquals(0L, address);
+    }
+
+    @Test
+    public void copiesArraysLargerThanAChunk() throws Throwable {
+        MethodHandle memcpy = memcpy(byte[].class);
+        byte[] src = new byte[100000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) i;
+        }
+        byte[] dst = new byte[src.length];
+        long address = (long) memcpy.invokeExact(dst, src, (long) src.length);
+        assertArrayEquals(src, dst);
+        assertNotEquals(0L, address);
+    }
+
+    @Test
+    public void callsReleaseTheirScratchMemory() throws Throwable {
+        MethodHandle memcpy = memcpy(byte[].class);
+        byte[] src = new byte[] { 1, 2, 3 };
+        long first = (long) memcpy.invokeExact(new byte[3], src, 3L);
+        for (int i = 0; i < 1000; i++) {
+            long address = (long) memcpy.invokeExact(new byte[3], src, 3L);
+            assertEquals(first, address);
+        }
+    }
+}
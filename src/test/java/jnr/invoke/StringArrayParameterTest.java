@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import com.kenai.jffi.MemoryIO;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+
+public class StringArrayParameterTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    /**
+     * Gets a handle for {@code int getsubopt(char **optionp, char *const *tokens, char **valuep)}, which returns the
+     * index of the first suboption of *optionp in the NULL terminated tokens array.
+     */
+    private MethodHandle getsubopt(ParameterType tokens) {
+        return Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                ParameterType.inOut(NativeType.POINTER), tokens, ParameterType.out(NativeType.POINTER)),
+                libc.getFunction("getsubopt"));
+    }
+
+    private static long options(ByteBuffer buffer, String options) {
+        byte[] bytes = options.getBytes(UTF8);
+        buffer.clear();
+        buffer.put(bytes).put((byte) 0);
+        return MemoryIO.getInstance().getDirectBufferAddress(buffer);
+    }
+
+    @Test
+    public void stringArrays() throws Throwable {
+        MethodHandle getsubopt = getsubopt(ParameterType.stringArray(UTF8));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        String[] tokens = { "rw", "ro", "size", "größe" };
+
+        assertEquals(1, (int) getsubopt.invokeExact(options(buffer, "ro"), tokens));
+        assertEquals(-1, (int) getsubopt.invokeExact(options(buffer, "noexec"), tokens));
+        assertEquals(3, (int) getsubopt.invokeExact(options(buffer, "größe=1"), tokens));
+
+        long option = options(buffer, "size=10,ro");
+        assertEquals(2, (int) getsubopt.invokeExact(option, tokens));
+        assertEquals(option + 8, OutScalars.current().getLong(0));
+        assertEquals(option + 5, OutScalars.current().getLong(1));
+        assertEquals('1', MemoryIO.getInstance().getByte(OutScalars.current().getLong(1)));
+    }
+
+    @Test
+    public void nullElementsEndTheArray() throws Throwable {
+        MethodHandle getsubopt = getsubopt(ParameterType.stringArray(UTF8));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        assertEquals(-1, (int) getsubopt.invokeExact(options(buffer, "ro"), new String[] { "rw", null, "ro" }));
+        assertEquals(-1, (int) getsubopt.invokeExact(options(buffer, "ro"), new String[0]));
+    }
+
+    @Test
+    public void byteStringArrays() throws Throwable {
+        MethodHandle getsubopt = getsubopt(ParameterType.byteStringArray());
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        byte[][] tokens = { "rw".getBytes(UTF8), "ro".getBytes(UTF8) };
+        assertEquals(0, (int) getsubopt.invokeExact(options(buffer, "rw"), tokens));
+        assertEquals(1, (int) getsubopt.invokeExact(options(buffer, "ro"), tokens));
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class StringParameterTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final ResultType SIZE_RESULT = ResultType.primitive(NativeType.ULONG, long.class);
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    private MethodHandle strlen(Charset charset) {
+        return Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, SIZE_RESULT, ParameterType.string(charset)),
+                libc.getFunction("strlen"));
+    }
+
+    private MethodHandle strdup(Charset charset) {
+        return Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, ResultType.string(charset),
+                ParameterType.string(charset)), libc.getFunction("strdup"));
+    }
+
+    @Test
+    public void asciiStrings() throws Throwable {
+        assertEquals(5L, (long) strlen(UTF8).invokeExact("hello"));
+        assertEquals(0L, (long) strlen(UTF8).invokeExact(""));
+        assertEquals("hello", (String) strdup(ASCII).invokeExact("hello"));
+    }
+
+    @Test
+    public void encodesInTheCharset() throws Throwable {
+        assertEquals(6L, (long) strlen(UTF8).invokeExact("héllo"));
+        assertEquals(5L, (long) strlen(LATIN1).invokeExact("héllo"));
+        assertEquals("héllo wörld ✓", (String) strdup(UTF8).invokeExact("héllo wörld ✓"));
+        assertEquals("héllo", (String) strdup(LATIN1).invokeExact("héllo"));
+    }
+
+    @Test
+    public void replacesUnmappableCharacters() throws Throwable {
+        assertEquals("h?llo", (String) strdup(ASCII).invokeExact("héllo"));
+    }
+
+    @Test
+    public void longStrings() throws Throwable {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'x');
+        String ascii = new String(chars);
+        assertEquals(100000L, (long) strlen(LATIN1).invokeExact(ascii));
+        assertEquals(ascii, (String) strdup(UTF8).invokeExact(ascii));
+
+        Arrays.fill(chars, 'é');
+        String accented = new String(chars);
+        assertEquals(200000L, (long) strlen(UTF8).invokeExact(accented));
+        assertEquals(accented, (String) strdup(UTF8).invokeExact(accented));
+    }
+
+    @Test
+    public void nullStrings() throws Throwable {
+        // setlocale(LC_ALL, NULL) queries the current locale
+        MethodHandle setlocale = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, ResultType.string(ASCII),
+                INT_PARAMETER, ParameterType.string(ASCII)), libc.getFunction("setlocale"));
+        assertNotNull((String) setlocale.invokeExact(6, (String) null));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import com.kenai.jffi.MemoryIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+
+public class StructPackerTest {
+    private static final StructLayout POLLFD = StructLayout.builder()
+            .field("fd", NativeType.SINT)
+            .field("events", NativeType.SSHORT)
+            .field("revents", NativeType.SSHORT)
+            .build();
+
+    private static final short POLLIN = 0x1, POLLOUT = 0x4, POLLNVAL = 0x20;
+
+    public static final class PollFd {
+        public int fd;
+        public short events;
+        public short revents;
+
+        public PollFd() {
+        }
+
+        PollFd(int fd, short events) {
+            this.fd = fd;
+            this.events = events;
+        }
+    }
+
+    public static final class Descriptor {
+        private int descriptor;
+        private short mask;
+        private short result;
+
+        public int getDescriptor() {
+            return descriptor;
+        }
+
+        public void setDescriptor(int descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        public short getMask() {
+            return mask;
+        }
+
+        public void setMask(short mask) {
+            this.mask = mask;
+        }
+
+        public short getResult() {
+            return result;
+        }
+
+        public void setResult(short result) {
+            this.result = result;
+        }
+    }
+
+    private Library libc;
+    private int[] pipe;
+
+    @Before
+    public void setUp() throws Throwable {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+
+        MethodHandle pipe = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                ParameterType.array(int[].class, DataDirection.OUT)), libc.getFunction("pipe"));
+        this.pipe = new int[2];
+        assertEquals(0, (int) pipe.invokeExact(this.pipe));
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        if (pipe != null) {
+            MethodHandle close = Native.getMethodHandle(INT_INT, libc.getFunction("close"));
+            int result = (int) close.invokeExact(pipe[0]);
+            result = (int) close.invokeExact(pipe[1]);
+        }
+    }
+
+    /**
+     * Gets a handle for {@code int poll(struct pollfd *fds, nfds_t nfds, int timeout)}.
+     */
+    private MethodHandle poll(ParameterType fds) {
+        return Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT, fds,
+                ParameterType.primitive(NativeType.ULONG, long.class), INT_PARAMETER), libc.getFunction("poll"));
+    }
+
+    @Test
+    public void packsFields() throws Throwable {
+        StructPacker<PollFd> packer = StructPacker.create(POLLFD, PollFd.class);
+        MethodHandle poll = poll(ParameterType.structArray(packer, DataDirection.INOUT));
+        PollFd[] fds = { new PollFd(pipe[0], POLLIN), new PollFd(pipe[1], POLLOUT), new PollFd(1 << 20, POLLIN) };
+
+        assertEquals(2, (int) poll.invokeExact(fds, 3L, 0));
+        assertEquals(0, fds[0].revents);
+        assertEquals(POLLOUT, fds[1].revents);
+        assertEquals(POLLNVAL, fds[2].revents);
+        assertEquals(pipe[1], fds[1].fd);
+    }
+
+    @Test
+    public void packsAccessors() throws Throwable {
+        Map<String, String> mapping = new HashMap<String, String>();
+        mapping.put("fd", "descriptor");
+        mapping.put("events", "mask");
+        mapping.put("revents", "result");
+        StructPacker<Descriptor> packer = StructPacker.create(POLLFD, Descriptor.class, mapping);
+        MethodHandle poll = poll(ParameterType.structList(packer, DataDirection.INOUT));
+
+        Descriptor descriptor = new Descriptor();
+        descriptor.setDescriptor(pipe[1]);
+        descriptor.setMask(POLLOUT);
+        List<Descriptor> fds = Collections.singletonList(descriptor);
+        assertEquals(1, (int) poll.invokeExact(fds, 1L, 0));
+        assertEquals(POLLOUT, descriptor.getResult());
+    }
+
+    @Test
+    public void inParametersAreNotUnpacked() throws Throwable {
+        StructPacker<PollFd> packer = StructPacker.create(POLLFD, PollFd.class);
+        MethodHandle poll = poll(ParameterType.structArray(packer, DataDirection.IN));
+        PollFd[] fds = { new PollFd(pipe[1], POLLOUT) };
+        assertEquals(1, (int) poll.invokeExact(fds, 1L, 0));
+        assertEquals(0, fds[0].revents);
+    }
+
+    @Test
+    public void packsToMemory() {
+        StructPacker<PollFd> packer = StructPacker.create(POLLFD, PollFd.class);
+        PollFd[] fds = { new PollFd(3, POLLIN), new PollFd(4, POLLOUT) };
+        long address = MemoryIO.getInstance().allocateMemory(POLLFD.size() * 2, true);
+        try {
+            packer.pack(fds, address);
+            assertEquals(4, MemoryIO.getInstance().getInt(address + POLLFD.size()));
+            assertEquals(POLLOUT, MemoryIO.getInstance().getShort(address + POLLFD.size() + POLLFD.offsetOf("events")));
+
+            PollFd[] copies = { new PollFd(), new PollFd() };
+            packer.unpack(address, copies);
+            assertEquals(Arrays.asList(3, 4), Arrays.asList(copies[0].fd, copies[1].fd));
+            assertEquals(POLLIN, copies[0].events);
+        } finally {
+            MemoryIO.getInstance().freeMemory(address);
+        }
+    }
+}
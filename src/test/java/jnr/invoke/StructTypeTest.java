@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StructTypeTest {
+    private static final StructLayout TIMEVAL = StructLayout.builder()
+            .field("tv_sec", NativeType.SLONG)
+            .field("tv_usec", NativeType.SLONG)
+            .build();
+
+    private static final StructLayout MIXED = StructLayout.builder()
+            .field("c", NativeType.SCHAR)
+            .field("l", NativeType.SLONG)
+            .field("s", NativeType.SSHORT)
+            .array("name", NativeType.UCHAR, 5)
+            .field("d", NativeType.DOUBLE)
+            .build();
+
+    public interface Timeval extends Addressable {
+        long tv_sec();
+        void tv_sec(long value);
+        long getTv_usec();
+    }
+
+    public interface Mixed extends Addressable {
+        byte c();
+        void c(byte value);
+        long l();
+        void l(long value);
+        short s();
+        void s(short value);
+        int name(int index);
+        void name(int index, int value);
+        double d();
+        void d(double value);
+    }
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    @Test
+    public void layout() {
+        assertEquals(0, MIXED.offsetOf("c"));
+        assertEquals(8, MIXED.offsetOf("l"));
+        assertEquals(16, MIXED.offsetOf("s"));
+        assertEquals(18, MIXED.offsetOf("name"));
+        assertEquals(24, MIXED.offsetOf("d"));
+        assertEquals(32, MIXED.size());
+        assertEquals(8, MIXED.alignment());
+    }
+
+    @Test
+    public void accessors() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) MIXED.size());
+        Mixed mixed = MIXED.bind(Mixed.class).at(buffer);
+        mixed.c((byte) -1);
+        mixed.l(Long.MIN_VALUE);
+        mixed.s((short) 1234);
+        mixed.name(4, 0xff);
+        mixed.d(2.5);
+
+        assertEquals(-1, mixed.c());
+        assertEquals(Long.MIN_VALUE, mixed.l());
+        assertEquals(1234, mixed.s());
+        assertEquals(0, mixed.name(3));
+        assertEquals(0xff, mixed.name(4));
+        assertEquals(2.5, mixed.d(), 0);
+        assertEquals((byte) 0xff, buffer.get(22));
+    }
+
+    @Test
+    public void structParameters() throws Throwable {
+        // int gettimeofday(struct timeval *tv, struct timezone *tz)
+        StructType<Timeval> type = TIMEVAL.bind(Timeval.class);
+        MethodHandle gettimeofday = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                ParameterType.struct(type, false), ParameterType.struct(type, true)), libc.getFunction("gettimeofday"));
+
+        Timeval tv = type.at(ByteBuffer.allocateDirect((int) TIMEVAL.size()));
+        assertEquals(0, (int) gettimeofday.invokeExact(tv, (Timeval) null));
+        assertTrue(Math.abs(tv.tv_sec() - System.currentTimeMillis() / 1000) < 60);
+        assertTrue(tv.getTv_usec() >= 0 && tv.getTv_usec() < 1000000);
+    }
+
+    @Test
+    public void moveTo() {
+        StructType<Timeval> type = TIMEVAL.bind(Timeval.class);
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) TIMEVAL.size() * 3).order(ByteOrder.nativeOrder());
+        Timeval tv = type.at(buffer);
+        long base = tv.address();
+        for (int i = 0; i < 3; i++) {
+            type.moveTo(tv, base, i);
+            tv.tv_sec(i + 1);
+        }
+
+        assertEquals(1, buffer.getLong(0));
+        assertEquals(2, buffer.getLong(16));
+        assertEquals(3, type.at(base, 2).tv_sec());
+        type.moveTo(tv, base + TIMEVAL.size());
+        assertEquals(2, tv.tv_sec());
+    }
+
+    @Test
+    public void ownerKeepsBufferAlive() {
+        StructType<Timeval> type = TIMEVAL.bind(Timeval.class);
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) TIMEVAL.size());
+        WeakReference<ByteBuffer> ref = new WeakReference<ByteBuffer>(buffer);
+        Timeval tv = type.at(buffer);
+        buffer = null;
+
+        System.gc();
+        assertNotNull(ref.get());
+
+        // Moving to a raw address clears the owner
+        type.moveTo(tv, 0L);
+        System.gc();
+        assertNull(ref.get());
+    }
+}
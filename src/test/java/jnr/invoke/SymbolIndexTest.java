@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static jnr.invoke.TestLibraries.INT_INT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SymbolIndexTest {
+    private static final String[] FUNCTIONS = { "abs", "labs", "getenv", "qsort", "memcmp", "gettimeofday" };
+
+    private Library libc;
+    private com.kenai.jffi.Library dl;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+        dl = com.kenai.jffi.Library.getCachedInstance("libc.so.6", com.kenai.jffi.Library.LAZY);
+    }
+
+    @Test
+    public void addressesMatchDlsym() {
+        SymbolIndex index = libc.getSymbolIndex();
+        for (String name : FUNCTIONS) {
+            assertEquals(name, dl.getSymbolAddress(name), libc.getFunction(name).address());
+        }
+        assertEquals(dl.getSymbolAddress("environ"), libc.getVariable("environ", NativeType.POINTER).address());
+        assertSame(index, libc.getSymbolIndex());
+    }
+
+    @Test
+    public void indexedFunctionsCanBeCalled() throws Throwable {
+        libc.getSymbolIndex();
+        MethodHandle abs = Native.getMethodHandle(INT_INT, libc.getFunction("abs"));
+        assertEquals(3, (int) abs.invokeExact(-3));
+
+        MethodHandle strlen = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.ULONG, long.class), ParameterType.string(Charset.forName("UTF-8"))),
+                libc.getFunction("strlen"));
+        assertEquals(5L, (long) strlen.invokeExact("hello"));
+    }
+
+    @Test
+    public void listsNames() {
+        List<String> names = libc.getSymbolIndex().getNames();
+        for (String name : FUNCTIONS) {
+            assertTrue(name, names.contains(name));
+        }
+
+        List<String> sorted = new ArrayList<String>(names);
+        Collections.sort(sorted);
+        assertEquals(sorted, names);
+    }
+
+    @Test
+    public void listsNamesByPrefix() {
+        List<String> names = libc.getSymbolIndex().getNames("str");
+        assertTrue(names.contains("strlen"));
+        assertTrue(names.contains("strcmp"));
+        for (String name : names) {
+            assertTrue(name, name.startsWith("str"));
+        }
+        assertFalse(names.contains("memcmp"));
+        assertTrue(libc.getSymbolIndex().getNames("jnr_invoke_no_such_prefix").isEmpty());
+    }
+
+    @Test
+    public void functionsByPrefix() {
+        Map<String, CodeAddress> functions = libc.getSymbolIndex().getFunctions("getenv");
+        assertTrue(functions.containsKey("getenv"));
+        assertEquals(dl.getSymbolAddress("getenv"), functions.get("getenv").address());
+    }
+
+    @Test(expected = UnsatisfiedLinkError.class)
+    public void missingFunctions() {
+        libc.getSymbolIndex();
+        libc.getFunction("jnr_invoke_no_such_function");
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.LastError;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+
+public class SyscallTest {
+    private static final long SYS_CLOSE = 3;
+    private static final long SYS_GETPID = 39;
+    private static final int EBADF = 9;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+    }
+
+    @Test
+    public void getpid() throws Throwable {
+        Signature signature = Signature.getSignature(Signature.DEFAULT, INT_RESULT);
+        MethodHandle syscall = Native.getSyscallHandle(SYS_GETPID, signature);
+        MethodHandle libc = Native.getMethodHandle(signature, TestLibraries.libc().getFunction("getpid"));
+
+        assertEquals((int) libc.invokeExact(), (int) syscall.invokeExact());
+    }
+
+    @Test
+    public void savesErrno() throws Throwable {
+        MethodHandle close = Native.getSyscallHandle(SYS_CLOSE,
+                Signature.getSignature(Signature.SAVE_ERRNO, INT_RESULT, INT_PARAMETER));
+        LastError.getInstance().set(0);
+
+        assertEquals(-1, (int) close.invokeExact(-1));
+        assertEquals(EBADF, LastError.getInstance().get());
+    }
+
+    @Test
+    public void returnsNegatedErrnoWithoutSaveErrno() throws Throwable {
+        MethodHandle close = Native.getSyscallHandle(SYS_CLOSE,
+                Signature.getSignature(Signature.DEFAULT, INT_RESULT, INT_PARAMETER));
+
+        assertEquals(-EBADF, (int) close.invokeExact(-1));
+    }
+}
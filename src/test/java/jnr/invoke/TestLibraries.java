@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+
+import com.kenai.jffi.Platform;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Common setup for tests which call functions in the C library.
+ */
+final class TestLibraries {
+    static final ResultType INT_RESULT = ResultType.primitive(NativeType.SINT, int.class);
+    static final ParameterType INT_PARAMETER = ParameterType.primitive(NativeType.SINT, int.class);
+    static final Signature INT_INT = Signature.getSignature(Signature.DEFAULT, INT_RESULT, INT_PARAMETER);
+
+    private TestLibraries() {
+    }
+
+    static Library libc() {
+        return Library.open(Platform.getPlatform().getOS() == Platform.OS.LINUX ? "libc.so.6" : "libc.dylib", Library.LAZY);
+    }
+
+    /**
+     * Skips the current test unless it runs on x86_64 Linux, which the native stubs and system call numbers need.
+     */
+    static void assumeLinuxX86_64() {
+        assumeTrue(Platform.getPlatform().getOS() == Platform.OS.LINUX);
+        assumeTrue(Platform.getPlatform().getCPU() == Platform.CPU.X86_64);
+    }
+}
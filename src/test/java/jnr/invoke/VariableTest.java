@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import com.kenai.jffi.MemoryIO;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.Charset;
+
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VariableTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private Library libc;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        libc = TestLibraries.libc();
+    }
+
+    @Test
+    public void readsAndWritesLibraryState() throws Throwable {
+        // int getopt(int argc, char *const argv[], const char *optstring), which advances the optind variable
+        MethodHandle getopt = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                INT_PARAMETER, ParameterType.stringArray(ASCII), ParameterType.string(ASCII)), libc.getFunction("getopt"));
+        Variable optind = libc.getVariable("optind", NativeType.SINT);
+        Variable opterr = libc.getVariable("opterr", NativeType.SINT);
+        String[] argv = { "test", "-a", "-b", "file" };
+
+        int savedOpterr = opterr.getInt();
+        opterr.setInt(0);
+        try {
+            // Setting optind to 0 makes getopt start again
+            optind.setInt(0);
+            assertEquals('a', (int) getopt.invokeExact(argv.length, argv, "ab"));
+            assertEquals(2, optind.getInt());
+            assertEquals('b', (int) getopt.invokeExact(argv.length, argv, "ab"));
+            assertEquals(3L, optind.getLong());
+            assertEquals(3, optind.asByteBuffer().getInt(0));
+            assertEquals(-1, (int) getopt.invokeExact(argv.length, argv, "ab"));
+
+            optind.setInt(0);
+            assertEquals('?', (int) getopt.invokeExact(argv.length, argv, "b"));
+        } finally {
+            opterr.setInt(savedOpterr);
+            optind.setInt(1);
+        }
+    }
+
+    @Test
+    public void pointerVariables() {
+        Variable environ = libc.getVariable("environ", NativeType.POINTER);
+        long entry = MemoryIO.getInstance().getAddress(environ.getLong());
+        assertNotEquals(0L, entry);
+        assertTrue(new String(MemoryIO.getInstance().getZeroTerminatedByteArray(entry), ASCII).indexOf('=') > 0);
+    }
+
+    @Test
+    public void conversions() {
+        Variable opterr = libc.getVariable("opterr", NativeType.SINT);
+        int saved = opterr.getInt();
+        try {
+            opterr.setDouble(7.9);
+            assertEquals(7, opterr.getInt());
+            assertEquals(7.0, opterr.getDouble(), 0);
+            opterr.setLong(-1);
+            assertEquals(-1L, opterr.getLong());
+        } finally {
+            opterr.setInt(saved);
+        }
+    }
+
+    @Test(expected = UnsatisfiedLinkError.class)
+    public void missingVariables() {
+        libc.getVariable("jnr_invoke_no_such_variable", NativeType.SINT);
+    }
+}
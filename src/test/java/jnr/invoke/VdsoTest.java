@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 Wayne Meissner
+ *
+ * This file is part of the JNR project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package jnr.invoke;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static jnr.invoke.TestLibraries.INT_PARAMETER;
+import static jnr.invoke.TestLibraries.INT_RESULT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+public class VdsoTest {
+    private static final int CLOCK_REALTIME = 0;
+    private static final ParameterType POINTER_PARAMETER = ParameterType.primitive(NativeType.POINTER, long.class);
+
+    private Library vdso;
+
+    @Before
+    public void setUp() {
+        TestLibraries.assumeLinuxX86_64();
+        try {
+            vdso = Library.vdso();
+        } catch (UnsatisfiedLinkError error) {
+            assumeNoException(error);
+        }
+    }
+
+    @Test
+    public void clockGettime() throws Throwable {
+        // int clock_gettime(clockid_t clock, struct timespec *ts)
+        MethodHandle clockGettime = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                INT_PARAMETER, ParameterType.buffer(ByteBuffer.class, DataDirection.OUT)), vdso.getFunction("clock_gettime"));
+        ByteBuffer ts = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder());
+        long before = System.currentTimeMillis();
+        assertEquals(0, (int) clockGettime.invokeExact(CLOCK_REALTIME, ts));
+        long after = System.currentTimeMillis();
+
+        long millis = ts.getLong(0) * 1000 + ts.getLong(8) / 1000000;
+        assertTrue(millis >= before - 10 && millis <= after + 10);
+    }
+
+    @Test
+    public void time() throws Throwable {
+        MethodHandle time = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT,
+                ResultType.primitive(NativeType.SLONG, long.class), POINTER_PARAMETER), vdso.getFunction("time"));
+        assertTrue(Math.abs((long) time.invokeExact(0L) - System.currentTimeMillis() / 1000) <= 1);
+    }
+
+    @Test
+    public void getcpu() throws Throwable {
+        // int getcpu(unsigned *cpu, unsigned *node, void *cache)
+        MethodHandle getcpu = Native.getMethodHandle(Signature.getSignature(Signature.DEFAULT, INT_RESULT,
+                ParameterType.out(NativeType.UINT), ParameterType.out(NativeType.UINT), POINTER_PARAMETER),
+                vdso.getFunction("getcpu"));
+        assertEquals(0, (int) getcpu.invokeExact(0L));
+        assertTrue(OutScalars.current().getLong(0) < 4096);
+    }
+
+    @Test
+    public void prefixedNames() {
+        assertEquals(vdso.getFunction("clock_gettime").address(), vdso.getFunction("__vdso_clock_gettime").address());
+        assertEquals(vdso.getFunction("gettimeofday").address(), vdso.getFunction("__vdso_gettimeofday").address());
+    }
+
+    @Test
+    public void cannotBeClosed() {
+        vdso.close();
+        assertFalse(vdso.isClosed());
+        assertSame(vdso, Library.vdso());
+        vdso.getFunction("clock_gettime");
+    }
+
+    @Test(expected = UnsatisfiedLinkError.class)
+    public void missingFunctions() {
+        vdso.getFunction("open");
+    }
+}